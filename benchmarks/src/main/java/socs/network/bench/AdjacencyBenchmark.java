@@ -0,0 +1,112 @@
+package socs.network.bench;
+
+import org.openjdk.jmh.annotations.*;
+import socs.network.message.PacketCodec;
+import socs.network.message.PacketCodecs;
+import socs.network.message.PacketFactory;
+import socs.network.message.SOSPFPacket;
+import socs.network.node.RouterDescription;
+import socs.network.node.RouterRegistry;
+import socs.network.sockets.BlockingPacketServer;
+import socs.network.sockets.NioPacketServer;
+import socs.network.sockets.PacketServer;
+import socs.network.sockets.SocketClient;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for every adjacency of a router to exchange one HELLO packet over TCP, for the execution modes of the
+ * transport:
+ * <ul>
+ * <li>"nio": the NioPacketServer receives and the packets are sent one after the other by the calling thread, like a
+ * router in the platform thread mode</li>
+ * <li>"platform": one platform thread per inbound connection and per send, like the old PacketListener</li>
+ * <li>"virtual": one virtual thread per inbound connection and per send, like a router in the virtual thread mode;
+ * it needs Java 21, older JVMs fall back to platform threads</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdjacencyBenchmark {
+
+  @Param({"nio", "platform", "virtual"})
+  public String mode;
+
+  @Param({"100", "1000", "4000"})
+  public int adjacencies;
+
+  private final PacketCodec codec = PacketCodecs.BINARY;
+  private final Semaphore received = new Semaphore(0);
+  private ExecutorService dispatcher;
+  private ExecutorService senders;
+  private PacketServer server;
+  private SocketClient[] clients;
+  private SOSPFPacket[] packets;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    int port;
+    try (ServerSocket probe = new ServerSocket(0)) {
+      port = probe.getLocalPort();
+    }
+    dispatcher = Executors.newSingleThreadExecutor();
+    if (mode.equals("nio")) {
+      server = new NioPacketServer(port, 2, dispatcher, (packet, size) -> received.release());
+    } else {
+      server = new BlockingPacketServer(port, socs.network.util.Threads.factory(mode, "bench-reader"), dispatcher,
+        (packet, size) -> received.release(), codec);
+      senders = Executors.newCachedThreadPool(socs.network.util.Threads.factory(mode, "bench-sender"));
+    }
+    server.start();
+    RouterRegistry registry = new RouterRegistry();
+    RouterDescription local = registry.getInstance("127.0.0.1", port, Topologies.routerIP(0));
+    clients = new SocketClient[adjacencies];
+    packets = new SOSPFPacket[adjacencies];
+    for (int i = 0; i < adjacencies; i++) {
+      clients[i] = new SocketClient("127.0.0.1", port, codec);
+      RouterDescription neighbor = registry.getInstance("127.0.0.1", port, Topologies.routerIP(i + 1));
+      packets[i] = PacketFactory.createHelloPacket(neighbor, local, local.getSimulatedIP());
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (SocketClient client : clients) {
+      client.close();
+    }
+    server.close();
+    dispatcher.shutdownNow();
+    if (senders != null) {
+      senders.shutdownNow();
+    }
+  }
+
+  @Benchmark
+  public void helloRound() throws Exception {
+    for (int i = 0; i < adjacencies; i++) {
+      if (senders == null) {
+        clients[i].send(packets[i]);
+      } else {
+        SocketClient client = clients[i];
+        SOSPFPacket packet = packets[i];
+        senders.execute(() -> {
+          try {
+            client.send(packet);
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        });
+      }
+    }
+    received.acquire(adjacencies);
+  }
+}
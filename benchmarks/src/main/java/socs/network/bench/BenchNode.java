@@ -0,0 +1,96 @@
+package socs.network.bench;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+import socs.network.node.Link;
+import socs.network.node.LinkStateDatabase;
+import socs.network.node.Node;
+import socs.network.node.RouterDescription;
+import socs.network.node.RouterRegistry;
+
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * A router without any network, so the link state database can be measured on its own.
+ */
+public class BenchNode implements Node {
+  private final RouterRegistry registry = new RouterRegistry();
+  private final RouterDescription rd;
+
+  public BenchNode(String simulatedIP) {
+    rd = registry.getInstance("127.0.0.1", 0, simulatedIP);
+  }
+
+  // @return a database of router 0 holding all the given LSAs
+  public static LinkStateDatabase database(Map<String, LSA> lsas) {
+    LinkStateDatabase lsd = new LinkStateDatabase(new BenchNode(Topologies.routerIP(0)));
+    for (LSA lsa : lsas.values()) {
+      lsd.updateLSA(lsa);
+    }
+    return lsd;
+  }
+
+  @Override
+  public int getOutgoingPort(String simulatedIP) {
+    return -1;
+  }
+
+  @Override
+  public RouterDescription getAttachedNeighbor(String simulatedIP) {
+    return null;
+  }
+
+  @Override
+  public RouterDescription[] getAttachedNeighbors() {
+    return new RouterDescription[0];
+  }
+
+  @Override
+  public boolean hasFreePort() {
+    return true;
+  }
+
+  @Override
+  public boolean addAttachedLink(Link link) {
+    return false;
+  }
+
+  @Override
+  public void attachAnswered(String simulatedIP, Link link) {
+  }
+
+  @Override
+  public void removeAttachedLink(int portNumber) {
+  }
+
+  @Override
+  public void adjacencyUp(RouterDescription neighbor) {
+  }
+
+  @Override
+  public void forward(SOSPFPacket packet) {
+  }
+
+  @Override
+  public RouterDescription getDescription() {
+    return rd;
+  }
+
+  @Override
+  public RouterRegistry getRegistry() {
+    return registry;
+  }
+
+  @Override
+  public void requestConfirmation(RouterDescription requester) {
+  }
+
+  @Override
+  public void sendPacket(SOSPFPacket packet, RouterDescription dst) {
+  }
+
+  @Override
+  public void floodLSAs(Vector<LSA> lsas, RouterDescription dst) {
+  }
+}
@@ -0,0 +1,72 @@
+package socs.network.bench;
+
+import org.openjdk.jmh.annotations.*;
+import socs.network.message.*;
+import socs.network.node.RouterDescription;
+import socs.network.node.RouterRegistry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding and decoding an LSAUPDATE packet that carries the whole database, as sent to a new neighbor,
+ * for both wire formats. decodeHeaders is what a receiver pays for a packet of stale LSAs with the binary format,
+ * the Java format always decodes everything. The frame sizes are written by WireSizeReport.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+  @Param({"binary", "java"})
+  public String codec;
+
+  @Param({"10", "100", "1000", "10000"})
+  public int lsas;
+
+  private PacketCodec packetCodec;
+  private SOSPFPacket packet;
+  private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+  private ByteBuffer frame;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    packetCodec = PacketCodecs.forName(codec);
+    packet = fullUpdate(lsas);
+    frame = packetCodec.encode(packet, ByteBuffer.allocate(64 * 1024));
+  }
+
+  // an LSAUPDATE packet from router 0 to router 1 with the LSAs of a grid of the given size
+  static SOSPFPacket fullUpdate(int lsas) {
+    RouterRegistry registry = new RouterRegistry();
+    RouterDescription src = registry.getInstance("127.0.0.1", 3001, Topologies.routerIP(0));
+    RouterDescription dst = registry.getInstance("127.0.0.1", 3002, Topologies.routerIP(1));
+    return PacketFactory.createLSAUpdatePacket(src, dst,
+      new Vector<>(Topologies.generate("grid", lsas, 42).values()));
+  }
+
+  @Benchmark
+  public ByteBuffer encode() throws IOException {
+    buffer.clear();
+    buffer = packetCodec.encode(packet, buffer);
+    return buffer;
+  }
+
+  // decode the packet and all its LSAs
+  @Benchmark
+  public Vector<LSA> decode() throws IOException {
+    SOSPFPacket decoded = packetCodec.decode(frame.duplicate());
+    return decoded.encodedLSAs != null ? decoded.encodedLSAs.decodeAll() : decoded.lsaArray;
+  }
+
+  // decode the packet and only the headers of its LSAs, as when all of them are stale
+  @Benchmark
+  public SOSPFPacket decodeHeaders() throws IOException {
+    return packetCodec.decode(frame.duplicate());
+  }
+}
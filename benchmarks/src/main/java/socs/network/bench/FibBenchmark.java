@@ -0,0 +1,82 @@
+package socs.network.bench;
+
+import org.openjdk.jmh.annotations.*;
+import socs.network.message.Prefix;
+import socs.network.util.PrefixTrie;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Longest-prefix-match lookups per second of the compiled forwarding trie.
+ * <p/>
+ * The "trie" implementation is the PrefixTrie the forwarding table is compiled into, the "hashmap" one is the
+ * straightforward alternative: a hash map per prefix length, probed from /32 down to /0. The prefixes have random
+ * lengths, mostly /24 as in real tables, and half of the looked up addresses fall inside one of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FibBenchmark {
+  private static final int ADDRESSES = 1 << 16;
+
+  @Param({"1000", "10000", "100000"})
+  public int prefixes;
+
+  @Param({"trie", "hashmap"})
+  public String impl;
+
+  private PrefixTrie trie;
+  // the prefixes of length i by address
+  private Map<Integer, Integer>[] byLength;
+  private final int[] addresses = new int[ADDRESSES];
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    Random random = new Random(42);
+    Prefix[] table = new Prefix[prefixes];
+    PrefixTrie.Builder builder = new PrefixTrie.Builder();
+    byLength = new Map[33];
+    for (int i = 0; i < byLength.length; i++) {
+      byLength[i] = new HashMap<>();
+    }
+    for (int i = 0; i < prefixes; i++) {
+      table[i] = new Prefix(random.nextInt(), randomLength(random));
+      builder.add(table[i].address, table[i].length, i);
+      byLength[table[i].length].put(table[i].address, i);
+    }
+    trie = builder.build();
+    for (int i = 0; i < ADDRESSES; i++) {
+      Prefix prefix = table[random.nextInt(prefixes)];
+      addresses[i] = i % 2 == 0 ? random.nextInt() : prefix.address | (random.nextInt() & ~Prefix.mask(prefix.length));
+    }
+  }
+
+  @Benchmark
+  public int lookup() {
+    int address = addresses[next++ & (ADDRESSES - 1)];
+    return impl.equals("trie") ? trie.lookup(address) : hashLookup(address);
+  }
+
+  private int hashLookup(int address) {
+    for (int length = 32; length >= 0; length--) {
+      Integer value = byLength[length].get(address & Prefix.mask(length));
+      if (value != null) {
+        return value;
+      }
+    }
+    return PrefixTrie.NO_ROUTE;
+  }
+
+  // 60% of /24, the rest spread from /8 to /32
+  private static int randomLength(Random random) {
+    return random.nextInt(10) < 6 ? 24 : 8 + random.nextInt(25);
+  }
+}
@@ -0,0 +1,92 @@
+package socs.network.bench;
+
+import socs.network.message.PacketCodecs;
+import socs.network.message.PacketFactory;
+import socs.network.node.Router;
+import socs.network.node.RouterDescription;
+import socs.network.node.RouterMetrics;
+import socs.network.sim.Simulator;
+import socs.network.sim.Topology;
+import socs.network.util.Console;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Writes the per-hop latency and the throughput of DATA packets forwarded along a chain of routers, as JSON.
+ * <p/>
+ * The routers of a ring run in one JVM over the loopback network of the simulator, so a hop costs one lookup in the
+ * forwarding table plus the encoding, the queueing and the decoding of the packet. The latency is measured with one
+ * packet in flight at a time, the throughput with all the packets sent at once. Both go from the first router to the
+ * routers 1 to MAX_HOPS hops away.
+ * <p/>
+ * usage: ForwardingReport [output file, default forwarding.json]
+ */
+public class ForwardingReport {
+  private static final int MAX_HOPS = 8;
+  private static final int LATENCY_PACKETS = 20000;
+  private static final int THROUGHPUT_PACKETS = 200000;
+  private static final byte[] PAYLOAD = new byte[64];
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String output = args.length > 0 ? args[0] : "forwarding.json";
+    Console.setQuiet(true);
+    Topology ring = Topology.generate("ring", 2 * MAX_HOPS, 42);
+    Simulator simulator = new Simulator(ring, PacketCodecs.BINARY, Runtime.getRuntime().availableProcessors());
+    simulator.start();
+    simulator.connectAll();
+    if (simulator.awaitConvergence(60000) < 0) {
+      throw new IllegalStateException("the ring did not converge");
+    }
+    try (PrintWriter out = new PrintWriter(output, "UTF-8")) {
+      out.println("[");
+      for (int hops = 1; hops <= MAX_HOPS; hops++) {
+        Router destination = simulator.getRouter(hops);
+        // warms up the path and waits for the forwarding tables of the routers on the way
+        send(simulator.getRouter(0), destination, LATENCY_PACKETS, true);
+        long latency = send(simulator.getRouter(0), destination, LATENCY_PACKETS, true);
+        long throughput = send(simulator.getRouter(0), destination, THROUGHPUT_PACKETS, false);
+        double perHopMicros = latency / 1000.0 / LATENCY_PACKETS / hops;
+        double packetsPerSecond = THROUGHPUT_PACKETS * 1e9 / throughput;
+        out.printf(Locale.ROOT, "  {\"hops\": %d, \"perHopLatencyMicros\": %.2f, \"packetsPerSecond\": %.0f, " +
+            "\"hopsPerSecond\": %.0f}%s%n", hops, perHopMicros, packetsPerSecond, packetsPerSecond * hops,
+          hops == MAX_HOPS ? "" : ",");
+      }
+      out.println("]");
+    }
+    simulator.close();
+    System.out.println("Wrote " + output);
+  }
+
+  /**
+   * @param oneAtATime wait for each packet to be delivered before sending the next one
+   * @return the time in nanoseconds until all the packets were delivered
+   */
+  private static long send(Router source, Router destination, int packets, boolean oneAtATime) {
+    RouterDescription src = source.getDescription();
+    String dstIP = destination.getDescription().getSimulatedIP();
+    RouterMetrics metrics = destination.getMetrics();
+    long delivered = metrics.getDataDelivered();
+    long start = System.nanoTime();
+    for (int i = 0; i < packets; i++) {
+      source.forward(PacketFactory.createDataPacket(src, dstIP, PacketFactory.DEFAULT_TTL, PAYLOAD));
+      if (oneAtATime) {
+        delivered++;
+        awaitDelivered(metrics, delivered);
+      }
+    }
+    awaitDelivered(metrics, delivered + (oneAtATime ? 0 : packets));
+    return System.nanoTime() - start;
+  }
+
+  private static void awaitDelivered(RouterMetrics metrics, long delivered) {
+    long deadline = System.nanoTime() + 10000000000L;
+    while (metrics.getDataDelivered() < delivered) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("packets were lost: " + metrics.getDataDelivered() + " < " + delivered);
+      }
+      Thread.yield();
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package socs.network.bench;
+
+import org.openjdk.jmh.annotations.*;
+import socs.network.message.LSA;
+import socs.network.node.LinkStateDatabase;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of LinkStateDatabase.updateLSA when many threads deliver LSAs at the same time, like the packet
+ * handlers of a router with many neighbors. Run with -t to change the number of threads.
+ * <p/>
+ * Every thread numbers its LSAs with its own sequence. With "disjoint" originators every thread updates its own
+ * share of the routers (up to 64 threads), so every update is accepted. With "shared" originators all the threads
+ * update random routers and the LSAs of the slower threads are rejected as old.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class LsdbUpdateBenchmark {
+
+  @Param({"1000", "100000"})
+  public int routers;
+
+  @Param({"disjoint", "shared"})
+  public String originators;
+
+  private LinkStateDatabase lsd;
+  private LSA[] templates;
+  private final AtomicInteger threadCount = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Map<String, LSA> lsas = Topologies.generate("random", routers, 42);
+    lsd = BenchNode.database(lsas);
+    // router 0 is the database owner, its own LSA is not updated by the neighbors
+    templates = lsas.values().toArray(new LSA[0]);
+  }
+
+  @State(Scope.Thread)
+  public static class Channel {
+    int first;
+    int count;
+    int next;
+    int seed;
+    int sequence = Integer.MIN_VALUE + 1;
+
+    @Setup(Level.Trial)
+    public void setUp(LsdbUpdateBenchmark benchmark) {
+      int id = benchmark.threadCount.getAndIncrement();
+      seed = id * 0x9E3779B9 + 1;
+      count = Math.max(1, (benchmark.routers - 1) / 64);
+      first = 1 + (id * count) % (benchmark.routers - 1);
+    }
+  }
+
+  @Benchmark
+  public boolean updateLSA(Channel channel) {
+    int router;
+    if (originators.equals("disjoint")) {
+      router = channel.first + channel.next;
+      channel.next = (channel.next + 1) % channel.count;
+      if (router >= routers) router = 1 + router % (routers - 1);
+    } else {
+      channel.seed ^= channel.seed << 13;
+      channel.seed ^= channel.seed >>> 17;
+      channel.seed ^= channel.seed << 5;
+      router = 1 + (channel.seed & Integer.MAX_VALUE) % (routers - 1);
+    }
+    LSA template = templates[router];
+    return lsd.updateLSA(new LSA(template.linkStateID, ++channel.sequence, template.links));
+  }
+}
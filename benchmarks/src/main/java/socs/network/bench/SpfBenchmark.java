@@ -0,0 +1,76 @@
+package socs.network.bench;
+
+import org.openjdk.jmh.annotations.*;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.node.LinkStateDatabase;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of LinkStateDatabase.getShortestPath on generated topologies.
+ * <p/>
+ * In the "cached" mode nothing changes between the lookups. In the "incremental" and "full" modes every lookup
+ * follows an LSA update that alternately removes and restores a link of a random router, and the shortest path tree
+ * is updated incrementally or recomputed from scratch (maxIncrementalChanges = 0).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpfBenchmark {
+
+  @Param({"ring", "grid", "random", "scalefree"})
+  public String topology;
+
+  @Param({"10", "100", "1000", "10000", "100000"})
+  public int routers;
+
+  @Param({"cached", "incremental", "full"})
+  public String mode;
+
+  private LinkStateDatabase lsd;
+  private Map<String, LSA> lsas;
+  private String destination;
+  private final Random random = new Random(42);
+
+  // the router whose link was removed by the previous update, null if all the links are in place
+  private LSA changed;
+  private LinkDescription removedLink;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    lsas = Topologies.generate(topology, routers, 42);
+    lsd = BenchNode.database(lsas);
+    lsd.setMaxIncrementalChanges(mode.equals("full") ? 0 : 8);
+    destination = Topologies.routerIP(routers / 2);
+    lsd.getShortestPath(destination);
+  }
+
+  @Benchmark
+  public String getShortestPath() {
+    if (!mode.equals("cached")) {
+      changeLink();
+    }
+    return lsd.getShortestPath(destination);
+  }
+
+  private void changeLink() {
+    LSA next;
+    if (changed == null) {
+      LSA lsa = lsas.get(Topologies.routerIP(1 + random.nextInt(routers - 1)));
+      removedLink = lsa.links.get(lsa.links.size() - 1);
+      next = lsa.withoutLink(removedLink.linkID);
+      changed = next;
+    } else {
+      next = changed.withLink(removedLink);
+      changed = null;
+    }
+    lsas.put(next.linkStateID, next);
+    lsd.updateLSA(next);
+  }
+}
@@ -0,0 +1,44 @@
+package socs.network.bench;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.sim.Topology;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the LSAs of the topologies generated by the simulator's Topology, router 0 is the router whose database is
+ * measured. Every link is listed in the LSAs of both of its ends.
+ */
+public final class Topologies {
+
+  private Topologies() {
+  }
+
+  public static String routerIP(int router) {
+    return Topology.routerIP(router);
+  }
+
+  /**
+   * @param shape see Topology.generate
+   * @return originator => LSA, in router order
+   */
+  public static Map<String, LSA> generate(String shape, int routers, long seed) {
+    Topology topology = Topology.generate(shape, routers, seed);
+    Map<String, LSA> lsas = new LinkedHashMap<>();
+    for (int i = 0; i < routers; i++) {
+      String id = routerIP(i);
+      List<LinkDescription> links = new ArrayList<>();
+      links.add(new LinkDescription(id, -1));
+      int port = 0;
+      for (int neighbor : topology.getNeighbors(i)) {
+        links.add(new LinkDescription(routerIP(neighbor), port++));
+      }
+      lsas.put(id, new LSA(id, Integer.MIN_VALUE + 1, links));
+    }
+    return lsas;
+  }
+}
@@ -0,0 +1,40 @@
+package socs.network.bench;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.PacketCodecs;
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Writes the size of an LSAUPDATE frame carrying the whole database for each codec and database size, as JSON.
+ * The sizes are deterministic, so they are reported apart from the timings of CodecBenchmark.
+ * <p/>
+ * usage: WireSizeReport [output file, default wire-size.json]
+ */
+public class WireSizeReport {
+  private static final int[] SIZES = {10, 100, 1000, 10000, 100000};
+  private static final String[] CODECS = {"binary", "java"};
+
+  public static void main(String[] args) throws IOException {
+    String output = args.length > 0 ? args[0] : "wire-size.json";
+    try (PrintWriter out = new PrintWriter(output, "UTF-8")) {
+      out.println("[");
+      for (int i = 0; i < SIZES.length; i++) {
+        SOSPFPacket packet = CodecBenchmark.fullUpdate(SIZES[i]);
+        for (int j = 0; j < CODECS.length; j++) {
+          PacketCodec codec = PacketCodecs.forName(CODECS[j]);
+          int bytes = codec.encode(packet, ByteBuffer.allocate(64 * 1024)).remaining();
+          boolean last = i == SIZES.length - 1 && j == CODECS.length - 1;
+          out.printf(Locale.ROOT, "  {\"codec\": \"%s\", \"lsas\": %d, \"bytes\": %d, \"bytesPerLSA\": %.2f}%s%n",
+            CODECS[j], SIZES[i], bytes, (double) bytes / SIZES[i], last ? "" : ",");
+        }
+      }
+      out.println("]");
+    }
+    System.out.println("Wrote " + output);
+  }
+}
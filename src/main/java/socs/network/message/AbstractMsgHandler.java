@@ -5,6 +5,9 @@ import socs.network.node.Node;
 import socs.network.node.RouterDescription;
 import socs.network.util.Console;
 
+import java.util.Set;
+import java.util.Vector;
+
 public abstract class AbstractMsgHandler implements MessageHandler {
 
   protected final Node router;
@@ -22,28 +25,26 @@ public abstract class AbstractMsgHandler implements MessageHandler {
     Console.log("Received " + packetType + " packet from " + srcSimulatedIP, true);
   }
 
-  // broadcast LSAUpdate packet to connected neighbors according to the broadcast condition
-  public final void broadcastLSAUpdate() {
+  /**
+   * broadcast LSAUpdate packet to connected neighbors except the one that sent the packet
+   * the LSAs are queued and flooded with the other pending ones, see FloodQueue
+   *
+   * with reduced flooding, only to the neighbors on the flooding topology, see LinkStateDatabase.getFloodingNeighbors
+   *
+   * @param lsas   only the LSAs that have changed, not the whole database
+   * @param fromIP the neighbor that sent the packet
+   */
+  public final void broadcastLSAUpdate(Vector<LSA> lsas, String fromIP) {
     RouterDescription[] allNeighbors = lsd.getConnectedNeighbors();
+    Set<String> flooding = lsd.getFloodingNeighbors(fromIP);
     String log = "broadcast LSAUpdate to neighbors: ";
     for (RouterDescription neighbor : allNeighbors) {
-      if (neighbor != null && broadcastCondition(neighbor)) {
-        SOSPFPacket lsaUpdatePacket = PacketFactory.createLSAUpdatePacket(router.getDescription(), neighbor,
-          lsd.getAllLSAs());
-        router.sendPacket(lsaUpdatePacket, neighbor);
+      if (neighbor != null && !neighbor.getSimulatedIP().equals(fromIP) &&
+        (flooding == null || flooding.contains(neighbor.getSimulatedIP()))) {
+        router.floodLSAs(lsas, neighbor);
         log += neighbor.getSimulatedIP() + " ";
       }
     }
     Console.log(log, true);
   }
-
-  protected abstract boolean broadcastCondition(RouterDescription neighbor);
-
-  public void handleAccept() {
-    // empty implementation
-  }
-
-  public void handleReject(String msg) {
-    // empty implementation
-  }
 }
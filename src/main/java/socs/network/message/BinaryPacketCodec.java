@@ -0,0 +1,522 @@
+package socs.network.message;
+
+import socs.network.util.IPAddress;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Compact, versioned binary wire format for SOSPFPacket, LSA and LinkDescription.
+ * <p/>
+ * layout (multi-byte integers are big-endian, varints are unsigned LEB128):
+ * <pre>
+ * packet: magic(1) version(1) sospfType(1) flags(1)
+ *         srcProcessIP(4 | varint length + UTF-8) srcProcessPort(varint)
+ *         srcIP(4) dstIP(4) routerID(4) [neighborID(4)] [area(varint)] [lsaCount(varint) header* body*]
+ *         [ttl(1) payloadSize(varint) payload]
+ * header: linkStateID(4) seqNumber(varint, offset from Integer.MIN_VALUE) age(varint, seconds) bodySize(varint)
+ * body:   linkCount(varint) link* [prefixCount(varint) prefix* [area(varint) summaryCount(varint) summary*
+ *         exportCount(varint) summary*]]
+ * link:   linkID(zigzag varint, delta from linkStateID) portNum(zigzag varint)
+ * prefix: address(4) length(1)
+ * summary: address(4) length(1) area(varint) cost(varint)
+ * </pre>
+ * simulated IP addresses are packed into 32-bit router IDs, so they must be dotted-quad IPv4 addresses.
+ * link IDs are stored as the difference to the ID of their LSA, since neighbors are usually addressed from
+ * the same subnet and the router's own link has a difference of zero.
+ * <p/>
+ * The headers of all the LSAs come first, so the decoder only reads them and returns the bodies still encoded as
+ * EncodedLSAs; the receiver decodes the links of the LSAs that are newer than its own and skips the others.
+ * Version 2 packets, whose headers have no age, are decoded with age 0. Version 1 packets, which interleave every LSA
+ * (linkStateID seqNumber linkCount link*), are still decoded, eagerly.
+ * <p/>
+ * The prefixes are only written when the LSA has some, and the area and the summaries when the LSA is not a plain
+ * backbone LSA. The body size is in the header, so each part is read when the body goes on after the previous one,
+ * and a decoder that does not know it yet simply skips it. The area of the sender is only added to a packet when it
+ * is not the backbone.
+ */
+public class BinaryPacketCodec implements PacketCodec {
+
+  public static final byte MAGIC = 0x53;
+  public static final byte VERSION = 3;
+  private static final byte VERSION_NO_AGE = 2;
+  private static final byte VERSION_INTERLEAVED = 1;
+
+  private static final int HAS_NEIGHBOR = 1;
+  private static final int NEIGHBOR_REJECTED = 1 << 1; // neighborID is "-1"
+  private static final int HAS_LSAS = 1 << 2;
+  private static final int PROCESS_IP_STRING = 1 << 3; // srcProcessIP is not an IPv4 address
+  private static final int PROCESS_IP_NULL = 1 << 4;
+  private static final int HAS_DATA = 1 << 5; // a DATA packet, with its ttl and payload
+  private static final int HAS_AREA = 1 << 6; // the sender is not in the backbone
+
+  private static final String REJECTED = "-1";
+
+  @Override
+  public ByteBuffer encode(SOSPFPacket packet, ByteBuffer buffer) throws IOException {
+    int size = encodedSize(packet);
+    while (true) {
+      if (buffer == null || buffer.capacity() < size) {
+        buffer = ByteBuffer.allocate(Math.max(size, buffer == null ? 0 : buffer.capacity() * 2));
+      }
+      buffer.clear();
+      try {
+        writePacket(packet, buffer);
+        buffer.flip();
+        return buffer;
+      } catch (BufferOverflowException e) {
+        // the LSA array changed after the size was computed
+        size = buffer.capacity() * 2;
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Cannot encode packet: " + e.getMessage(), e);
+      }
+    }
+  }
+
+  @Override
+  public SOSPFPacket decode(ByteBuffer buffer) throws IOException {
+    try {
+      return readPacket(buffer);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated packet", e);
+    }
+  }
+
+  // the LSA count takes up to 5 bytes
+  @Override
+  public int updateHeaderSize(SOSPFPacket packet) {
+    return headerSize(packet) + 5;
+  }
+
+  // the age may still grow before the packet is encoded, so it is counted with its largest size
+  @Override
+  public int lsaSize(LSA lsa) {
+    return entrySize(lsa) - varIntSize(lsa.getAge()) + varIntSize(LSA.MAX_AGE);
+  }
+
+  // the exact number of bytes needed to encode the packet
+  public static int encodedSize(SOSPFPacket packet) {
+    int size = headerSize(packet);
+    if (packet.lsaArray != null) {
+      size += varIntSize(packet.lsaArray.size());
+      for (LSA lsa : packet.lsaArray) {
+        size += entrySize(lsa);
+      }
+    }
+    if (packet.sospfType == PacketFactory.DATA) {
+      int payload = packet.payload == null ? 0 : packet.payload.length;
+      size += 1 + varIntSize(payload) + payload;
+    }
+    return size;
+  }
+
+  // everything before the LSAs
+  private static int headerSize(SOSPFPacket packet) {
+    int size = 4;
+    if (packet.srcProcessIP != null) {
+      if (IPAddress.isIPv4(packet.srcProcessIP)) {
+        size += 4;
+      } else {
+        int length = packet.srcProcessIP.getBytes(StandardCharsets.UTF_8).length;
+        size += varIntSize(length) + length;
+      }
+    }
+    size += varIntSize(packet.srcProcessPort) + 12;
+    if (packet.neighborID != null && !packet.neighborID.equals(REJECTED)) {
+      size += 4;
+    }
+    if (packet.area != LSA.BACKBONE) {
+      size += varIntSize(packet.area);
+    }
+    return size;
+  }
+
+  // the header and the body of an LSA in a packet
+  private static int entrySize(LSA lsa) {
+    int body = bodySize(lsa);
+    return 4 + varLongSize(seqOffset(lsa.lsaSeqNumber)) + varIntSize(lsa.getAge()) + varIntSize(body) + body;
+  }
+
+  // the size of the links and the prefixes of the LSA, with their count
+  private static int bodySize(LSA lsa) {
+    int size = varIntSize(lsa.links.size());
+    int id = IPAddress.toInt(lsa.linkStateID);
+    for (LinkDescription ld : lsa.links) {
+      size += varIntSize(zigzag(IPAddress.toInt(ld.linkID) - id)) + varIntSize(zigzag(ld.portNum));
+    }
+    if (!lsa.prefixes.isEmpty() || hasAreaPart(lsa)) {
+      size += varIntSize(lsa.prefixes.size()) + 5 * lsa.prefixes.size();
+    }
+    if (hasAreaPart(lsa)) {
+      size += varIntSize(lsa.area) + summariesSize(lsa.summaries) + summariesSize(lsa.exports);
+    }
+    return size;
+  }
+
+  private static boolean hasAreaPart(LSA lsa) {
+    return lsa.area != LSA.BACKBONE || !lsa.summaries.isEmpty() || !lsa.exports.isEmpty();
+  }
+
+  private static int summariesSize(List<Summary> summaries) {
+    int size = varIntSize(summaries.size());
+    for (Summary summary : summaries) {
+      size += 5 + varIntSize(summary.area) + varIntSize(summary.cost);
+    }
+    return size;
+  }
+
+  // the size of a single LSA written by writeLSA
+  public static int encodedSize(LSA lsa) {
+    int body = bodySize(lsa);
+    return 4 + varLongSize(seqOffset(lsa.lsaSeqNumber)) + varIntSize(body) + body;
+  }
+
+  private static void writePacket(SOSPFPacket packet, ByteBuffer buf) throws IOException {
+    int flags = 0;
+    if (packet.neighborID != null) {
+      flags |= HAS_NEIGHBOR;
+      if (packet.neighborID.equals(REJECTED)) flags |= NEIGHBOR_REJECTED;
+    }
+    if (packet.lsaArray != null) flags |= HAS_LSAS;
+    if (packet.sospfType == PacketFactory.DATA) flags |= HAS_DATA;
+    if (packet.area != LSA.BACKBONE) flags |= HAS_AREA;
+    if (packet.srcProcessIP == null) {
+      flags |= PROCESS_IP_NULL;
+    } else if (!IPAddress.isIPv4(packet.srcProcessIP)) {
+      flags |= PROCESS_IP_STRING;
+    }
+    if (packet.sospfType < 0 || packet.sospfType > 0xFF) {
+      throw new IOException("Unsupported packet type " + packet.sospfType);
+    }
+
+    buf.put(MAGIC).put(VERSION).put((byte) packet.sospfType).put((byte) flags);
+    if ((flags & PROCESS_IP_STRING) != 0) {
+      byte[] bytes = packet.srcProcessIP.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(buf, bytes.length);
+      buf.put(bytes);
+    } else if ((flags & PROCESS_IP_NULL) == 0) {
+      buf.putInt(IPAddress.toInt(packet.srcProcessIP));
+    }
+    writeVarInt(buf, packet.srcProcessPort);
+    buf.putInt(IPAddress.toInt(packet.srcIP));
+    buf.putInt(IPAddress.toInt(packet.dstIP));
+    buf.putInt(IPAddress.toInt(packet.routerID));
+    if ((flags & HAS_NEIGHBOR) != 0 && (flags & NEIGHBOR_REJECTED) == 0) {
+      buf.putInt(IPAddress.toInt(packet.neighborID));
+    }
+    if ((flags & HAS_AREA) != 0) {
+      writeVarInt(buf, packet.area);
+    }
+    if (packet.lsaArray != null) {
+      writeVarInt(buf, packet.lsaArray.size());
+      for (LSA lsa : packet.lsaArray) {
+        buf.putInt(IPAddress.toInt(lsa.linkStateID));
+        writeVarLong(buf, seqOffset(lsa.lsaSeqNumber));
+        writeVarInt(buf, lsa.getAge());
+        writeVarInt(buf, bodySize(lsa));
+      }
+      for (LSA lsa : packet.lsaArray) {
+        writeBody(lsa, buf);
+      }
+    }
+    if ((flags & HAS_DATA) != 0) {
+      buf.put((byte) Math.max(0, Math.min(packet.ttl, 0xFF)));
+      if (packet.payload == null) {
+        writeVarInt(buf, 0);
+      } else {
+        writeVarInt(buf, packet.payload.length);
+        buf.put(packet.payload);
+      }
+    }
+  }
+
+  private static SOSPFPacket readPacket(ByteBuffer buf) throws IOException {
+    if (buf.get() != MAGIC) {
+      throw new IOException("Not a binary SOSPF packet");
+    }
+    byte version = buf.get();
+    if (version != VERSION && version != VERSION_NO_AGE && version != VERSION_INTERLEAVED) {
+      throw new IOException("Unsupported wire format version " + version);
+    }
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.sospfType = (short) (buf.get() & 0xFF);
+    int flags = buf.get() & 0xFF;
+    if ((flags & PROCESS_IP_STRING) != 0) {
+      int length = readVarInt(buf);
+      if (length < 0 || length > buf.remaining()) {
+        throw new IOException("Invalid process IP length " + length);
+      }
+      byte[] bytes = new byte[length];
+      buf.get(bytes);
+      packet.srcProcessIP = new String(bytes, StandardCharsets.UTF_8);
+    } else if ((flags & PROCESS_IP_NULL) == 0) {
+      packet.srcProcessIP = IPAddress.toString(buf.getInt());
+    }
+    packet.srcProcessPort = readVarInt(buf);
+    packet.srcIP = IPAddress.toString(buf.getInt());
+    packet.dstIP = IPAddress.toString(buf.getInt());
+    packet.routerID = IPAddress.toString(buf.getInt());
+    if ((flags & HAS_NEIGHBOR) != 0) {
+      packet.neighborID = (flags & NEIGHBOR_REJECTED) != 0 ? REJECTED : IPAddress.toString(buf.getInt());
+    }
+    if ((flags & HAS_AREA) != 0) {
+      packet.area = readVarInt(buf);
+    }
+    if ((flags & HAS_LSAS) != 0) {
+      int count = readVarInt(buf);
+      if (version == VERSION_INTERLEAVED) {
+        if (count < 0 || count > buf.remaining()) {
+          throw new IOException("Invalid LSA count " + count);
+        }
+        packet.lsaArray = new Vector<>(count);
+        for (int i = 0; i < count; i++) {
+          packet.lsaArray.add(readUnsizedLSA(buf));
+        }
+      } else {
+        packet.encodedLSAs = readHeaders(buf, count, version == VERSION);
+      }
+    }
+    if ((flags & HAS_DATA) != 0) {
+      packet.ttl = buf.get() & 0xFF;
+      int size = readVarInt(buf);
+      if (size < 0 || size > buf.remaining()) {
+        throw new IOException("Truncated payload");
+      }
+      packet.payload = new byte[size];
+      buf.get(packet.payload);
+    }
+    return packet;
+  }
+
+  // a single LSA: linkStateID seqNumber bodySize body, without its age
+  public static void writeLSA(LSA lsa, ByteBuffer buf) {
+    buf.putInt(IPAddress.toInt(lsa.linkStateID));
+    writeVarLong(buf, seqOffset(lsa.lsaSeqNumber));
+    writeVarInt(buf, bodySize(lsa));
+    writeBody(lsa, buf);
+  }
+
+  public static LSA readLSA(ByteBuffer buf) throws IOException {
+    int id = buf.getInt();
+    int seq = (int) (readVarLong(buf) + Integer.MIN_VALUE);
+    int size = readVarInt(buf);
+    if (size < 0 || size > buf.remaining()) {
+      throw new IOException("Truncated LSA");
+    }
+    ByteBuffer body = buf.slice();
+    body.limit(size);
+    buf.position(buf.position() + size);
+    return readLSABody(IPAddress.toString(id), seq, 0, body);
+  }
+
+  // an LSA without prefixes, as written by writeLSA before the body size was added and in version 1 packets
+  public static LSA readUnsizedLSA(ByteBuffer buf) throws IOException {
+    String id = IPAddress.toString(buf.getInt());
+    int seq = (int) (readVarLong(buf) + Integer.MIN_VALUE);
+    try {
+      return new LSA(id, seq, readLinks(id, buf), 0);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated LSA", e);
+    }
+  }
+
+  private static void writeBody(LSA lsa, ByteBuffer buf) {
+    int id = IPAddress.toInt(lsa.linkStateID);
+    writeVarInt(buf, lsa.links.size());
+    for (LinkDescription ld : lsa.links) {
+      writeVarInt(buf, zigzag(IPAddress.toInt(ld.linkID) - id));
+      writeVarInt(buf, zigzag(ld.portNum));
+    }
+    if (!lsa.prefixes.isEmpty() || hasAreaPart(lsa)) {
+      writeVarInt(buf, lsa.prefixes.size());
+      for (Prefix prefix : lsa.prefixes) {
+        buf.putInt(prefix.address).put((byte) prefix.length);
+      }
+    }
+    if (hasAreaPart(lsa)) {
+      writeVarInt(buf, lsa.area);
+      writeSummaries(lsa.summaries, buf);
+      writeSummaries(lsa.exports, buf);
+    }
+  }
+
+  private static void writeSummaries(List<Summary> summaries, ByteBuffer buf) {
+    writeVarInt(buf, summaries.size());
+    for (Summary summary : summaries) {
+      buf.putInt(summary.prefix.address).put((byte) summary.prefix.length);
+      writeVarInt(buf, summary.area);
+      writeVarInt(buf, summary.cost);
+    }
+  }
+
+  // the headers, then a copy of all the bodies, since the frame buffer is reused for the next frame
+  private static EncodedLSAs readHeaders(ByteBuffer buf, int count, boolean withAge) throws IOException {
+    if (count < 0 || count > buf.remaining()) {
+      throw new IOException("Invalid LSA count " + count);
+    }
+    String[] ids = new String[count];
+    int[] seqNumbers = new int[count];
+    int[] ages = new int[count];
+    int[] bodyOffsets = new int[count + 1];
+    for (int i = 0; i < count; i++) {
+      ids[i] = IPAddress.toString(buf.getInt());
+      seqNumbers[i] = (int) (readVarLong(buf) + Integer.MIN_VALUE);
+      if (withAge) {
+        ages[i] = Math.min(readVarInt(buf) & Integer.MAX_VALUE, LSA.MAX_AGE);
+      }
+      int size = readVarInt(buf);
+      long end = (long) bodyOffsets[i] + size;
+      if (size < 0 || end > buf.remaining()) {
+        throw new IOException("Truncated LSA bodies");
+      }
+      bodyOffsets[i + 1] = (int) end;
+    }
+    byte[] bodies = new byte[bodyOffsets[count]];
+    buf.get(bodies);
+    return new EncodedLSAs(ids, seqNumbers, ages, bodyOffsets, bodies);
+  }
+
+  static int readLinkCount(ByteBuffer body) throws IOException {
+    try {
+      int count = readVarInt(body);
+      if (count < 0) {
+        throw new IOException("Invalid link count " + count);
+      }
+      return count;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated LSA", e);
+    }
+  }
+
+  // @param body exactly the body of the LSA, the prefixes and the area part are read if it goes on after the links
+  static LSA readLSABody(String linkStateID, int seqNumber, int age, ByteBuffer body) throws IOException {
+    try {
+      List<LinkDescription> links = readLinks(linkStateID, body);
+      if (!body.hasRemaining()) {
+        return new LSA(linkStateID, seqNumber, links, age);
+      }
+      int count = readVarInt(body);
+      if (count < 0 || count > body.remaining() / 5) {
+        throw new IOException("Invalid prefix count " + count);
+      }
+      List<Prefix> prefixes = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        prefixes.add(readPrefix(body));
+      }
+      if (!body.hasRemaining()) {
+        return new LSA(linkStateID, seqNumber, links, prefixes, age);
+      }
+      int area = readVarInt(body);
+      List<Summary> summaries = readSummaries(body);
+      List<Summary> exports = readSummaries(body);
+      return new LSA(linkStateID, seqNumber, links, prefixes, area, summaries, exports, age);
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated LSA", e);
+    }
+  }
+
+  private static Prefix readPrefix(ByteBuffer buf) throws IOException {
+    int address = buf.getInt();
+    int length = buf.get() & 0xFF;
+    if (length > 32) {
+      throw new IOException("Invalid prefix length " + length);
+    }
+    return new Prefix(address, length);
+  }
+
+  private static List<Summary> readSummaries(ByteBuffer buf) throws IOException {
+    int count = readVarInt(buf);
+    if (count < 0 || count > buf.remaining() / 7) {
+      throw new IOException("Invalid summary count " + count);
+    }
+    List<Summary> summaries = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      summaries.add(new Summary(readPrefix(buf), readVarInt(buf), readVarInt(buf)));
+    }
+    return summaries;
+  }
+
+  // linkCount link*
+  private static List<LinkDescription> readLinks(String linkStateID, ByteBuffer buf) throws IOException {
+    int id = IPAddress.toInt(linkStateID);
+    int count = readVarInt(buf);
+    if (count < 0 || count > buf.remaining() / 2) {
+      throw new IOException("Invalid link count " + count);
+    }
+    List<LinkDescription> links = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String linkID = IPAddress.toString(id + unzigzag(readVarInt(buf)));
+      links.add(new LinkDescription(linkID, unzigzag(readVarInt(buf))));
+    }
+    return links;
+  }
+
+  // sequence numbers start at Integer.MIN_VALUE, so their offset from it stays small
+  private static long seqOffset(int seq) {
+    return (long) seq - Integer.MIN_VALUE;
+  }
+
+  private static int zigzag(int n) {
+    return (n << 1) ^ (n >> 31);
+  }
+
+  private static int unzigzag(int n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  private static void writeVarInt(ByteBuffer buf, int value) {
+    writeVarLong(buf, value & 0xFFFFFFFFL);
+  }
+
+  private static void writeVarLong(ByteBuffer buf, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buf.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buf.put((byte) value);
+  }
+
+  private static int readVarInt(ByteBuffer buf) throws IOException {
+    long value = readVarLong(buf);
+    if (value > 0xFFFFFFFFL) {
+      throw new IOException("Malformed varint");
+    }
+    return (int) value;
+  }
+
+  private static long readVarLong(ByteBuffer buf) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buf.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  private static int varIntSize(int value) {
+    return varLongSize(value & 0xFFFFFFFFL);
+  }
+
+  private static int varLongSize(long value) {
+    int size = 1;
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return "binary";
+  }
+}
@@ -0,0 +1,26 @@
+package socs.network.message;
+
+import socs.network.node.LinkStateDatabase;
+import socs.network.node.Node;
+
+/**
+ * Handles the DATA packets: the router delivers a packet addressed to one of its own prefixes and forwards the
+ * others to the next hop given by its forwarding table.
+ */
+public class DataHandler extends AbstractMsgHandler {
+
+  public DataHandler(Node node, LinkStateDatabase lsd) {
+    super(node, lsd);
+  }
+
+  @Override
+  public void handleMessage(SOSPFPacket packet) {
+    // not logged on every hop like the control packets
+    router.forward(packet);
+  }
+
+  @Override
+  public String toString() {
+    return "DataHandler";
+  }
+}
@@ -0,0 +1,70 @@
+package socs.network.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Vector;
+
+/**
+ * The LSAs of a received LSAUPDATE packet before their links are decoded.
+ * The binary codec only reads the header of every LSA (originator, sequence number and age) and keeps the encoded
+ * links, so the receiver can compare the headers with its database and decode only the LSAs that are newer.
+ */
+public class EncodedLSAs {
+  private final String[] linkStateIDs;
+  private final int[] seqNumbers;
+  private final int[] ages;
+  // the encoded links of LSA i are bodies[bodyOffsets[i] .. bodyOffsets[i + 1])
+  private final int[] bodyOffsets;
+  private final byte[] bodies;
+
+  EncodedLSAs(String[] linkStateIDs, int[] seqNumbers, int[] ages, int[] bodyOffsets, byte[] bodies) {
+    this.linkStateIDs = linkStateIDs;
+    this.seqNumbers = seqNumbers;
+    this.ages = ages;
+    this.bodyOffsets = bodyOffsets;
+    this.bodies = bodies;
+  }
+
+  public int size() {
+    return linkStateIDs.length;
+  }
+
+  public String getLinkStateID(int i) {
+    return linkStateIDs[i];
+  }
+
+  public int getSeqNumber(int i) {
+    return seqNumbers[i];
+  }
+
+  // the age in seconds when the packet was sent, LSA.MAX_AGE if the LSA is flushed
+  public int getAge(int i) {
+    return ages[i];
+  }
+
+  // the size of the encoded links of the LSA
+  public int getBodySize(int i) {
+    return bodyOffsets[i + 1] - bodyOffsets[i];
+  }
+
+  // the number of links of the LSA, read without decoding them
+  public int getLinkCount(int i) throws IOException {
+    return BinaryPacketCodec.readLinkCount(body(i));
+  }
+
+  public LSA decode(int i) throws IOException {
+    return BinaryPacketCodec.readLSABody(linkStateIDs[i], seqNumbers[i], ages[i], body(i));
+  }
+
+  public Vector<LSA> decodeAll() throws IOException {
+    Vector<LSA> lsas = new Vector<>(size());
+    for (int i = 0; i < size(); i++) {
+      lsas.add(decode(i));
+    }
+    return lsas;
+  }
+
+  private ByteBuffer body(int i) {
+    return ByteBuffer.wrap(bodies, bodyOffsets[i], getBodySize(i));
+  }
+}
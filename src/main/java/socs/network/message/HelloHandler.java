@@ -3,21 +3,29 @@ package socs.network.message;
 import socs.network.node.*;
 import socs.network.util.Console;
 
-public class HelloHandler extends AbstractMsgHandler {
+import java.util.Vector;
 
-  // the initial router that sends the hello packet
-  private RouterDescription originatedRouter;
-  private SOSPFPacket packet;
+/**
+ * Handles the HELLO packets: the attach requests and their answers, the HELLOs that bring an adjacency to TWO_WAY and
+ * the keepalives. The state of a request is in the packet and the RouterDescriptions, so the HELLOs of many neighbors
+ * are handled at the same time; the admission policy of the router decides on each attach request right away.
+ */
+public class HelloHandler extends AbstractMsgHandler {
 
   public HelloHandler(Node node, LinkStateDatabase lsd) {
     super(node, lsd);
   }
 
   @Override
-  public void handleMessage(SOSPFPacket pkt) {
-    this.packet = pkt;
-    this.originatedRouter = RouterDescription.getInstance("127.0.0.1", packet.srcProcessPort,
+  public void handleMessage(SOSPFPacket packet) {
+    if (packet.neighborID == null) {
+      // keepalive, the router has already recorded that the neighbor is alive
+      return;
+    }
+    // the initial router that sends the hello packet
+    RouterDescription originatedRouter = router.getRegistry().getInstance("127.0.0.1", packet.srcProcessPort,
       packet.srcIP);
+    originatedRouter.setArea(packet.area);
     RouterDescription attachedNeighbor = router.getAttachedNeighbor(packet.srcIP);
 
     // attach request
@@ -25,24 +33,19 @@ public class HelloHandler extends AbstractMsgHandler {
       // attach request is sent from the originated neighbor
       if (!packet.srcIP.equals(packet.neighborID) && !packet.neighborID.equals("-1")) {
         super.handleMessage(packet);
-        if (router.getAttachedNeighbors().length >= 4) {
-          handleReject("Reject: The router has reached the maximum number of attached neighbors.");
+        if (!router.hasFreePort()) {
+          rejectAttach(originatedRouter, "Reject: The router has reached the maximum number of attached neighbors.");
           return;
         }
-        Console.logOneLine("Do you accept this request?(Y/N)：");
-        Router.readingConfirmation = true;
+        router.requestConfirmation(originatedRouter);
       } else {
         // response of attach request from the target neighbor
         if (packet.neighborID.equals("-1")) {
-          Console.log("The request has been rejected.", true);
-          router.addAttachedLink(null); // indicate a rejected attachment
+          Console.log("The request to " + packet.srcIP + " has been rejected.", true);
+          router.attachAnswered(packet.srcIP, null);
         } else {
-          Console.log("The request has been accepted.", true);
-          RouterDescription targetRouter = RouterDescription.getInstance("127.0.0.1",
-            packet.srcProcessPort, packet.srcIP);
-          // add the link
-          Link link = new Link(router.getDescription(), targetRouter);
-          router.addAttachedLink(link);
+          Console.log("The request to " + packet.srcIP + " has been accepted.", true);
+          router.attachAnswered(packet.srcIP, new Link(router.getDescription(), originatedRouter));
         }
       }
     } else { // start request
@@ -50,52 +53,56 @@ public class HelloHandler extends AbstractMsgHandler {
       if (attachedNeighbor.getStatus() == RouterStatus.NULL && !packet.srcIP.equals(packet.neighborID)) {
         attachedNeighbor.setStatus(RouterStatus.INIT);
         Console.log("Set " + attachedNeighbor.getSimulatedIP() + " state to INIT", true);
-        sendBackHelloPacket();
+        sendBackHelloPacket(originatedRouter);
       } else if (attachedNeighbor.getStatus() == RouterStatus.NULL && packet.srcIP.equals(packet.neighborID)) {
         attachedNeighbor.setStatus(RouterStatus.TWO_WAY);
         Console.log("Set " + attachedNeighbor.getSimulatedIP() + " state to TWO_WAY", true);
         // add this attached neighbor as a connected neighbor in lsa
-        lsd.addLinkDescription(attachedNeighbor.getSimulatedIP());
-        sendBackHelloPacket();
-        broadcastLSAUpdate();
+        LSA changed = lsd.addLinkDescription(attachedNeighbor.getSimulatedIP());
+        sendBackHelloPacket(originatedRouter);
+        router.adjacencyUp(attachedNeighbor);
+        synchronizeDatabase(attachedNeighbor, changed);
       } else if (attachedNeighbor.getStatus().equals(RouterStatus.INIT) && packet.srcIP.equals(packet.neighborID)) {
         attachedNeighbor.setStatus(RouterStatus.TWO_WAY);
         Console.log("Set " + attachedNeighbor.getSimulatedIP() + " state to TWO_WAY", true);
         // add this attached neighbor as a connected neighbor in lsa
-        lsd.addLinkDescription(attachedNeighbor.getSimulatedIP());
-        broadcastLSAUpdate();
+        LSA changed = lsd.addLinkDescription(attachedNeighbor.getSimulatedIP());
+        router.adjacencyUp(attachedNeighbor);
+        synchronizeDatabase(attachedNeighbor, changed);
       }
     }
   }
 
-  @Override
-  protected boolean broadcastCondition(RouterDescription neighbor) {
-    /*
-     no condition (send to all). Router broadcasts the LSAUpdate packet to all the connected neighbors
-     when they have just received a response Hello packet and set its neighbor status to TWO_WAY.
-     */
-    return true;
+  /**
+   * the new neighbor receives the whole database since this is the first synchronization with it,
+   * the other connected neighbors only receive the router's own LSA which now has the new link
+   */
+  private void synchronizeDatabase(RouterDescription newNeighbor, LSA changed) {
+    router.floodLSAs(lsd.getAllLSAs(), newNeighbor);
+    Vector<LSA> delta = new Vector<>(1);
+    delta.add(changed);
+    broadcastLSAUpdate(delta, newNeighbor.getSimulatedIP());
   }
 
-  @Override
-  public void handleAccept() {
-    Console.log("You have accepted the request.", false);
+  // accept the attach request of the given router
+  public void acceptAttach(RouterDescription requester) {
     // add the link (attached neighbor) to the ports array
-    Link link = new Link(router.getDescription(), originatedRouter);
-    router.addAttachedLink(link);
-    sendBackHelloPacket();
+    if (!router.addAttachedLink(new Link(router.getDescription(), requester))) {
+      rejectAttach(requester, "Reject: The router has reached the maximum number of attached neighbors.");
+      return;
+    }
+    Console.log("You have accepted the request from " + requester.getSimulatedIP() + ".", true);
+    sendBackHelloPacket(requester);
   }
 
-  @Override
-  public void handleReject(String msg) {
-    Console.log(msg, false);
-    // set the neighbor id field to -1, indicating the request is rejected
-    packet.neighborID = "-1";
-    router.sendPacket(packet, originatedRouter);
+  public void rejectAttach(RouterDescription requester, String msg) {
+    Console.log(msg, true);
+    // the neighbor id field is -1, indicating the request is rejected
+    router.sendPacket(PacketFactory.createHelloPacket(router.getDescription(), requester, "-1"), requester);
   }
 
   // send the hello packet back to the neighbor
-  private void sendBackHelloPacket() {
+  private void sendBackHelloPacket(RouterDescription originatedRouter) {
     // send the hello packet back to the neighbor
     // set the neighbor id field to its own simulated IP to indicate it's a response message
     SOSPFPacket packet = PacketFactory.createHelloPacket(router.getDescription(), originatedRouter,
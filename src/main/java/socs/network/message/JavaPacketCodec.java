@@ -0,0 +1,70 @@
+package socs.network.message;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * The original wire format: the packet is written with Java object serialization.
+ */
+public class JavaPacketCodec implements PacketCodec {
+
+  @Override
+  public ByteBuffer encode(SOSPFPacket packet, ByteBuffer buffer) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(packet);
+    out.close();
+    if (buffer == null || buffer.capacity() < bytes.size()) {
+      buffer = ByteBuffer.allocate(Math.max(bytes.size(), buffer == null ? 0 : buffer.capacity() * 2));
+    }
+    buffer.clear();
+    buffer.put(bytes.toByteArray());
+    buffer.flip();
+    return buffer;
+  }
+
+  @Override
+  public SOSPFPacket decode(ByteBuffer buffer) throws IOException {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      Object obj = in.readObject();
+      if (obj instanceof SOSPFPacket) {
+        return (SOSPFPacket) obj;
+      }
+      throw new IOException("Not an SOSPFPacket: " + obj);
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  // measured: about 1300 bytes for the fields of the packet and the class descriptors, written once per packet
+  @Override
+  public int updateHeaderSize(SOSPFPacket packet) {
+    return 1408;
+  }
+
+  // measured: about 40 bytes per LSA, 12 bytes per link plus its IP string, 14 bytes per prefix and 28 per summary
+  @Override
+  public int lsaSize(LSA lsa) {
+    int size = 48 + lsa.linkStateID.length();
+    for (LinkDescription ld : lsa.links) {
+      size += 16 + ld.linkID.length();
+    }
+    if (!lsa.prefixes.isEmpty()) {
+      size += 24 + 16 * lsa.prefixes.size();
+    }
+    if (!lsa.summaries.isEmpty()) {
+      size += 32 + 28 * lsa.summaries.size();
+    }
+    if (!lsa.exports.isEmpty()) {
+      size += 32 + 28 * lsa.exports.size();
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return "java";
+  }
+}
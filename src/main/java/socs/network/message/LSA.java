@@ -1,33 +1,231 @@
 package socs.network.message;
 
 import java.io.Serializable;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * Link State Advertisement generated by each router.
- * its state can be modified by multiple channel threads.
- * thread safe ensured by using java concurrent constructs.
+ * Immutable class: a change of the links produces a new instance with the next sequence number, so an LSA can be
+ * shared by the database, the flood queue and the SPF computation without any lock.
+ * <p/>
+ * An LSA also has an age in seconds, which grows with the local clock from the age it had when it was originated or
+ * received and travels with it on the wire. An LSA whose age is MAX_AGE has been flushed: it only tells the other
+ * routers to remove the previous instance from their database.
+ * <p/>
+ * Besides its links, an LSA carries the prefixes its router delivers locally, from which the forwarding tables of
+ * the other routers are compiled.
+ * <p/>
+ * An LSA belongs to the area of its router and is only flooded inside it. The LSA of an area border router also
+ * carries the summaries of the other areas it advertises into its own area, and the summaries it exports to its
+ * neighbors in the other areas, see LinkStateDatabase.
  */
-public class LSA implements Serializable {
+public final class LSA implements Serializable {
+  // age of a flushed LSA, the largest age sent on the wire
+  public static final int MAX_AGE = 0xFFFF;
+  // the area connecting all the other ones
+  public static final int BACKBONE = 0;
+  private static final List<Prefix> NO_PREFIXES = Collections.emptyList();
+  private static final List<Summary> NO_SUMMARIES = Collections.emptyList();
 
   //IP address of the router originate this LSA
   public final String linkStateID;
-  public AtomicInteger lsaSeqNumber = new AtomicInteger(Integer.MIN_VALUE);
-  public ConcurrentLinkedDeque<LinkDescription> links = new ConcurrentLinkedDeque<LinkDescription>();
+  public final int lsaSeqNumber;
+  // unmodifiable
+  public final List<LinkDescription> links;
+  // unmodifiable
+  public final List<Prefix> prefixes;
+  public final int area;
+  // unmodifiable, the routes to the other areas advertised into the area of the router
+  public final List<Summary> summaries;
+  // unmodifiable, the routes advertised to the neighbors of the router that are in other areas
+  public final List<Summary> exports;
+  // age in seconds when this instance was originated or received
+  private final int age;
+  // System.nanoTime() at that moment, it is reset when the LSA is deserialized, see readResolve
+  private final transient long agedSince;
 
   public LSA(String linkStateID) {
+    this(linkStateID, Integer.MIN_VALUE, new LinkList(new LinkDescription[0]), NO_PREFIXES, BACKBONE, NO_SUMMARIES,
+      NO_SUMMARIES, 0);
+  }
+
+  /**
+   * @param links copied, unless they are the links of another LSA
+   */
+  public LSA(String linkStateID, int lsaSeqNumber, Collection<LinkDescription> links) {
+    this(linkStateID, lsaSeqNumber, links, 0);
+  }
+
+  // @param age the current age of the LSA in seconds, e.g. read from a packet
+  public LSA(String linkStateID, int lsaSeqNumber, Collection<LinkDescription> links, int age) {
+    this(linkStateID, lsaSeqNumber, links, NO_PREFIXES, age);
+  }
+
+  // @param prefixes copied
+  public LSA(String linkStateID, int lsaSeqNumber, Collection<LinkDescription> links, Collection<Prefix> prefixes,
+             int age) {
+    this(linkStateID, lsaSeqNumber, links, prefixes, BACKBONE, NO_SUMMARIES, NO_SUMMARIES, age);
+  }
+
+  // @param prefixes, summaries and exports are copied
+  public LSA(String linkStateID, int lsaSeqNumber, Collection<LinkDescription> links, Collection<Prefix> prefixes,
+             int area, Collection<Summary> summaries, Collection<Summary> exports, int age) {
+    this(linkStateID, lsaSeqNumber, links instanceof LinkList ? (LinkList) links :
+        new LinkList(links.toArray(new LinkDescription[0])), prefixList(prefixes), area, summaryList(summaries),
+      summaryList(exports), age);
+  }
+
+  private LSA(String linkStateID, int lsaSeqNumber, LinkList links, List<Prefix> prefixes, int area,
+              List<Summary> summaries, List<Summary> exports, int age) {
     this.linkStateID = linkStateID;
+    this.lsaSeqNumber = lsaSeqNumber;
+    this.links = links;
+    this.prefixes = prefixes;
+    this.area = area;
+    this.summaries = summaries;
+    this.exports = exports;
+    this.age = Math.max(0, Math.min(age, MAX_AGE));
+    this.agedSince = System.nanoTime();
+  }
+
+  // @return the next instance, with the link added
+  public LSA withLink(LinkDescription link) {
+    LinkDescription[] next = links.toArray(new LinkDescription[links.size() + 1]);
+    next[next.length - 1] = link;
+    return new LSA(linkStateID, lsaSeqNumber + 1, new LinkList(next), prefixes, area, summaries, exports, 0);
+  }
+
+  // @return the next instance, without the links to the given router
+  public LSA withoutLink(String linkID) {
+    LinkDescription[] next = new LinkDescription[links.size()];
+    int count = 0;
+    for (LinkDescription ld : links) {
+      if (!ld.linkID.equals(linkID)) {
+        next[count++] = ld;
+      }
+    }
+    return new LSA(linkStateID, lsaSeqNumber + 1, new LinkList(Arrays.copyOf(next, count)), prefixes, area,
+      summaries, exports, 0);
+  }
+
+  // @return the next instance, advertising these prefixes instead
+  public LSA withPrefixes(Collection<Prefix> prefixes) {
+    return new LSA(linkStateID, lsaSeqNumber + 1, (LinkList) links, prefixList(prefixes), area, summaries, exports,
+      0);
+  }
+
+  // @return the next instance, advertising these inter-area routes instead
+  public LSA withSummaries(Collection<Summary> summaries, Collection<Summary> exports) {
+    return new LSA(linkStateID, lsaSeqNumber + 1, (LinkList) links, prefixes, area, summaryList(summaries),
+      summaryList(exports), 0);
+  }
+
+  // @return the next instance with the same links and age 0, originated again before the LSA gets too old
+  public LSA refreshed() {
+    return withSeqNumber(lsaSeqNumber + 1);
+  }
+
+  // @return an instance with the same links and prefixes, the given sequence number and age 0
+  public LSA withSeqNumber(int seqNumber) {
+    return new LSA(linkStateID, seqNumber, (LinkList) links, prefixes, area, summaries, exports, 0);
+  }
+
+  // @return the same instance aged to MAX_AGE and without links, which removes the LSA from every database of its area
+  public LSA flushed() {
+    return new LSA(linkStateID, lsaSeqNumber, new LinkList(new LinkDescription[0]), NO_PREFIXES, area, NO_SUMMARIES,
+      NO_SUMMARIES, MAX_AGE);
+  }
+
+  public boolean isMaxAge() {
+    return age == MAX_AGE;
+  }
+
+  // the age in seconds, MAX_AGE once flushed
+  public int getAge() {
+    return getAge(System.nanoTime());
+  }
+
+  // @param now a System.nanoTime() value, so a sweep of the whole database reads the clock once
+  public int getAge(long now) {
+    if (age == MAX_AGE) {
+      return MAX_AGE;
+    }
+    return (int) Math.min(MAX_AGE - 1, age + (now - agedSince) / 1000000000L);
+  }
+
+  // @return true if this instance is more recent than the other one, a flushed LSA replaces the same instance
+  public boolean isNewerThan(LSA other) {
+    if (lsaSeqNumber != other.lsaSeqNumber) {
+      return lsaSeqNumber > other.lsaSeqNumber;
+    }
+    return isMaxAge() && !other.isMaxAge();
+  }
+
+  // the Java serialization sends the current age
+  private Object writeReplace() {
+    return age == MAX_AGE || age == getAge() ? this :
+      new LSA(linkStateID, lsaSeqNumber, (LinkList) links, prefixes, area, summaries, exports, getAge());
+  }
+
+  // the age keeps growing from the received one
+  private Object readResolve() {
+    return new LSA(linkStateID, lsaSeqNumber, (LinkList) links, prefixes, area, summaries, exports, age);
   }
 
   @Override
   public String toString() {
-    StringBuffer sb = new StringBuffer();
+    StringBuilder sb = new StringBuilder();
     sb.append(linkStateID + ":").append(lsaSeqNumber + "\n");
     for (LinkDescription ld : links) {
       sb.append(ld);
     }
     sb.append("\n");
+    if (!prefixes.isEmpty()) {
+      sb.append("prefixes: ").append(prefixes).append("\n");
+    }
+    if (area != BACKBONE) {
+      sb.append("area: ").append(area).append("\n");
+    }
+    if (!summaries.isEmpty()) {
+      sb.append("summaries: ").append(summaries).append("\n");
+    }
+    if (!exports.isEmpty()) {
+      sb.append("exports: ").append(exports).append("\n");
+    }
     return sb.toString();
   }
+
+  private static List<Prefix> prefixList(Collection<Prefix> prefixes) {
+    return prefixes.isEmpty() ? NO_PREFIXES :
+      Collections.unmodifiableList(Arrays.asList(prefixes.toArray(new Prefix[0])));
+  }
+
+  private static List<Summary> summaryList(Collection<Summary> summaries) {
+    return summaries.isEmpty() ? NO_SUMMARIES :
+      Collections.unmodifiableList(Arrays.asList(summaries.toArray(new Summary[0])));
+  }
+
+  // read-only list over an array that is never modified, shared between the instances of an LSA
+  private static final class LinkList extends AbstractList<LinkDescription> implements RandomAccess, Serializable {
+    private final LinkDescription[] links;
+
+    LinkList(LinkDescription[] links) {
+      this.links = links;
+    }
+
+    @Override
+    public LinkDescription get(int index) {
+      return links[index];
+    }
+
+    @Override
+    public int size() {
+      return links.length;
+    }
+  }
 }
@@ -2,38 +2,44 @@ package socs.network.message;
 
 import socs.network.node.LinkStateDatabase;
 import socs.network.node.Node;
-import socs.network.node.RouterDescription;
+import socs.network.util.Console;
+
+import java.io.IOException;
+import java.util.Vector;
 
 public class LSAUpdateHandler extends AbstractMsgHandler {
-  private SOSPFPacket packet;
 
   public LSAUpdateHandler(Node node, LinkStateDatabase lsd) {
     super(node, lsd);
   }
 
   @Override
-  public void handleMessage(SOSPFPacket pkt) {
-    this.packet = pkt;
+  public void handleMessage(SOSPFPacket packet) {
     super.handleMessage(packet);
-    boolean isUpdate = false;
-    // update all lsd in its own link state database
-    for (LSA lsa : packet.lsaArray) {
-      if (lsd.updateLSA(lsa)) {
-        isUpdate = true;
+    Vector<LSA> accepted = new Vector<>();
+    if (packet.encodedLSAs != null) {
+      // only the LSAs newer than the database are decoded
+      try {
+        accepted = lsd.updateLSAs(packet.encodedLSAs);
+      } catch (IOException e) {
+        Console.log("Dropped malformed LSAUPDATE packet from " + packet.srcIP, true);
+        return;
+      }
+    } else if (packet.lsaArray != null) {
+      // update all lsd in its own link state database
+      for (LSA lsa : packet.lsaArray) {
+        if (lsd.updateLSA(lsa)) {
+          accepted.add(lsa);
+        }
       }
     }
-    // broadcast the LSAUpdate packet if there is an LSA update
-    if (isUpdate) {
-      broadcastLSAUpdate();
+    // a packet with neither, e.g. an LSAUPDATE encoded without an LSA array, is an empty update
+    // broadcast only the LSAs that were newer than the ones in the database, but not back to the sender
+    if (!accepted.isEmpty()) {
+      broadcastLSAUpdate(accepted, packet.srcIP);
     }
   }
 
-  @Override
-  protected boolean broadcastCondition(RouterDescription neighbor) {
-    // do not send the packet back to the neighbor that sent it
-    return !neighbor.getSimulatedIP().equals(packet.srcIP);
-  }
-
   @Override
   public String toString() {
     return "LSAUpdateHandler";
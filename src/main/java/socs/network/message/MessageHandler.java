@@ -1,9 +1,6 @@
 package socs.network.message;
 
 public interface MessageHandler {
+  // may be called by several threads at once, the handlers keep no state about the packet
   public void handleMessage(SOSPFPacket packet);
-
-  public void handleAccept();
-
-  public void handleReject(String msg);
 }
@@ -0,0 +1,34 @@
+package socs.network.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts SOSPFPackets to and from the payload of a length-prefixed frame.
+ * Implementations are stateless, the buffers are owned and reused by the caller.
+ */
+public interface PacketCodec {
+
+  /**
+   * encode the packet into the given buffer, a larger buffer is allocated if it does not fit
+   *
+   * @return the buffer holding the encoded packet, flipped and ready to be read
+   */
+  public ByteBuffer encode(SOSPFPacket packet, ByteBuffer buffer) throws IOException;
+
+  /**
+   * decode a packet from the remaining bytes of the buffer
+   */
+  public SOSPFPacket decode(ByteBuffer buffer) throws IOException;
+
+  /**
+   * the size of an LSAUPDATE packet without its LSAs, exact or an upper estimate
+   */
+  public int updateHeaderSize(SOSPFPacket packet);
+
+  /**
+   * the number of bytes the LSA adds to an LSAUPDATE packet, exact or an upper estimate; used to split the updates
+   * into frames of a bounded size
+   */
+  public int lsaSize(LSA lsa);
+}
@@ -0,0 +1,45 @@
+package socs.network.message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Registry of the available wire formats.
+ * The sender's format is selected by configuration, the receiver recognizes both of them from the first byte
+ * of the frame, so routers configured with different formats still understand each other.
+ */
+public class PacketCodecs {
+  public static final PacketCodec JAVA = new JavaPacketCodec();
+  public static final PacketCodec BINARY = new BinaryPacketCodec();
+
+  // first byte of a Java serialization stream (STREAM_MAGIC 0xACED)
+  private static final byte JAVA_STREAM_MAGIC = (byte) 0xAC;
+
+  /**
+   * @param name "binary" or "java"
+   */
+  public static PacketCodec forName(String name) {
+    switch (name.toLowerCase()) {
+      case "binary":
+        return BINARY;
+      case "java":
+        return JAVA;
+      default:
+        throw new IllegalArgumentException("Unknown packet codec: " + name);
+    }
+  }
+
+  // decode the frame with the codec that produced it
+  public static SOSPFPacket decode(ByteBuffer frame) throws IOException {
+    if (!frame.hasRemaining()) {
+      throw new IOException("Empty frame");
+    }
+    byte first = frame.get(frame.position());
+    if (first == BinaryPacketCodec.MAGIC) {
+      return BINARY.decode(frame);
+    } else if (first == JAVA_STREAM_MAGIC) {
+      return JAVA.decode(frame);
+    }
+    throw new IOException("Unknown frame format");
+  }
+}
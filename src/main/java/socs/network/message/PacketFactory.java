@@ -7,19 +7,43 @@ import java.util.Vector;
 public class PacketFactory {
   public static final short HELLO = 0;
   public static final short LSAUPDATE = 1;
+  public static final short DATA = 2;
+
+  // hops a DATA packet can take before it is dropped
+  public static final int DEFAULT_TTL = 64;
 
   public static SOSPFPacket createHelloPacket(RouterDescription src, RouterDescription dst, String neighborIP) {
     SOSPFPacket packet = initPacket(src, dst, HELLO);
     packet.neighborID = neighborIP;
+    packet.area = src.getArea();
     return packet;
   }
 
+  // a HELLO without neighbor ID, sent periodically to a TWO_WAY neighbor to show that the router is alive
+  public static SOSPFPacket createKeepalivePacket(RouterDescription src, RouterDescription dst) {
+    return initPacket(src, dst, HELLO);
+  }
+
   public static SOSPFPacket createLSAUpdatePacket(RouterDescription src, RouterDescription dst, Vector<LSA> lsaArray) {
     SOSPFPacket packet = initPacket(src, dst, LSAUPDATE);
     packet.lsaArray = lsaArray;
     return packet;
   }
 
+  // a DATA packet originated by src, it is forwarded hop by hop to the router of the destination address
+  public static SOSPFPacket createDataPacket(RouterDescription src, String destinationIP, int ttl, byte[] payload) {
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.srcProcessIP = src.getProcessIP();
+    packet.srcProcessPort = src.getProcessPort();
+    packet.srcIP = src.getSimulatedIP();
+    packet.dstIP = destinationIP;
+    packet.sospfType = DATA;
+    packet.routerID = src.getSimulatedIP();
+    packet.ttl = ttl;
+    packet.payload = payload;
+    return packet;
+  }
+
   private static SOSPFPacket initPacket(RouterDescription src, RouterDescription dst, short type) {
     SOSPFPacket packet = new SOSPFPacket();
     packet.srcProcessIP = src.getProcessIP();
@@ -0,0 +1,69 @@
+package socs.network.message;
+
+import socs.network.util.IPAddress;
+
+import java.io.Serializable;
+
+/**
+ * An IPv4 prefix advertised by a router in its LSA, e.g. 10.1.0.0/16: the addresses the router delivers locally.
+ * The host bits of the address are always zero.
+ */
+public final class Prefix implements Serializable {
+  public final int address;
+  public final int length;
+
+  /**
+   * @throws IllegalArgumentException if the length is not between 0 and 32
+   */
+  public Prefix(int address, int length) {
+    if (length < 0 || length > 32) {
+      throw new IllegalArgumentException("Invalid prefix length " + length);
+    }
+    this.address = address & mask(length);
+    this.length = length;
+  }
+
+  /**
+   * @param prefix "a.b.c.d/length", or a single address, which is a /32
+   * @throws IllegalArgumentException if it is malformed
+   */
+  public static Prefix parse(String prefix) {
+    int slash = prefix.indexOf('/');
+    if (slash < 0) {
+      return new Prefix(IPAddress.toInt(prefix.trim()), 32);
+    }
+    try {
+      return new Prefix(IPAddress.toInt(prefix.substring(0, slash).trim()),
+        Integer.parseInt(prefix.substring(slash + 1).trim()));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid prefix: " + prefix);
+    }
+  }
+
+  public static int mask(int length) {
+    return length == 0 ? 0 : -1 << (32 - length);
+  }
+
+  public boolean contains(int address) {
+    return (address & mask(length)) == this.address;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Prefix)) {
+      return false;
+    }
+    Prefix other = (Prefix) o;
+    return address == other.address && length == other.length;
+  }
+
+  @Override
+  public int hashCode() {
+    return address * 31 + length;
+  }
+
+  @Override
+  public String toString() {
+    return IPAddress.toString(address) + "/" + length;
+  }
+}
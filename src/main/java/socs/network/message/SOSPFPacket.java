@@ -15,14 +15,23 @@ public class SOSPFPacket implements Serializable {
 
   //simulated IP address
   public String srcIP; // the originator of this packet
-  public String dstIP;
+  public String dstIP; // the final destination of a DATA packet, any address of a prefix advertised by a router
 
   //common header
-  public short sospfType; //0 - HELLO, 1 - LinkState Update
+  public short sospfType; //0 - HELLO, 1 - LinkState Update, 2 - DATA
   public String routerID; // sender of the packet
   public String neighborID; //neighbor's simulated IP address
+  public int area; // the area of the sender of a HELLO
 
   //used by LSAUPDATE
   public Vector<LSA> lsaArray = null;
 
+  //used by DATA: the number of hops the packet can still take, and its content
+  public int ttl;
+  public byte[] payload = null;
+
+  // the LSAs of a received LSAUPDATE packet, set by the binary codec instead of lsaArray so that the receiver only
+  // decodes the LSAs it needs
+  public transient EncodedLSAs encodedLSAs = null;
+
 }
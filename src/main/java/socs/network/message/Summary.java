@@ -0,0 +1,40 @@
+package socs.network.message;
+
+import java.io.Serializable;
+
+/**
+ * An inter-area route advertised in an LSA: the prefix belongs to the given area and is reachable at the given cost
+ * from the router that advertises it.
+ */
+public final class Summary implements Serializable {
+  public final Prefix prefix;
+  // the area the prefix belongs to
+  public final int area;
+  // in hops, from the advertising router
+  public final int cost;
+
+  public Summary(Prefix prefix, int area, int cost) {
+    this.prefix = prefix;
+    this.area = area;
+    this.cost = cost;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof Summary)) {
+      return false;
+    }
+    Summary other = (Summary) o;
+    return prefix.equals(other.prefix) && area == other.area && cost == other.cost;
+  }
+
+  @Override
+  public int hashCode() {
+    return (prefix.hashCode() * 31 + area) * 31 + cost;
+  }
+
+  @Override
+  public String toString() {
+    return prefix + " (area " + area + ", cost " + cost + ")";
+  }
+}
@@ -0,0 +1,56 @@
+package socs.network.node;
+
+import socs.network.util.TimingWheel;
+
+/**
+ * Liveness of a TWO_WAY neighbor: when a packet was last received from it and its keepalive and dead timers.
+ * <p/>
+ * Receiving a packet only records the time; the dead timer reads it when it fires and either declares the neighbor
+ * dead or schedules itself again for the rest of the dead interval, so the timers are not touched on every packet.
+ */
+final class Adjacency {
+  final RouterDescription neighbor;
+  private volatile long lastHeard;
+  private volatile boolean closed = false;
+  private volatile TimingWheel.Timeout helloTimer;
+  private volatile TimingWheel.Timeout deadTimer;
+
+  Adjacency(RouterDescription neighbor) {
+    this.neighbor = neighbor;
+    heard();
+  }
+
+  // a packet has been received from the neighbor
+  void heard() {
+    lastHeard = System.nanoTime();
+  }
+
+  long millisSinceHeard() {
+    return (System.nanoTime() - lastHeard) / 1000000;
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  void setHelloTimer(TimingWheel.Timeout timer) {
+    helloTimer = timer;
+  }
+
+  void setDeadTimer(TimingWheel.Timeout timer) {
+    deadTimer = timer;
+  }
+
+  // cancel the timers, a timer firing concurrently sees the adjacency closed and does nothing
+  void close() {
+    closed = true;
+    TimingWheel.Timeout timer = helloTimer;
+    if (timer != null) {
+      timer.cancel();
+    }
+    timer = deadTimer;
+    if (timer != null) {
+      timer.cancel();
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package socs.network.node;
+
+import socs.network.message.Prefix;
+import socs.network.util.Configuration;
+import socs.network.util.IPAddress;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides on the attach requests as soon as they arrive, so a router can accept many neighbors at the same time
+ * without anyone typing Y or N:
+ * <ul>
+ * <li>"ask": the user answers on the console, the requests wait in a queue of at most maxPending requests</li>
+ * <li>"accept": every request is accepted</li>
+ * <li>"allowlist": the requests from the simulated IPs in the allowed subnets are accepted, the others rejected</li>
+ * </ul>
+ * The requests beyond ratePerSecond are rejected whatever the policy, with a token bucket of one second of requests;
+ * a retransmitted request that is already waiting for the user does not take a token. A request the user has not
+ * answered within timeoutMillis is rejected, see expire. The methods are thread-safe.
+ */
+public final class AdmissionPolicy {
+  public static final String ASK = "ask";
+  public static final String ACCEPT = "accept";
+  public static final String ALLOWLIST = "allowlist";
+
+  public enum Decision {
+    ACCEPT, REJECT, ASK
+  }
+
+  private final String mode;
+  private final List<Prefix> allowed;
+  private final int maxPending;
+  private final double ratePerSecond;
+  private final long timeoutNanos;
+  // System::nanoTime, except in the tests
+  private final LongSupplier clock;
+
+  // token bucket, refilled at ratePerSecond up to one second of requests
+  private double tokens;
+  private long refilledAt;
+  // the requests waiting for the user's answer, oldest first, so they also expire in order
+  private final Deque<PendingRequest> pending = new ArrayDeque<>();
+
+  private final LongAdder accepted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder rateLimited = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+
+  /**
+   * @param allowed       the subnets of the allowlist policy
+   * @param ratePerSecond 0 for no limit
+   * @param timeoutMillis 0 to wait for the user's answer forever
+   */
+  public AdmissionPolicy(String mode, List<Prefix> allowed, int maxPending, double ratePerSecond, long timeoutMillis) {
+    this(mode, allowed, maxPending, ratePerSecond, timeoutMillis, System::nanoTime);
+  }
+
+  AdmissionPolicy(String mode, List<Prefix> allowed, int maxPending, double ratePerSecond, long timeoutMillis,
+                  LongSupplier clock) {
+    if (!mode.equals(ASK) && !mode.equals(ACCEPT) && !mode.equals(ALLOWLIST)) {
+      throw new IllegalArgumentException("Unknown attach policy: " + mode);
+    }
+    this.mode = mode;
+    this.allowed = allowed;
+    this.maxPending = maxPending;
+    this.ratePerSecond = ratePerSecond;
+    this.tokens = Math.max(1, ratePerSecond);
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.clock = clock;
+    this.refilledAt = clock.getAsLong();
+  }
+
+  /**
+   * the policy of socs.network.attach.policy, "ask" by default or "accept" with socs.network.attach.autoAccept
+   */
+  public static AdmissionPolicy fromConfig(Configuration config) {
+    String mode = config.hasPath("socs.network.attach.policy") ? config.getString("socs.network.attach.policy") :
+      config.getBoolean("socs.network.attach.autoAccept", false) ? ACCEPT : ASK;
+    List<Prefix> allowed = config.hasPath("socs.network.attach.allow") ?
+      Router.parsePrefixes(config.getString("socs.network.attach.allow")) : Collections.<Prefix>emptyList();
+    return new AdmissionPolicy(mode, allowed, config.getInt("socs.network.attach.maxPending", 16),
+      config.getInt("socs.network.attach.ratePerSecond", 0), getTimeoutMillis(config));
+  }
+
+  // how long a request waits for an answer, on both sides of the attach
+  public static long getTimeoutMillis(Configuration config) {
+    return config.getLong("socs.network.attach.timeoutMillis", 60000);
+  }
+
+  /**
+   * @return ASK if the request has been queued for the user, see next and answered
+   */
+  public synchronized Decision decide(RouterDescription requester) {
+    if (mode.equals(ASK) && isPending(requester)) {
+      // a retransmitted request is still waiting for the same answer, it does not count against the rate
+      return Decision.ASK;
+    }
+    if (!takeToken()) {
+      rateLimited.increment();
+      rejected.increment();
+      return Decision.REJECT;
+    }
+    switch (mode) {
+      case ACCEPT:
+        accepted.increment();
+        return Decision.ACCEPT;
+      case ALLOWLIST:
+        if (isAllowed(requester.getSimulatedIP())) {
+          accepted.increment();
+          return Decision.ACCEPT;
+        }
+        rejected.increment();
+        return Decision.REJECT;
+      default:
+        if (pending.size() >= maxPending) {
+          rejected.increment();
+          return Decision.REJECT;
+        }
+        pending.addLast(new PendingRequest(requester, clock.getAsLong() + timeoutNanos));
+        return Decision.ASK;
+    }
+  }
+
+  private boolean isPending(RouterDescription requester) {
+    for (PendingRequest request : pending) {
+      if (request.requester == requester) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the oldest request waiting for the user's answer, null if there is none
+  public synchronized RouterDescription next() {
+    PendingRequest request = pending.peekFirst();
+    return request == null ? null : request.requester;
+  }
+
+  // the user answered the given request, unless it has expired meanwhile, @return the next one, null if there is none
+  public synchronized RouterDescription answered(RouterDescription requester, boolean accept) {
+    if (next() == requester && pending.pollFirst() != null) {
+      (accept ? accepted : rejected).increment();
+    }
+    return next();
+  }
+
+  /**
+   * reject the requests that have waited for the user's answer for timeoutMillis
+   *
+   * @return the expired requests, the requesters still have to be told
+   */
+  public synchronized List<RouterDescription> expire() {
+    if (timeoutNanos <= 0) {
+      return Collections.emptyList();
+    }
+    long now = clock.getAsLong();
+    List<RouterDescription> requesters = new ArrayList<>();
+    while (!pending.isEmpty() && now - pending.peekFirst().expiresAt >= 0) {
+      requesters.add(pending.pollFirst().requester);
+      rejected.increment();
+      expired.increment();
+    }
+    return requesters;
+  }
+
+  public long getTimeoutMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+  }
+
+  private boolean isAllowed(String simulatedIP) {
+    if (!IPAddress.isIPv4(simulatedIP)) {
+      return false;
+    }
+    int address = IPAddress.toInt(simulatedIP);
+    for (Prefix prefix : allowed) {
+      if (prefix.contains(address)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean takeToken() {
+    if (ratePerSecond <= 0) {
+      return true;
+    }
+    long now = clock.getAsLong();
+    tokens = Math.min(Math.max(1, ratePerSecond), tokens + (now - refilledAt) * ratePerSecond / 1e9);
+    refilledAt = now;
+    if (tokens < 1) {
+      return false;
+    }
+    tokens--;
+    return true;
+  }
+
+  public String getMode() {
+    return mode;
+  }
+
+  public long getAccepted() {
+    return accepted.sum();
+  }
+
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  public long getRateLimited() {
+    return rateLimited.sum();
+  }
+
+  public long getExpired() {
+    return expired.sum();
+  }
+
+  public synchronized int getPending() {
+    return pending.size();
+  }
+
+  @Override
+  public String toString() {
+    return "policy: " + mode + ", accepted: " + getAccepted() + ", rejected: " + getRejected() + " (rate limited: " +
+      getRateLimited() + ", expired: " + getExpired() + "), pending: " + getPending();
+  }
+
+  private static final class PendingRequest {
+    final RouterDescription requester;
+    // the time of the clock at which the request is rejected if the user has not answered
+    final long expiresAt;
+
+    PendingRequest(RouterDescription requester, long expiresAt) {
+      this.requester = requester;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -1,5 +0,0 @@
-package socs.network.node;
-
-public enum AttachRequestStatus {
-  NULL, ACCEPTED, REJECTED
-}
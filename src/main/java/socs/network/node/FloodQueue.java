@@ -0,0 +1,148 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.PacketCodec;
+import socs.network.message.PacketFactory;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.Throttle;
+
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the LSAs to be flooded to each neighbor and sends them in LSAUPDATE packets.
+ * The flooding is paced by a Throttle, so a burst of changes only causes one flood, and an LSA that changes again
+ * before it has been sent is only sent once in its latest version.
+ * <p/>
+ * The LSAs of a flood are split into packets of at most maxFrameBytes, as sized by the codec of the transport. Each
+ * packet is a complete LSAUPDATE, so the receiver decodes and applies it as soon as it arrives, and neither side ever
+ * holds more than one frame of a database sync in memory. An LSA larger than the limit is sent alone.
+ */
+class FloodQueue {
+  private final Node router;
+  private final Throttle throttle;
+  private final PacketCodec codec;
+  private final int maxFrameBytes;
+
+  // neighbor's simulated IP => LSAs waiting to be sent to it, guarded by this
+  private final Map<String, PendingFlood> pending = new LinkedHashMap<>();
+
+  private final AtomicLong queued = new AtomicLong();
+  private final AtomicLong superseded = new AtomicLong();
+  private final AtomicLong packets = new AtomicLong();
+  // floods that did not fit in one packet
+  private final AtomicLong split = new AtomicLong();
+
+  FloodQueue(Node router, ScheduledExecutorService scheduler, long initialDelayMillis, long holdMillis,
+             long maxWaitMillis, PacketCodec codec, int maxFrameBytes) {
+    this.router = router;
+    this.codec = codec;
+    this.maxFrameBytes = maxFrameBytes;
+    this.throttle = new Throttle(scheduler, initialDelayMillis, holdMillis, maxWaitMillis, this::flush);
+  }
+
+  // queue the LSAs for the neighbor, they are sent with the next flood
+  void enqueue(RouterDescription neighbor, Collection<LSA> lsas) {
+    synchronized (this) {
+      PendingFlood flood = pending.get(neighbor.getSimulatedIP());
+      if (flood == null) {
+        flood = new PendingFlood(neighbor);
+        pending.put(neighbor.getSimulatedIP(), flood);
+      }
+      for (LSA lsa : lsas) {
+        queued.incrementAndGet();
+        LSA old = flood.lsas.get(lsa.linkStateID);
+        if (old != null) {
+          superseded.incrementAndGet();
+          if (old.isNewerThan(lsa)) {
+            continue; // keep the newer instance
+          }
+        }
+        flood.lsas.put(lsa.linkStateID, lsa);
+      }
+    }
+    throttle.trigger();
+  }
+
+  // send all the queued LSAs now, called by the throttle and before the router quits
+  void flush() {
+    List<PendingFlood> ready;
+    synchronized (this) {
+      ready = new ArrayList<>(pending.values());
+      pending.clear();
+    }
+    for (PendingFlood flood : ready) {
+      send(flood);
+    }
+  }
+
+  // one packet per frame of LSAs
+  private void send(PendingFlood flood) {
+    SOSPFPacket packet = newPacket(flood.neighbor);
+    int header = codec.updateHeaderSize(packet);
+    int size = header;
+    int sent = 0;
+    for (LSA lsa : flood.lsas.values()) {
+      int lsaSize = codec.lsaSize(lsa);
+      if (!packet.lsaArray.isEmpty() && size + lsaSize > maxFrameBytes) {
+        router.sendPacket(packet, flood.neighbor);
+        sent++;
+        packet = newPacket(flood.neighbor);
+        size = header;
+      }
+      packet.lsaArray.add(lsa);
+      size += lsaSize;
+    }
+    router.sendPacket(packet, flood.neighbor);
+    packets.addAndGet(sent + 1);
+    if (sent > 0) {
+      split.incrementAndGet();
+    }
+  }
+
+  private SOSPFPacket newPacket(RouterDescription neighbor) {
+    return PacketFactory.createLSAUpdatePacket(router.getDescription(), neighbor, new Vector<>());
+  }
+
+  Throttle getThrottle() {
+    return throttle;
+  }
+
+  long getQueued() {
+    return queued.get();
+  }
+
+  // LSAs replaced by a newer or equal instance before they were sent
+  long getSuperseded() {
+    return superseded.get();
+  }
+
+  long getPackets() {
+    return packets.get();
+  }
+
+  long getSplit() {
+    return split.get();
+  }
+
+  int getMaxFrameBytes() {
+    return maxFrameBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "LSAs queued: " + queued + ", superseded: " + superseded + ", packets: " + packets +
+      " (" + split + " floods split into frames of " + maxFrameBytes + " bytes), floods: " + throttle;
+  }
+
+  private static class PendingFlood {
+    final RouterDescription neighbor;
+    // originator => latest instance of its LSA
+    final Map<String, LSA> lsas = new LinkedHashMap<>();
+
+    PendingFlood(RouterDescription neighbor) {
+      this.neighbor = neighbor;
+    }
+  }
+}
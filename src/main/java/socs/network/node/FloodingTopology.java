@@ -0,0 +1,148 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.util.IPAddress;
+import socs.network.util.PersistentHashMap;
+
+import java.util.*;
+
+/**
+ * Sparse flooding topology of an area for the reduced flooding mode: the union of two breadth-first spanning trees,
+ * rooted at the routers with the smallest and the largest simulated IP of the area. Every router computes it from its
+ * own copy of the database, and BFS visits the links in the order of the LSAs, so the routers that hold the same
+ * links elect the same roots and the same trees without exchanging anything. A router only keeps its own links on the
+ * trees, plus its neighbors in other areas, which always receive its LSA.
+ * <p/>
+ * With two trees the flooding survives the loss of any root or tree link until the topology is computed again, and
+ * in a full mesh both trees are stars, so an LSA reaches every router about twice instead of once per neighbor.
+ * Only the links advertised by both ends are used.
+ */
+public final class FloodingTopology {
+  // the links version of the database it was computed from, see LinkStateDatabase.Snapshot
+  private final long links;
+  private final Set<String> neighbors;
+  private final boolean connected;
+  private final String firstRoot;
+  private final String secondRoot;
+  private final int routers;
+
+  private FloodingTopology(long links, Set<String> neighbors, boolean connected, String firstRoot,
+                           String secondRoot, int routers) {
+    this.links = links;
+    this.neighbors = neighbors;
+    this.connected = connected;
+    this.firstRoot = firstRoot;
+    this.secondRoot = secondRoot;
+    this.routers = routers;
+  }
+
+  /**
+   * @param ownIP the router computing it, its LSA must be in the database
+   */
+  static FloodingTopology compute(LinkStateDatabase.Snapshot snapshot, String ownIP, int area) {
+    PersistentHashMap<String, LSA> lsas = snapshot.lsas;
+    // the routers of the area, indexed in the iteration order of the database
+    List<LSA> members = new ArrayList<>();
+    Map<String, Integer> index = new HashMap<>();
+    for (LSA lsa : lsas.values()) {
+      if (lsa.area == area && !lsa.isMaxAge()) {
+        index.put(lsa.linkStateID, members.size());
+        members.add(lsa);
+      }
+    }
+    int count = members.size();
+    int[][] adjacency = new int[count][];
+    int first = -1;
+    int second = -1;
+    for (int i = 0; i < count; i++) {
+      LSA lsa = members.get(i);
+      int[] ends = new int[lsa.links.size()];
+      int degree = 0;
+      for (LinkDescription ld : lsa.links) {
+        Integer j = index.get(ld.linkID);
+        if (j != null && j != i && advertises(members.get(j), lsa.linkStateID)) {
+          ends[degree++] = j;
+        }
+      }
+      adjacency[i] = Arrays.copyOf(ends, degree);
+      long address = IPAddress.toInt(lsa.linkStateID) & 0xFFFFFFFFL;
+      if (first < 0 || address < (IPAddress.toInt(members.get(first).linkStateID) & 0xFFFFFFFFL)) first = i;
+      if (second < 0 || address > (IPAddress.toInt(members.get(second).linkStateID) & 0xFFFFFFFFL)) second = i;
+    }
+    int own = index.get(ownIP);
+    Set<String> neighbors = new HashSet<>();
+    boolean connected = count > 0;
+    for (int root : new int[]{first, second}) {
+      if (root < 0) continue;
+      int[] parent = breadthFirst(adjacency, root);
+      for (int i = 0; i < count; i++) {
+        if (parent[i] < 0) {
+          connected = false;
+        } else if (parent[i] == own && i != own) {
+          neighbors.add(members.get(i).linkStateID);
+        } else if (i == own && i != root) {
+          neighbors.add(members.get(parent[i]).linkStateID);
+        }
+      }
+    }
+    LSA ownLSA = lsas.get(ownIP);
+    for (LinkDescription ld : ownLSA.links) {
+      LSA neighbor = lsas.get(ld.linkID);
+      if (neighbor != null && neighbor.area != area) {
+        neighbors.add(ld.linkID);
+      }
+    }
+    return new FloodingTopology(snapshot.links, Collections.unmodifiableSet(neighbors), connected,
+      first < 0 ? null : members.get(first).linkStateID, second < 0 ? null : members.get(second).linkStateID,
+      count);
+  }
+
+  // @return the parent of every router in the tree, the root is its own parent and -1 marks an unreachable router
+  private static int[] breadthFirst(int[][] adjacency, int root) {
+    int[] parent = new int[adjacency.length];
+    Arrays.fill(parent, -1);
+    int[] queue = new int[adjacency.length];
+    int head = 0;
+    int tail = 0;
+    parent[root] = root;
+    queue[tail++] = root;
+    while (head < tail) {
+      int node = queue[head++];
+      for (int next : adjacency[node]) {
+        if (parent[next] < 0) {
+          parent[next] = node;
+          queue[tail++] = next;
+        }
+      }
+    }
+    return parent;
+  }
+
+  private static boolean advertises(LSA lsa, String linkID) {
+    for (LinkDescription ld : lsa.links) {
+      if (ld.linkID.equals(linkID)) return true;
+    }
+    return false;
+  }
+
+  public long getLinks() {
+    return links;
+  }
+
+  // the neighbors the LSAs are flooded to
+  public Set<String> getNeighbors() {
+    return neighbors;
+  }
+
+  // false if the trees do not reach every router of the area, the LSAs are then flooded to every neighbor
+  public boolean isConnected() {
+    return connected;
+  }
+
+  @Override
+  public String toString() {
+    return neighbors.size() + " neighbors on the trees rooted at " + firstRoot + " and " + secondRoot + ", " +
+      routers + " routers" + (connected ? "" : ", disconnected");
+  }
+}
@@ -0,0 +1,176 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.Prefix;
+import socs.network.message.Summary;
+import socs.network.util.IPAddress;
+import socs.network.util.PersistentHashMap;
+import socs.network.util.PrefixTrie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The forwarding table of a router, compiled from a shortest path tree and the prefixes advertised in the LSAs.
+ * <p/>
+ * Every reachable router is a route, whose ports are the ports of its equal-cost next hops. The simulated IP of the
+ * router, as a /32, and the prefixes of its LSA are compiled into a PrefixTrie that maps an address to its route, so
+ * forwarding a packet takes one longest-prefix match and one array read. When several routers advertise the same
+ * prefix, the closest one wins, then the one with the smallest simulated IP.
+ * <p/>
+ * The other areas are reached through the summaries of the border routers: a summary advertised by a router of the
+ * area costs the distance to the router plus the cost of the summary, and a neighbor in another area offers the
+ * summaries it exports. The cheapest summary of a prefix wins, and a prefix of the area itself always wins over a
+ * summary of the same prefix.
+ * <p/>
+ * The table is immutable; the router compiles a new one when the tree or its ports have changed.
+ */
+public final class ForwardingTable {
+  // what the table was compiled from
+  final ShortestPathTree tree;
+  final PortTable portTable;
+
+  private final PrefixTrie trie;
+  // indexed by route
+  private final String[] routers;
+  private final int[][] ports;
+  private final int localRoute;
+
+  private ForwardingTable(ShortestPathTree tree, PortTable portTable, PrefixTrie trie, String[] routers,
+                          int[][] ports, int localRoute) {
+    this.tree = tree;
+    this.portTable = portTable;
+    this.trie = trie;
+    this.routers = routers;
+    this.ports = ports;
+    this.localRoute = localRoute;
+  }
+
+  static ForwardingTable compile(ShortestPathTree tree, PersistentHashMap<String, LSA> lsas, PortTable portTable,
+                                 String ownIP, int area) {
+    List<String> routers = new ArrayList<>();
+    List<int[]> ports = new ArrayList<>();
+    int[] distances = new int[lsas.size()];
+    // prefix => the route advertising it, the closest one for the prefixes advertised by several routers
+    Map<Prefix, Integer> best = new HashMap<>();
+    // prefix of another area => the route and the cost of its cheapest summary
+    Map<Prefix, int[]> summaries = new HashMap<>();
+    int localRoute = -1;
+    for (Map.Entry<String, LSA> entry : lsas) {
+      String router = entry.getKey();
+      int distance = tree.getDistance(router);
+      if (distance < 0) {
+        continue;
+      }
+      int route = routers.size();
+      routers.add(router);
+      ports.add(portsOf(tree, portTable, router));
+      distances[route] = distance;
+      if (router.equals(ownIP)) {
+        localRoute = route;
+      }
+      advertise(best, new Prefix(IPAddress.toInt(router), 32), route, routers, distances);
+      LSA lsa = entry.getValue();
+      for (Prefix prefix : lsa.prefixes) {
+        advertise(best, prefix, route, routers, distances);
+      }
+      if (route == localRoute) {
+        continue;
+      }
+      // the same rule as the border routers: only the backbone passes on the summaries of the other areas
+      for (Summary summary : lsa.area == area ? lsa.summaries : lsa.exports) {
+        if (summary.area != area && (lsa.area == area || summary.area == lsa.area || lsa.area == LSA.BACKBONE)) {
+          advertiseSummary(summaries, summary.prefix, route, distance + summary.cost, routers);
+        }
+      }
+    }
+    PrefixTrie.Builder builder = new PrefixTrie.Builder();
+    for (Map.Entry<Prefix, int[]> entry : summaries.entrySet()) {
+      if (!best.containsKey(entry.getKey())) {
+        builder.add(entry.getKey().address, entry.getKey().length, entry.getValue()[0]);
+      }
+    }
+    for (Map.Entry<Prefix, Integer> entry : best.entrySet()) {
+      builder.add(entry.getKey().address, entry.getKey().length, entry.getValue());
+    }
+    return new ForwardingTable(tree, portTable, builder.build(), routers.toArray(new String[0]),
+      ports.toArray(new int[0][]), localRoute);
+  }
+
+  private static void advertise(Map<Prefix, Integer> best, Prefix prefix, int route, List<String> routers,
+                                int[] distances) {
+    Integer other = best.get(prefix);
+    if (other == null || distances[route] < distances[other] || distances[route] == distances[other] &&
+      Integer.compareUnsigned(IPAddress.toInt(routers.get(route)), IPAddress.toInt(routers.get(other))) < 0) {
+      best.put(prefix, route);
+    }
+  }
+
+  private static void advertiseSummary(Map<Prefix, int[]> summaries, Prefix prefix, int route, int cost,
+                                       List<String> routers) {
+    int[] other = summaries.get(prefix);
+    if (other == null || cost < other[1] || cost == other[1] &&
+      Integer.compareUnsigned(IPAddress.toInt(routers.get(route)), IPAddress.toInt(routers.get(other[0]))) < 0) {
+      summaries.put(prefix, new int[]{route, cost});
+    }
+  }
+
+  // the ports of the equal-cost next hops, a next hop that has just been detached has no port
+  private static int[] portsOf(ShortestPathTree tree, PortTable portTable, String router) {
+    List<String> nextHops = tree.getNextHops(router);
+    int[] result = new int[nextHops.size()];
+    int count = 0;
+    for (String nextHop : nextHops) {
+      int port = portTable.portOf(nextHop);
+      if (port >= 0) {
+        result[count++] = port;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  // @return the route of the longest prefix containing the address, PrefixTrie.NO_ROUTE if there is none
+  public int lookup(int address) {
+    return trie.lookup(address);
+  }
+
+  // the packets of the route are delivered by this router
+  public boolean isLocal(int route) {
+    return route == localRoute;
+  }
+
+  // the router the route leads to
+  public String getRouter(int route) {
+    return routers[route];
+  }
+
+  public int[] getPorts(int route) {
+    return ports[route].clone();
+  }
+
+  /**
+   * @param flowHash see ShortestPathTree.flowHash, the packets of a flow always leave through the same port
+   * @return the port chosen for the flow among the equal-cost ones, -1 if the route has none
+   */
+  public int selectPort(int route, int flowHash) {
+    int[] candidates = ports[route];
+    return candidates.length == 0 ? -1 : candidates[Math.floorMod(ShortestPathTree.mix(flowHash), candidates.length)];
+  }
+
+  // the number of routes, one per reachable router
+  public int size() {
+    return routers.length;
+  }
+
+  public int getPrefixCount() {
+    return trie.size();
+  }
+
+  @Override
+  public String toString() {
+    return routers.length + " routes, " + trie;
+  }
+}
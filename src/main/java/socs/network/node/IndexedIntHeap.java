@@ -0,0 +1,110 @@
+package socs.network.node;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of router indices ordered by an int key, with decrease-key support.
+ * The position of every index in the heap is tracked, so a router is never queued twice and no entry objects are
+ * allocated. The arrays only grow, a cleared heap is reused by the next computation.
+ */
+class IndexedIntHeap {
+  private int[] heap = new int[16]; // heap position => router index
+  private int[] keys = new int[16]; // router index => key
+  private int[] positions = new int[16]; // router index => heap position, -1 if not queued
+  private int size = 0;
+
+  IndexedIntHeap() {
+    Arrays.fill(positions, -1);
+  }
+
+  // make room for router indices below the given capacity
+  void ensureCapacity(int capacity) {
+    if (positions.length < capacity) {
+      int length = Math.max(capacity, positions.length * 2);
+      heap = Arrays.copyOf(heap, length);
+      keys = Arrays.copyOf(keys, length);
+      int old = positions.length;
+      positions = Arrays.copyOf(positions, length);
+      Arrays.fill(positions, old, length, -1);
+    }
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int minKey() {
+    return keys[heap[0]];
+  }
+
+  // insert the index, or lower its key if it is already queued with a larger one
+  void offer(int index, int key) {
+    int pos = positions[index];
+    if (pos < 0) {
+      pos = size++;
+      heap[pos] = index;
+      positions[index] = pos;
+      keys[index] = key;
+      siftUp(pos);
+    } else if (key < keys[index]) {
+      keys[index] = key;
+      siftUp(pos);
+    }
+  }
+
+  int poll() {
+    int min = heap[0];
+    positions[min] = -1;
+    size--;
+    if (size > 0) {
+      int last = heap[size];
+      heap[0] = last;
+      positions[last] = 0;
+      siftDown(0);
+    }
+    return min;
+  }
+
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      positions[heap[i]] = -1;
+    }
+    size = 0;
+  }
+
+  private void siftUp(int pos) {
+    int index = heap[pos];
+    int key = keys[index];
+    while (pos > 0) {
+      int parent = (pos - 1) >>> 1;
+      int parentIndex = heap[parent];
+      if (keys[parentIndex] <= key) break;
+      heap[pos] = parentIndex;
+      positions[parentIndex] = pos;
+      pos = parent;
+    }
+    heap[pos] = index;
+    positions[index] = pos;
+  }
+
+  private void siftDown(int pos) {
+    int index = heap[pos];
+    int key = keys[index];
+    int half = size >>> 1;
+    while (pos < half) {
+      int child = 2 * pos + 1;
+      int childIndex = heap[child];
+      int right = child + 1;
+      if (right < size && keys[heap[right]] < keys[childIndex]) {
+        child = right;
+        childIndex = heap[right];
+      }
+      if (key <= keys[childIndex]) break;
+      heap[pos] = childIndex;
+      positions[childIndex] = pos;
+      pos = child;
+    }
+    heap[pos] = index;
+    positions[index] = pos;
+  }
+}
@@ -1,126 +1,642 @@
 package socs.network.node;
 
+import socs.network.message.EncodedLSAs;
 import socs.network.message.LSA;
 import socs.network.message.LinkDescription;
+import socs.network.message.Prefix;
+import socs.network.message.Summary;
+import socs.network.util.Console;
+import socs.network.util.IPAddress;
+import socs.network.util.LatencyHistogram;
+import socs.network.util.PersistentHashMap;
+import socs.network.util.Throttle;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * No synchronization lock is needed for this class
- * the synchronization of all the underlying data structures and references are already ensured
+ * the LSAs are immutable and the database is an immutable snapshot, replaced atomically by every change, so readers
+ * always see a consistent version without locking or copying it;
+ * the only lock makes sure the cached shortest path tree is recomputed by one thread at a time
  */
 public class LinkStateDatabase {
 
-  // originated router's simulated IP => LSAInstance
-  private final Map<String, LSA> _store = new ConcurrentHashMap<String, LSA>();
+  // the current version of the database
+  private final AtomicReference<Snapshot> _store = new AtomicReference<>();
 
   private final Node router;
 
+  // cached shortest path tree, valid as long as its generation matches the database generation
+  private volatile ShortestPathTree spt;
+  private final Object sptLock = new Object();
+  private final SpfEngine spfEngine;
+
+  // originators of the LSAs changed since the shortest path tree was last computed
+  private final Set<String> changedSinceSpf = ConcurrentHashMap.newKeySet();
+
+  // update the tree incrementally when at most this many LSAs have changed, 0 always recomputes it from scratch
+  private volatile int maxIncrementalChanges = 8;
+
+  // LSAs received by updateLSA, and the ones rejected because they were not newer than the stored instance
+  private final LongAdder lsasAccepted = new LongAdder();
+  private final LongAdder lsasStale = new LongAdder();
+  // LSAs of other areas dropped by updateLSA, they only come from routers that do not filter them
+  private final LongAdder lsasOtherArea = new LongAdder();
+  // stale LSAs dropped by updateLSAs before their links were decoded, with the bytes and objects not decoded
+  private final LongAdder lsasSkipped = new LongAdder();
+  private final LongAdder skippedBytes = new LongAdder();
+  private final LongAdder skippedObjects = new LongAdder();
+  private final LatencyHistogram spfLatency = new LatencyHistogram();
+
+  // recomputes the tree in the background after the topology has changed, null if the tree is only computed on read
+  private volatile Throttle spfThrottle;
+
+  // aging: an LSA older than maxAgeSeconds is flushed, the router's own LSA is refreshed after refreshSeconds
+  private volatile int maxAgeSeconds = 3600;
+  private volatile int refreshSeconds = 1800;
+  private ScheduledFuture<?> sweeper;
+  private final LongAdder lsasRefreshed = new LongAdder();
+  private final LongAdder lsasFlushed = new LongAdder();
+  private final LongAdder lsasPurged = new LongAdder();
+  // the sequence number of every LSA purged less than maxAgeSeconds ago, so a late copy of the purged instance, e.g.
+  // from a slower neighbor, is dropped instead of bringing the LSA back
+  private final ConcurrentHashMap<String, PurgedLSA> purgedLSAs = new ConcurrentHashMap<>();
+  private final LongAdder lateCopies = new LongAdder();
+  // the size of the database before and after the last purge
+  private volatile int sizeBeforePurge = 0;
+  private volatile int sizeAfterPurge = 0;
+
+  // reduced flooding: the LSAs only go to the neighbors on the flooding topology, computed after the SPF runs
+  private volatile boolean reducedFlooding = false;
+  private volatile FloodingTopology floodingTopology;
+  private final LongAdder floodsReduced = new LongAdder();
+  private final LongAdder floodsFull = new LongAdder();
+
+  // the prefixes summarizing the router's area for the other areas, empty to export every router of the area
+  private volatile List<Prefix> areaRanges = Collections.emptyList();
+
+  // journal and snapshot of the database on disk, null if the database is only kept in memory
+  private volatile LsdbStorage storage;
+  private ScheduledExecutorService storageScheduler;
+  private ScheduledFuture<?> compactor;
+  // compact the journal once it has this many records, even before the compaction timer
+  private int compactRecords;
+
 
   public LinkStateDatabase(Node rt) {
     this.router = rt;
     RouterDescription rd = router.getDescription();
     LSA l = initLinkStateDatabase(rd);
-    _store.put(l.linkStateID, l);
+    _store.set(new Snapshot(PersistentHashMap.<String, LSA>empty().put(l.linkStateID, l), 0, 0));
+    spfEngine = new SpfEngine(rd.getSimulatedIP(), rd.getArea());
   }
 
   /**
    * output the shortest path from this router to the destination with the given IP address
    */
   public String getShortestPath(String destinationIP) {
-    Map<String, Integer> dist = new HashMap<>(); // Distance from source to each node
-    Map<String, String> prev = new HashMap<>(); // Previous node in optimal path from source
-    PriorityQueue<Map.Entry<String, Integer>> pq = new PriorityQueue<>((a, b) -> a.getValue() - b.getValue());
-
-    // Initialize distances and priority queue
-    for (String ip : _store.keySet()) {
-      dist.put(ip, Integer.MAX_VALUE);
-      prev.put(ip, null);
-      pq.offer(new AbstractMap.SimpleEntry<>(ip, Integer.MAX_VALUE));
-    }
-
-    // Set the distance for the starting router (itself) to 0
-    String startIP = router.getDescription().getSimulatedIP();
-    dist.put(startIP, 0);
-    pq.offer(new AbstractMap.SimpleEntry<>(startIP, 0));
-
-    while (!pq.isEmpty()) {
-      Map.Entry<String, Integer> entry = pq.poll();
-      String currentIP = entry.getKey();
-      int currentDist = entry.getValue();
-
-      // If we reached the destination or the smallest distance is INFINITY (unreachable), stop
-      if (currentIP.equals(destinationIP) || currentDist == Integer.MAX_VALUE) break;
-
-      LSA currentLSA = _store.get(currentIP);
-      for (LinkDescription ld : currentLSA.links) {
-        String neighborIP = ld.linkID;
-        int weight = 1; // Each hop has a weight of 1
-        if (dist.get(currentIP) + weight < dist.get(neighborIP)) {
-          dist.put(neighborIP, dist.get(currentIP) + weight);
-          prev.put(neighborIP, currentIP);
-          pq.offer(new AbstractMap.SimpleEntry<>(neighborIP, dist.get(neighborIP)));
+    List<String> path = getShortestPathTree().getPath(destinationIP);
+    if (path == null) {
+      return "No path found"; // Destination is unreachable
+    }
+    return String.join(" -> ", path);
+  }
+
+  /**
+   * output every equal-cost shortest path from this router to the destination, one per line, at most limit of them
+   */
+  public String getAllShortestPaths(String destinationIP, int limit) {
+    ShortestPathTree tree = getShortestPathTree();
+    List<List<String>> paths = tree.getAllPaths(destinationIP, limit);
+    if (paths.isEmpty()) {
+      return "No path found";
+    }
+    StringBuilder sb = new StringBuilder();
+    for (List<String> path : paths) {
+      sb.append(String.join(" -> ", path)).append('\n');
+    }
+    long count = tree.countPaths(destinationIP);
+    if (count == Long.MAX_VALUE) {
+      sb.append("... and too many other equal-cost paths to count\n");
+    } else if (count > paths.size()) {
+      sb.append("... ").append(count - paths.size()).append(" more equal-cost paths\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * the last computed shortest path tree, which may be older than the database until the throttled SPF has run; the
+   * data plane forwards with it, so a burst of packets never runs the SPF outside of its throttle
+   */
+  public ShortestPathTree getComputedShortestPathTree() {
+    ShortestPathTree tree = spt;
+    return tree == null || spfThrottle == null ? getShortestPathTree() : tree;
+  }
+
+  /**
+   * the shortest path tree of the current database, it is only recomputed after the topology has changed
+   */
+  public ShortestPathTree getShortestPathTree() {
+    ShortestPathTree tree = spt;
+    if (tree != null && tree.getGeneration() == getGeneration()) {
+      return tree;
+    }
+    boolean computed = false;
+    synchronized (sptLock) {
+      Snapshot snapshot = _store.get();
+      long current = snapshot.generation;
+      if (spt == null || spt.getGeneration() != current) {
+        // a change during the computation bumps the generation again, so the next lookup recomputes
+        // a router is only recorded as changed after its LSA has been published, so every change of this snapshot
+        // is in the set; the set may also hold newer changes, see below
+        List<String> changed = new ArrayList<>();
+        for (Iterator<String> it = changedSinceSpf.iterator(); it.hasNext(); ) {
+          changed.add(it.next());
+          it.remove();
+        }
+        long start = System.nanoTime();
+        if (spt == null || changed.size() > maxIncrementalChanges) {
+          spt = spfEngine.computeFull(current, snapshot.lsas, changed);
+        } else {
+          spt = spfEngine.computeIncremental(current, snapshot.lsas, changed);
         }
+        spfLatency.record(System.nanoTime() - start);
+        // the routers whose LSA changed again after the snapshot are parsed again by the next computation
+        PersistentHashMap<String, LSA> latest = _store.get().lsas;
+        for (String router : changed) {
+          if (latest.get(router) != snapshot.lsas.get(router)) {
+            changedSinceSpf.add(router);
+          }
+        }
+        computed = true;
+      }
+      FloodingTopology topology = floodingTopology;
+      if (reducedFlooding && (topology == null || topology.getLinks() != snapshot.links)) {
+        floodingTopology = FloodingTopology.compute(snapshot, router.getDescription().getSimulatedIP(),
+          router.getDescription().getArea());
       }
+      tree = spt;
     }
+    if (computed) {
+      // the summaries depend on the distances
+      updateSummaries(tree);
+    }
+    return tree;
+  }
 
-    // Reconstruct the path
-    if (dist.get(destinationIP) == null || dist.get(destinationIP) == Integer.MAX_VALUE) {
-      return "No path found"; // Destination is unreachable
+  /**
+   * flood the LSAs over a sparse flooding topology instead of to every neighbor, see getFloodingNeighbors
+   */
+  public void setReducedFlooding(boolean enabled) {
+    this.reducedFlooding = enabled;
+  }
+
+  public boolean isReducedFlooding() {
+    return reducedFlooding;
+  }
+
+  // the last computed flooding topology, null if there is none yet
+  public FloodingTopology getFloodingTopology() {
+    return floodingTopology;
+  }
+
+  /**
+   * the neighbors to flood LSAs to. With reduced flooding, they are the neighbors on the flooding topology, as long
+   * as it has been computed from the current links and reaches every router of the area. Otherwise, and for LSAs
+   * received from a neighbor that is not on the topology, which means the neighbor computed another one, the LSAs go
+   * to every neighbor. A change of the links is always flooded to every neighbor by the routers that accept it, since
+   * their topology is out of date until the next SPF run, so the routers never wait for each other's topology.
+   *
+   * @param fromIP the neighbor the LSAs were received from, null for the LSAs the router originated
+   * @return null to flood to every neighbor
+   */
+  public Set<String> getFloodingNeighbors(String fromIP) {
+    if (!reducedFlooding) {
+      return null;
+    }
+    FloodingTopology topology = floodingTopology;
+    if (topology == null || topology.getLinks() != _store.get().links || !topology.isConnected() ||
+      fromIP != null && !topology.getNeighbors().contains(fromIP)) {
+      floodsFull.increment();
+      return null;
     }
+    floodsReduced.increment();
+    return topology.getNeighbors();
+  }
+
+  public long getFloodsReduced() {
+    return floodsReduced.sum();
+  }
+
+  public long getFloodsFull() {
+    return floodsFull.sum();
+  }
 
-    LinkedList<String> path = new LinkedList<>();
-    for (String at = destinationIP; at != null; at = prev.get(at)) {
-      path.addFirst(at);
+  /**
+   * @param maxChanges the largest number of changed LSAs handled by an incremental update of the shortest path tree,
+   *                   0 disables the incremental updates
+   */
+  public void setMaxIncrementalChanges(int maxChanges) {
+    this.maxIncrementalChanges = maxChanges;
+  }
+
+  // @param maxPaths the largest number of equal-cost next hops kept per destination, used by the next computation
+  public void setMaxPaths(int maxPaths) {
+    synchronized (sptLock) {
+      spfEngine.setMaxPaths(maxPaths);
     }
+  }
 
-    return String.join(" -> ", path);
+  /**
+   * recompute the shortest path tree in the background after changes, at most once per hold time, so a burst of
+   * LSAs only causes one SPF run; a lookup of a stale tree still recomputes it immediately
+   */
+  public void setSpfThrottle(ScheduledExecutorService scheduler, long initialDelayMillis, long holdMillis,
+                             long maxWaitMillis) {
+    this.spfThrottle = new Throttle(scheduler, initialDelayMillis, holdMillis, maxWaitMillis,
+      this::getShortestPathTree);
+  }
+
+  public Throttle getSpfThrottle() {
+    return spfThrottle;
+  }
+
+  /**
+   * @param ranges the prefixes exported to the other areas for the whole area of the router when it is an area border
+   *               router, they should cover the simulated IPs and the prefixes of the area; without them, every
+   *               router and prefix of the area is exported on its own
+   */
+  public void setAreaRanges(Collection<Prefix> ranges) {
+    areaRanges = Collections.unmodifiableList(new ArrayList<>(ranges));
+  }
+
+  /**
+   * age the LSAs: the database is swept every sweepMillis by a single task on the scheduler, see sweep
+   *
+   * @param maxAgeSeconds  an LSA that has not been refreshed for this long is flushed from the network
+   * @param refreshSeconds the router originates its own LSA again after this long, it must be below maxAgeSeconds
+   * @param sweepMillis    0 disables the aging
+   */
+  public synchronized void setAging(ScheduledExecutorService scheduler, int maxAgeSeconds, int refreshSeconds,
+                                    long sweepMillis) {
+    if (refreshSeconds <= 0 || refreshSeconds >= maxAgeSeconds || maxAgeSeconds >= LSA.MAX_AGE) {
+      throw new IllegalArgumentException("Invalid LSA aging: refresh " + refreshSeconds + " s, max age " +
+        maxAgeSeconds + " s");
+    }
+    this.maxAgeSeconds = maxAgeSeconds;
+    this.refreshSeconds = refreshSeconds;
+    stopAging();
+    if (sweepMillis > 0) {
+      sweeper = scheduler.scheduleWithFixedDelay(this::sweep, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public synchronized void stopAging() {
+    if (sweeper != null) {
+      sweeper.cancel(false);
+      sweeper = null;
+    }
+  }
+
+  /**
+   * keep the database on disk, restore it right away and compact its journal every compactIntervalMillis or every
+   * compactRecords changes
+   * <p/>
+   * The restored LSAs are installed as they were, except the LSAs that have expired in the meantime and the router's
+   * own LSA: the adjacencies are not restored, so it keeps its current links but continues after the last sequence
+   * number it used, otherwise the neighbors would ignore it as older than their copy. The neighbors then reconcile
+   * the rest by sequence number when they exchange their databases.
+   */
+  public void enableStorage(Path dir, ScheduledExecutorService scheduler, long compactIntervalMillis,
+                            int compactRecords) {
+    long start = System.nanoTime();
+    LsdbStorage storage = new LsdbStorage(dir);
+    Map<String, LSA> restored;
+    try {
+      restored = storage.load();
+    } catch (IOException e) {
+      Console.log("Cannot load the link state database from " + dir + ": " + e.getMessage(), false);
+      return;
+    }
+    String ownIP = router.getDescription().getSimulatedIP();
+    int count;
+    while (true) {
+      Snapshot current = _store.get();
+      PersistentHashMap<String, LSA> lsas = current.lsas;
+      count = 0;
+      for (LSA lsa : restored.values()) {
+        LSA stored = lsas.get(lsa.linkStateID);
+        if (lsa.linkStateID.equals(ownIP)) {
+          if (!stored.isNewerThan(lsa)) {
+            lsas = lsas.put(ownIP, stored.withSeqNumber(lsa.lsaSeqNumber + 1));
+          }
+        } else if (lsa.getAge() < maxAgeSeconds && (stored == null || lsa.isNewerThan(stored)) &&
+          lsa.area == router.getDescription().getArea()) {
+          // the LSAs of the neighbors in other areas come back with the adjacencies
+          lsas = lsas.put(lsa.linkStateID, lsa);
+          count++;
+        }
+      }
+      if (_store.compareAndSet(current, current.withLinksChanged(lsas))) {
+        break;
+      }
+    }
+    for (String linkStateID : restored.keySet()) {
+      topologyChanged(linkStateID);
+    }
+    synchronized (this) {
+      this.storage = storage;
+      this.storageScheduler = scheduler;
+      this.compactRecords = compactRecords;
+      // the restored database becomes the new snapshot, the replayed journals are deleted
+      compactStorage();
+      if (compactIntervalMillis > 0) {
+        compactor = scheduler.scheduleWithFixedDelay(this::compactStorage, compactIntervalMillis,
+          compactIntervalMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    Console.log("Restored " + count + " LSAs from " + dir + " in " + (System.nanoTime() - start) / 1000000 +
+      " ms (snapshot: " + storage.getLoadedFromSnapshot() + " LSAs, journal: " + storage.getReplayedRecords() +
+      " records)", false);
+  }
+
+  // stop saving the database, e.g. when the router quits
+  public synchronized void closeStorage() {
+    if (compactor != null) {
+      compactor.cancel(false);
+      compactor = null;
+    }
+    if (storage != null) {
+      storage.close();
+      storage = null;
+    }
+  }
+
+  // @return a description of the files of the database, null if it is only kept in memory
+  public String getStorage() {
+    LsdbStorage current = storage;
+    return current == null ? null : current.toString();
+  }
+
+  private void compactStorage() {
+    LsdbStorage current = storage;
+    if (current == null) {
+      return;
+    }
+    try {
+      current.compact(() -> _store.get().lsas);
+    } catch (IOException e) {
+      Console.log("Cannot compact the LSDB journal: " + e.getMessage(), true);
+    }
+  }
+
+  // append a published change to the journal
+  private void journal(LSA lsa) {
+    LsdbStorage current = storage;
+    if (current != null && current.appendPut(lsa) == compactRecords) {
+      scheduleCompaction();
+    }
+  }
+
+  private void journalRemoval(String linkStateID) {
+    LsdbStorage current = storage;
+    if (current != null && current.appendRemove(linkStateID) == compactRecords) {
+      scheduleCompaction();
+    }
+  }
+
+  private synchronized void scheduleCompaction() {
+    if (storageScheduler != null) {
+      try {
+        storageScheduler.execute(this::compactStorage);
+      } catch (RejectedExecutionException e) {
+        // the router is shutting down
+      }
+    }
+  }
+
+  public int getMaxAgeSeconds() {
+    return maxAgeSeconds;
+  }
+
+  public long getLsasRefreshed() {
+    return lsasRefreshed.sum();
+  }
+
+  public long getLsasFlushed() {
+    return lsasFlushed.sum();
+  }
+
+  public long getLsasPurged() {
+    return lsasPurged.sum();
+  }
+
+  // late copies of purged LSAs dropped by updateLSA
+  public long getLateCopies() {
+    return lateCopies.sum();
+  }
+
+  public int getSizeBeforePurge() {
+    return sizeBeforePurge;
+  }
+
+  public int getSizeAfterPurge() {
+    return sizeAfterPurge;
+  }
+
+  // duration of the shortest path tree computations, full and incremental
+  public LatencyHistogram getSpfLatency() {
+    return spfLatency;
+  }
+
+  public long getSpfFullRuns() {
+    synchronized (sptLock) {
+      return spfEngine.getFullRuns();
+    }
+  }
+
+  public long getSpfIncrementalRuns() {
+    synchronized (sptLock) {
+      return spfEngine.getIncrementalRuns();
+    }
+  }
+
+  public long getLsasAccepted() {
+    return lsasAccepted.sum();
+  }
+
+  public long getLsasStale() {
+    return lsasStale.sum();
+  }
+
+  public long getLsasOtherArea() {
+    return lsasOtherArea.sum();
+  }
+
+  public long getLsasSkipped() {
+    return lsasSkipped.sum();
+  }
+
+  public long getSkippedBytes() {
+    return skippedBytes.sum();
+  }
+
+  public long getSkippedObjects() {
+    return skippedObjects.sum();
+  }
+
+  // the version of the topology, incremented whenever an LSA in the database changes
+  public long getGeneration() {
+    return _store.get().generation;
+  }
+
+  // the current version of the database, it never changes
+  public Snapshot getSnapshot() {
+    return _store.get();
   }
 
 
   //initialize the link state database by adding an entry about the router itself
   private LSA initLinkStateDatabase(RouterDescription rd) {
-    LSA lsa = new LSA(rd.getSimulatedIP());
     LinkDescription ld = new LinkDescription(rd.getSimulatedIP(), -1);
-    lsa.links.add(ld);
-    return lsa;
+    return new LSA(rd.getSimulatedIP(), Integer.MIN_VALUE, Collections.singletonList(ld), Collections.emptyList(),
+      rd.getArea(), Collections.emptyList(), Collections.emptyList(), 0);
   }
 
-  // add a link description to its (router) own LSA, and increment the sequence number
-  public void addLinkDescription(String neighborIP) {
+  /**
+   * add a link description to its (router) own LSA, and increment the sequence number
+   *
+   * @return the changed LSA, which is the only one that needs to be flooded
+   */
+  public LSA addLinkDescription(String neighborIP) {
     int portNum = router.getOutgoingPort(neighborIP);
     LinkDescription ld = new LinkDescription(neighborIP, portNum);
-    LSA lsa = _store.get(router.getDescription().getSimulatedIP());
-    lsa.lsaSeqNumber.incrementAndGet();
-    lsa.links.add(ld);
+    String ownIP = router.getDescription().getSimulatedIP();
+    while (true) {
+      Snapshot current = _store.get();
+      LSA lsa = current.lsas.get(ownIP).withLink(ld);
+      if (_store.compareAndSet(current, current.with(lsa))) {
+        journal(lsa);
+        topologyChanged(ownIP);
+        return lsa;
+      }
+    }
+  }
+
+  /**
+   * advertise these prefixes in its own LSA instead of the previous ones, and increment the sequence number
+   *
+   * @return the changed LSA, which needs to be flooded
+   */
+  public LSA setPrefixes(Collection<Prefix> prefixes) {
+    String ownIP = router.getDescription().getSimulatedIP();
+    while (true) {
+      Snapshot current = _store.get();
+      LSA lsa = current.lsas.get(ownIP).withPrefixes(prefixes);
+      if (_store.compareAndSet(current, current.with(lsa))) {
+        journal(lsa);
+        topologyChanged(ownIP);
+        return lsa;
+      }
+    }
   }
 
   /**
    * remove the link description of its connected neighbor from its own LSA, and increment the sequence number
    * it also removes the link description of itself from the neighbor's LSA, and increment the sequence number
+   *
+   * @return the changed LSAs, which are the only ones that need to be flooded
    */
-  public void removeLinkDescriptions(String neighborIP) {
-    LSA lsa = _store.get(router.getDescription().getSimulatedIP());
-    lsa.lsaSeqNumber.incrementAndGet();
-    lsa.links.removeIf(ld -> ld.linkID.equals(neighborIP));
-    // update the neighbor's LSA
-    LSA neighborLSA = _store.get(neighborIP);
-    neighborLSA.lsaSeqNumber.incrementAndGet();
-    neighborLSA.links.removeIf(ld -> ld.linkID.equals(router.getDescription().getSimulatedIP()));
+  public Vector<LSA> removeLinkDescriptions(String neighborIP) {
+    String ownIP = router.getDescription().getSimulatedIP();
+    while (true) {
+      // both LSAs change in the same version of the database
+      Snapshot current = _store.get();
+      Vector<LSA> changed = new Vector<>(2);
+      LSA lsa = current.lsas.get(ownIP).withoutLink(neighborIP);
+      changed.add(lsa);
+      PersistentHashMap<String, LSA> lsas = current.lsas.put(ownIP, lsa);
+      // update the neighbor's LSA
+      LSA neighborLSA = current.lsas.get(neighborIP);
+      if (neighborLSA != null) {
+        neighborLSA = neighborLSA.withoutLink(ownIP);
+        changed.add(neighborLSA);
+        lsas = lsas.put(neighborIP, neighborLSA);
+      }
+      if (_store.compareAndSet(current, current.withLinksChanged(lsas))) {
+        for (LSA published : changed) {
+          journal(published);
+        }
+        topologyChanged(ownIP);
+        topologyChanged(neighborIP);
+        return changed;
+      }
+    }
   }
 
-  // add or update a given LSA in the database
+  // add or update a given LSA in the database, an LSA of another area is only kept if it comes from a neighbor
   public boolean updateLSA(LSA lsa) {
-    if (_store.containsKey(lsa.linkStateID) &&
-      lsa.lsaSeqNumber.get() <= _store.get(lsa.linkStateID).lsaSeqNumber.get()) {
+    String ownIP = router.getDescription().getSimulatedIP();
+    if (lsa.area != router.getDescription().getArea() && router.getAttachedNeighbor(lsa.linkStateID) == null) {
+      lsasOtherArea.increment();
       return false;
     }
-    _store.put(lsa.linkStateID, lsa);
+    if (!lsa.isMaxAge() && lsa.getAge() >= maxAgeSeconds) {
+      // it expired on the way, so it can only flush the stored instance
+      lsa = lsa.flushed();
+    }
+    while (true) {
+      Snapshot current = _store.get();
+      LSA old = current.lsas.get(lsa.linkStateID);
+      // a flushed LSA that is not in the database has nothing to remove
+      if (old == null ? lsa.isMaxAge() : !lsa.isNewerThan(old)) {
+        lsasStale.increment();
+        return false;
+      }
+      PurgedLSA purged = old == null ? purgedLSAs.get(lsa.linkStateID) : null;
+      if (purged != null && lsa.lsaSeqNumber <= purged.seqNumber && System.nanoTime() - purged.expiresAt < 0) {
+        // flush it again: the routers it came back to drop it, and its originator, if it is alive, originates it
+        // again above the purged sequence number
+        lsasStale.increment();
+        lateCopies.increment();
+        floodToNeighbors(lsa.withSeqNumber(purged.seqNumber).flushed());
+        return false;
+      }
+      if (lsa.isMaxAge() && lsa.linkStateID.equals(ownIP)) {
+        // the other routers are flushing this router's LSA, originate it again with a higher sequence number
+        LSA own = old.withSeqNumber(lsa.lsaSeqNumber + 1);
+        if (_store.compareAndSet(current, current.with(own))) {
+          journal(own);
+          lsasRefreshed.increment();
+          topologyChanged(ownIP);
+          floodToNeighbors(own);
+          return false;
+        }
+        continue;
+      }
+      if (_store.compareAndSet(current, current.with(lsa))) {
+        break;
+      }
+    }
+    journal(lsa);
+    lsasAccepted.increment();
+    topologyChanged(lsa.linkStateID);
+    if (!purgedLSAs.isEmpty()) {
+      purgedLSAs.remove(lsa.linkStateID);
+    }
 
     // update the ports array if this LSA is the router itself and there is a removed link
     // it is triggered by the processDisconnect and processQuit
-    if (lsa.linkStateID.equals(router.getDescription().getSimulatedIP())) {
+    if (lsa.linkStateID.equals(ownIP)) {
       RouterDescription[] attachedNeighbors = router.getAttachedNeighbors();
       // find the removed link
       for (RouterDescription rd : attachedNeighbors) {
@@ -132,26 +648,274 @@ public class LinkStateDatabase {
     return true; // means there is an update in the database
   }
 
+  /**
+   * add or update the received LSAs, comparing their headers with the database first: the links of an LSA that is
+   * not newer than the stored one are never decoded
+   *
+   * @return the LSAs that were newer than the ones in the database
+   */
+  public Vector<LSA> updateLSAs(EncodedLSAs lsas) throws IOException {
+    Vector<LSA> accepted = new Vector<>();
+    PersistentHashMap<String, LSA> current = _store.get().lsas;
+    for (int i = 0; i < lsas.size(); i++) {
+      LSA stored = current.get(lsas.getLinkStateID(i));
+      int seq = lsas.getSeqNumber(i);
+      boolean expired = lsas.getAge(i) >= maxAgeSeconds;
+      // same rules as updateLSA: an expired LSA only replaces the same instance if it is not flushed yet
+      boolean stale = stored == null ? expired : seq < stored.lsaSeqNumber ||
+        seq == stored.lsaSeqNumber && (!expired || stored.isMaxAge());
+      if (stale) {
+        lsasStale.increment();
+        lsasSkipped.increment();
+        skippedBytes.add(lsas.getBodySize(i));
+        // the LSA, its link list and array, and a LinkDescription and an ID string per link
+        skippedObjects.add(3 + 2L * lsas.getLinkCount(i));
+        continue;
+      }
+      LSA lsa = lsas.decode(i);
+      if (updateLSA(lsa)) {
+        accepted.add(lsa);
+      }
+      // updateLSA may have changed the database
+      current = _store.get().lsas;
+    }
+    return accepted;
+  }
+
+  /**
+   * originate the router's own LSA again with the next sequence number and flood it, like the aging sweep does once
+   * it is refreshSeconds old
+   */
+  public LSA refresh() {
+    String ownIP = router.getDescription().getSimulatedIP();
+    while (true) {
+      Snapshot current = _store.get();
+      LSA lsa = current.lsas.get(ownIP).refreshed();
+      if (_store.compareAndSet(current, current.with(lsa))) {
+        journal(lsa);
+        lsasRefreshed.increment();
+        topologyChanged(ownIP);
+        floodToNeighbors(lsa);
+        return lsa;
+      }
+    }
+  }
+
+  /**
+   * age the database in one pass: refresh the router's own LSA once it is refreshSeconds old, flush the other LSAs
+   * that reached maxAgeSeconds and purge the LSAs flushed before this sweep, which have been flooded already. All
+   * the changes are published in one snapshot and the new instances are flooded to the neighbors. The sweep reads
+   * the clock once and only allocates when something has to change.
+   */
+  public void sweep() {
+    String ownIP = router.getDescription().getSimulatedIP();
+    long now = System.nanoTime();
+    Vector<LSA> changed = new Vector<>();
+    List<String> purged = new ArrayList<>();
+    Snapshot current;
+    Snapshot next;
+    do {
+      current = _store.get();
+      changed.clear();
+      purged.clear();
+      int refreshedCount = 0;
+      PersistentHashMap<String, LSA> lsas = current.lsas;
+      for (LSA lsa : current.lsas.values()) {
+        if (lsa.isMaxAge()) {
+          lsas = lsas.remove(lsa.linkStateID);
+          purged.add(lsa.linkStateID);
+        } else if (lsa.linkStateID.equals(ownIP)) {
+          if (lsa.getAge(now) >= refreshSeconds) {
+            LSA refreshed = lsa.refreshed();
+            lsas = lsas.put(ownIP, refreshed);
+            changed.add(refreshed);
+            refreshedCount++;
+          }
+        } else if (lsa.getAge(now) >= maxAgeSeconds) {
+          LSA flushed = lsa.flushed();
+          lsas = lsas.put(lsa.linkStateID, flushed);
+          changed.add(flushed);
+        }
+      }
+      if (lsas == current.lsas) {
+        return;
+      }
+      // a refresh keeps the links, a flush or a purge removes them
+      next = changed.size() > refreshedCount || !purged.isEmpty() ? current.withLinksChanged(lsas) :
+        new Snapshot(lsas, current.generation + 1, current.links);
+    } while (!_store.compareAndSet(current, next));
+
+    if (!purgedLSAs.isEmpty()) {
+      purgedLSAs.values().removeIf(entry -> now - entry.expiresAt >= 0);
+    }
+    for (LSA lsa : changed) {
+      journal(lsa);
+      if (lsa.isMaxAge()) {
+        lsasFlushed.increment();
+      } else {
+        lsasRefreshed.increment();
+      }
+      topologyChanged(lsa.linkStateID);
+    }
+    if (!changed.isEmpty()) {
+      floodToNeighbors(changed);
+    }
+    if (!purged.isEmpty()) {
+      long expiresAt = now + TimeUnit.SECONDS.toNanos(maxAgeSeconds);
+      for (String linkStateID : purged) {
+        purgedLSAs.put(linkStateID, new PurgedLSA(current.lsas.get(linkStateID).lsaSeqNumber, expiresAt));
+        journalRemoval(linkStateID);
+        topologyChanged(linkStateID);
+        if (router.getAttachedNeighbor(linkStateID) == null) {
+          router.getRegistry().remove(linkStateID);
+        }
+      }
+      lsasPurged.add(purged.size());
+      sizeBeforePurge = current.lsas.size();
+      sizeAfterPurge = next.lsas.size();
+      Console.log("LSDB purge: removed " + purged.size() + " flushed LSAs, size " + sizeBeforePurge + " -> " +
+        sizeAfterPurge, true);
+    }
+  }
+
+  /**
+   * recompute the inter-area routes of the router's own LSA after an SPF run. A router with a neighbor in another
+   * area is an area border router: it advertises into its area the summaries exported by these neighbors, one hop
+   * further, and exports to them its own area, as its ranges or router by router, plus, in the backbone, the
+   * summaries the other border routers advertised into the backbone. Only the backbone passes on the summaries of the
+   * other areas, so they cannot loop. The LSA only changes, and is flooded, when the routes have changed.
+   */
+  private void updateSummaries(ShortestPathTree tree) {
+    String ownIP = router.getDescription().getSimulatedIP();
+    int area = router.getDescription().getArea();
+    while (true) {
+      Snapshot current = _store.get();
+      LSA own = current.lsas.get(ownIP);
+      Map<Prefix, Summary> summaries = new HashMap<>();
+      boolean border = false;
+      for (LinkDescription ld : own.links) {
+        LSA neighbor = ld.linkID.equals(ownIP) ? null : current.lsas.get(ld.linkID);
+        if (neighbor == null || neighbor.area == area) {
+          continue;
+        }
+        border = true;
+        for (Summary export : neighbor.exports) {
+          if (export.area != area && (export.area == neighbor.area || neighbor.area == LSA.BACKBONE)) {
+            addCheapest(summaries, new Summary(export.prefix, export.area, export.cost + 1));
+          }
+        }
+      }
+      Map<Prefix, Summary> exports = new HashMap<>();
+      if (border) {
+        List<Prefix> ranges = areaRanges;
+        for (Prefix range : ranges) {
+          addCheapest(exports, new Summary(range, area, 0));
+        }
+        // with ranges, only the backbone needs the LSAs of the area
+        Collection<LSA> lsas = ranges.isEmpty() || area == LSA.BACKBONE ? current.lsas.values() :
+          Collections.<LSA>emptyList();
+        for (LSA lsa : lsas) {
+          int distance = tree.getDistance(lsa.linkStateID);
+          if (lsa.area != area || lsa.isMaxAge() || distance < 0) {
+            continue;
+          }
+          if (ranges.isEmpty()) {
+            addCheapest(exports, new Summary(new Prefix(IPAddress.toInt(lsa.linkStateID), 32), area, distance));
+            for (Prefix prefix : lsa.prefixes) {
+              addCheapest(exports, new Summary(prefix, area, distance));
+            }
+          }
+          if (area == LSA.BACKBONE) {
+            for (Summary summary : lsa == own ? summaries.values() : lsa.summaries) {
+              addCheapest(exports, new Summary(summary.prefix, summary.area, distance + summary.cost));
+            }
+          }
+        }
+      }
+      List<Summary> nextSummaries = sorted(summaries.values());
+      List<Summary> nextExports = sorted(exports.values());
+      if (nextSummaries.equals(own.summaries) && nextExports.equals(own.exports)) {
+        return;
+      }
+      LSA lsa = own.withSummaries(nextSummaries, nextExports);
+      if (_store.compareAndSet(current, current.with(lsa))) {
+        // the links are the same and the router does not route with its own summaries, so no SPF run is needed
+        journal(lsa);
+        floodToNeighbors(lsa);
+        return;
+      }
+    }
+  }
+
+  private static void addCheapest(Map<Prefix, Summary> summaries, Summary summary) {
+    Summary other = summaries.get(summary.prefix);
+    if (other == null || summary.cost < other.cost) {
+      summaries.put(summary.prefix, summary);
+    }
+  }
+
+  // by address then length, so the same routes always give the same list
+  private static List<Summary> sorted(Collection<Summary> summaries) {
+    List<Summary> list = new ArrayList<>(summaries);
+    list.sort((a, b) -> a.prefix.address != b.prefix.address ?
+      Integer.compareUnsigned(a.prefix.address, b.prefix.address) : Integer.compare(a.prefix.length, b.prefix.length));
+    return list;
+  }
+
+  private void floodToNeighbors(LSA lsa) {
+    Vector<LSA> lsas = new Vector<>(1);
+    lsas.add(lsa);
+    floodToNeighbors(lsas);
+  }
+
+  private void floodToNeighbors(Vector<LSA> lsas) {
+    Set<String> flooding = getFloodingNeighbors(null);
+    for (RouterDescription neighbor : getConnectedNeighbors()) {
+      if (neighbor != null && (flooding == null || flooding.contains(neighbor.getSimulatedIP()))) {
+        router.floodLSAs(lsas, neighbor);
+      }
+    }
+  }
+
+  // record the changed router once its new LSA has been published, see getShortestPathTree
+  private void topologyChanged(String linkStateID) {
+    changedSinceSpf.add(linkStateID);
+    Throttle throttle = spfThrottle;
+    if (throttle != null) {
+      throttle.trigger();
+    }
+  }
+
   // get all the connected neighbors which their status has already been set to TWO_WAY
   public RouterDescription[] getConnectedNeighbors() {
-    LSA lsa = _store.get(router.getDescription().getSimulatedIP());
+    LSA lsa = getLSA(router.getDescription().getSimulatedIP());
     ArrayList<RouterDescription> neighbors = new ArrayList<>();
     for (LinkDescription ld : lsa.links) {
       // exclude the router itself
       if (!ld.linkID.equals(router.getDescription().getSimulatedIP())) {
-        neighbors.add(RouterDescription.getInstance(ld.linkID));
+        neighbors.add(router.getRegistry().getInstance(ld.linkID));
       }
     }
     return neighbors.toArray(new RouterDescription[0]);
   }
 
+  // @return the LSA originated by the given router, null if it is not in the database
+  public LSA getLSA(String linkStateID) {
+    return _store.get().lsas.get(linkStateID);
+  }
+
+  public int size() {
+    return _store.get().lsas.size();
+  }
+
+  // the whole database, only sent to a neighbor when the adjacency with it is first established
   public Vector<LSA> getAllLSAs() {
-    return new Vector<>(_store.values());
+    return new Vector<>(_store.get().lsas.values());
   }
 
   public String toString() {
     StringBuilder sb = new StringBuilder();
-    for (LSA lsa : _store.values()) {
+    for (LSA lsa : _store.get().lsas.values()) {
       sb.append(lsa.linkStateID).append("(" + lsa.lsaSeqNumber + ")").append(":\t");
       for (LinkDescription ld : lsa.links) {
         sb.append(ld.linkID).append(",").append(ld.portNum).append("\t");
@@ -161,4 +925,59 @@ public class LinkStateDatabase {
     return sb.toString();
   }
 
+  /**
+   * one version of the database: the LSAs and the generation of the topology they describe, incremented by every
+   * change, and the version of the links alone, which refreshes, prefixes and summaries do not change
+   */
+  public static final class Snapshot {
+    // originated router's simulated IP => LSAInstance
+    public final PersistentHashMap<String, LSA> lsas;
+    public final long generation;
+    public final long links;
+
+    Snapshot(PersistentHashMap<String, LSA> lsas, long generation, long links) {
+      this.lsas = lsas;
+      this.generation = generation;
+      this.links = links;
+    }
+
+    Snapshot with(LSA lsa) {
+      return new Snapshot(lsas.put(lsa.linkStateID, lsa), generation + 1,
+        sameLinks(lsas.get(lsa.linkStateID), lsa) ? links : links + 1);
+    }
+
+    // a new version of the LSAs whose links have changed
+    Snapshot withLinksChanged(PersistentHashMap<String, LSA> lsas) {
+      return new Snapshot(lsas, generation + 1, links + 1);
+    }
+
+    private static boolean sameLinks(LSA old, LSA lsa) {
+      if (old == null || old.area != lsa.area || old.isMaxAge() != lsa.isMaxAge()) {
+        return false;
+      }
+      if (old.links == lsa.links) {
+        return true;
+      }
+      if (old.links.size() != lsa.links.size()) {
+        return false;
+      }
+      for (int i = 0; i < old.links.size(); i++) {
+        if (!old.links.get(i).linkID.equals(lsa.links.get(i).linkID)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  // the sequence number of a purged LSA, remembered until System.nanoTime() reaches expiresAt
+  private static final class PurgedLSA {
+    final int seqNumber;
+    final long expiresAt;
+
+    PurgedLSA(int seqNumber, long expiresAt) {
+      this.seqNumber = seqNumber;
+      this.expiresAt = expiresAt;
+    }
+  }
 }
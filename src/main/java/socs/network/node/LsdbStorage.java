@@ -0,0 +1,368 @@
+package socs.network.node;
+
+import socs.network.message.BinaryPacketCodec;
+import socs.network.message.LSA;
+import socs.network.util.Console;
+import socs.network.util.IPAddress;
+import socs.network.util.PersistentHashMap;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk copy of the link state database, so a restarted router does not come back with its own LSA only.
+ * <p/>
+ * Every change published by the database is appended to a journal. The journal is periodically compacted into a
+ * snapshot written through a memory mapping: the snapshot goes to a temporary file, is forced to disk and renamed over
+ * the previous one, so a crash at any point leaves either the old or the new snapshot. The snapshot names the first
+ * journal to replay after it, and the older journals are only deleted once the new snapshot is in place. Every journal
+ * record carries its length and a CRC32, so the replay stops at a record torn by a crash.
+ * <p/>
+ * files: lsdb.snapshot and journal-n.log, with n incremented by every compaction
+ * <pre>
+ * snapshot:  magic(4) version(1) firstJournal(8) writtenAt(8) count(4) crc(4) (age(4) LSA)*
+ * journal:   (length(4) crc(4) payload)*
+ * payload:   PUT(3) writtenAt(8) age(4) LSA | REMOVE(2) linkStateID(4) | PUT_UNSIZED(1) writtenAt(8) age(4) LSA
+ * </pre>
+ * LSAs are written by BinaryPacketCodec.writeLSA; ages are in seconds at writtenAt (milliseconds since the epoch), so
+ * the time the router was down is added to them when they are read back. Snapshots of version 1 and PUT_UNSIZED
+ * records hold LSAs written before they had prefixes, which are read with BinaryPacketCodec.readUnsizedLSA.
+ */
+final class LsdbStorage {
+  private static final int MAGIC = 0x4C534442; // "LSDB"
+  private static final byte VERSION = 2;
+  private static final byte VERSION_UNSIZED = 1;
+  private static final int SNAPSHOT_HEADER = 4 + 1 + 8 + 8 + 4 + 4;
+  private static final byte PUT = 3;
+  private static final byte PUT_UNSIZED = 1;
+  private static final byte REMOVE = 2;
+  private static final String SNAPSHOT = "lsdb.snapshot";
+  private static final String JOURNAL_PREFIX = "journal-";
+  private static final String JOURNAL_SUFFIX = ".log";
+
+  private final Path dir;
+
+  // the journal being appended to, null once closed or after a write error
+  private FileChannel journal;
+  private long journalNumber = 0;
+  private long journalRecords = 0;
+  private ByteBuffer recordBuffer = ByteBuffer.allocate(256);
+  private final CRC32 journalCrc = new CRC32();
+  private final Object journalLock = new Object();
+
+  // one compaction at a time
+  private final Object compactionLock = new Object();
+  private long compactions = 0;
+  private int snapshotSize = 0;
+
+  // of the last load
+  private int loadedFromSnapshot = 0;
+  private int replayedRecords = 0;
+
+  LsdbStorage(Path dir) {
+    this.dir = dir;
+  }
+
+  /**
+   * read the snapshot, replay the journals written after it and open a new journal
+   *
+   * @return the latest instance of every LSA, aged by the time spent on disk
+   */
+  Map<String, LSA> load() throws IOException {
+    Files.createDirectories(dir);
+    // a compaction interrupted before its rename
+    Files.deleteIfExists(dir.resolve(SNAPSHOT + ".tmp"));
+    Map<String, LSA> lsas = new HashMap<>();
+    long firstJournal = readSnapshot(lsas);
+    long last = firstJournal - 1;
+    for (long number : journalNumbers()) {
+      if (number < firstJournal) {
+        // already in the snapshot, left behind by a crash during a compaction
+        Files.deleteIfExists(journalPath(number));
+        continue;
+      }
+      replay(number, lsas);
+      last = number;
+    }
+    synchronized (journalLock) {
+      journalNumber = last + 1;
+      openJournal();
+    }
+    return lsas;
+  }
+
+  private long readSnapshot(Map<String, LSA> lsas) throws IOException {
+    Path path = dir.resolve(SNAPSHOT);
+    if (!Files.exists(path)) {
+      return 0;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      byte version = buf.remaining() < SNAPSHOT_HEADER || buf.getInt() != MAGIC ? 0 : buf.get();
+      if (version != VERSION && version != VERSION_UNSIZED) {
+        throw new IOException("Not an LSDB snapshot: " + path);
+      }
+      long firstJournal = buf.getLong();
+      long writtenAt = buf.getLong();
+      int count = buf.getInt();
+      int crc = buf.getInt();
+      CRC32 check = new CRC32();
+      check.update(buf.duplicate());
+      if ((int) check.getValue() != crc) {
+        // the renamed snapshot is always complete, so this is a damaged disk: replay whatever journals are left
+        Console.log("Ignored the corrupt LSDB snapshot " + path, false);
+        return 0;
+      }
+      int elapsed = secondsSince(writtenAt);
+      for (int i = 0; i < count; i++) {
+        int age = buf.getInt();
+        put(lsas, version == VERSION ? BinaryPacketCodec.readLSA(buf) : BinaryPacketCodec.readUnsizedLSA(buf), age,
+          elapsed);
+      }
+      loadedFromSnapshot = count;
+      return firstJournal;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Truncated LSDB snapshot " + path, e);
+    }
+  }
+
+  private void replay(long number, Map<String, LSA> lsas) throws IOException {
+    byte[] bytes = Files.readAllBytes(journalPath(number));
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    CRC32 check = new CRC32();
+    while (buf.remaining() >= 8) {
+      int length = buf.getInt();
+      int crc = buf.getInt();
+      if (length <= 0 || length > buf.remaining()) {
+        break; // torn by a crash
+      }
+      check.reset();
+      check.update(bytes, buf.position(), length);
+      if ((int) check.getValue() != crc) {
+        break;
+      }
+      ByteBuffer payload = ByteBuffer.wrap(bytes, buf.position(), length);
+      buf.position(buf.position() + length);
+      try {
+        byte type = payload.get();
+        if (type == PUT || type == PUT_UNSIZED) {
+          long writtenAt = payload.getLong();
+          int age = payload.getInt();
+          put(lsas, type == PUT ? BinaryPacketCodec.readLSA(payload) : BinaryPacketCodec.readUnsizedLSA(payload), age,
+            secondsSince(writtenAt));
+        } else {
+          lsas.remove(IPAddress.toString(payload.getInt()));
+        }
+      } catch (BufferUnderflowException e) {
+        throw new IOException("Malformed LSDB journal record in " + journalPath(number), e);
+      }
+      replayedRecords++;
+    }
+  }
+
+  // the journals are appended in any order by concurrent writers, so the newer instance wins
+  private static void put(Map<String, LSA> lsas, LSA read, int age, int elapsed) {
+    LSA lsa = new LSA(read.linkStateID, read.lsaSeqNumber, read.links, read.prefixes, read.area, read.summaries,
+      read.exports, age == LSA.MAX_AGE ? LSA.MAX_AGE : (int) Math.min(LSA.MAX_AGE - 1L, (long) age + elapsed));
+    LSA old = lsas.get(lsa.linkStateID);
+    if (old == null || lsa.isNewerThan(old)) {
+      lsas.put(lsa.linkStateID, lsa);
+    }
+  }
+
+  private static int secondsSince(long epochMillis) {
+    return (int) Math.max(0, Math.min(Integer.MAX_VALUE, (System.currentTimeMillis() - epochMillis) / 1000));
+  }
+
+  // @return the number of records in the journal since the last compaction, -1 if the journal is closed
+  long appendPut(LSA lsa) {
+    return append(PUT, lsa, null);
+  }
+
+  long appendRemove(String linkStateID) {
+    return append(REMOVE, null, linkStateID);
+  }
+
+  private long append(byte type, LSA lsa, String linkStateID) {
+    synchronized (journalLock) {
+      if (journal == null) {
+        return -1;
+      }
+      int length = type == PUT ? 1 + 8 + 4 + BinaryPacketCodec.encodedSize(lsa) : 1 + 4;
+      if (recordBuffer.capacity() < 8 + length) {
+        recordBuffer = ByteBuffer.allocate(Math.max(8 + length, recordBuffer.capacity() * 2));
+      }
+      ByteBuffer buf = recordBuffer;
+      buf.clear();
+      buf.position(8);
+      buf.put(type);
+      if (type == PUT) {
+        buf.putLong(System.currentTimeMillis());
+        buf.putInt(lsa.getAge());
+        BinaryPacketCodec.writeLSA(lsa, buf);
+      } else {
+        buf.putInt(IPAddress.toInt(linkStateID));
+      }
+      journalCrc.reset();
+      journalCrc.update(buf.array(), 8, length);
+      buf.putInt(0, length);
+      buf.putInt(4, (int) journalCrc.getValue());
+      buf.flip();
+      try {
+        // a single write per record: once it returns the record is in the OS cache and survives a kill -9
+        while (buf.hasRemaining()) {
+          journal.write(buf);
+        }
+      } catch (IOException e) {
+        Console.log("Cannot write the LSDB journal, the database is no longer saved: " + e.getMessage(), true);
+        closeJournal();
+        return -1;
+      }
+      return ++journalRecords;
+    }
+  }
+
+  /**
+   * write the database to a new snapshot and delete the journals it covers
+   *
+   * @param database read after switching to a new journal, so every change of the previous journals is in it
+   */
+  void compact(Supplier<PersistentHashMap<String, LSA>> database) throws IOException {
+    synchronized (compactionLock) {
+      long firstJournal;
+      synchronized (journalLock) {
+        if (journal == null) {
+          return;
+        }
+        closeJournal();
+        journalNumber++;
+        openJournal();
+        firstJournal = journalNumber;
+      }
+      List<LSA> lsas = new ArrayList<>();
+      long size = SNAPSHOT_HEADER;
+      for (LSA lsa : database.get().values()) {
+        // a flushed LSA is about to be purged
+        if (!lsa.isMaxAge()) {
+          lsas.add(lsa);
+          size += 4 + BinaryPacketCodec.encodedSize(lsa);
+        }
+      }
+      long now = System.nanoTime();
+      Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buf.position(SNAPSHOT_HEADER);
+        for (LSA lsa : lsas) {
+          buf.putInt(lsa.getAge(now));
+          BinaryPacketCodec.writeLSA(lsa, buf);
+        }
+        ByteBuffer records = buf.duplicate();
+        records.position(SNAPSHOT_HEADER);
+        records.limit(buf.position());
+        CRC32 crc = new CRC32();
+        crc.update(records);
+        buf.position(0);
+        buf.putInt(MAGIC).put(VERSION).putLong(firstJournal).putLong(System.currentTimeMillis()).putInt(lsas.size())
+          .putInt((int) crc.getValue());
+        buf.force();
+      }
+      // the rename is atomic: a crash leaves either the previous snapshot or this one
+      Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      syncDirectory();
+      for (long number : journalNumbers()) {
+        if (number < firstJournal) {
+          Files.deleteIfExists(journalPath(number));
+        }
+      }
+      compactions++;
+      snapshotSize = lsas.size();
+    }
+  }
+
+  void close() {
+    synchronized (journalLock) {
+      closeJournal();
+    }
+  }
+
+  private void openJournal() throws IOException {
+    journal = FileChannel.open(journalPath(journalNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.APPEND);
+    journalRecords = 0;
+  }
+
+  private void closeJournal() {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.close();
+    } catch (IOException e) {
+      // nothing left to write
+    }
+    journal = null;
+  }
+
+  // make the rename durable, not supported on every platform
+  private void syncDirectory() {
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // the rename is still atomic, it may only be lost by a power failure
+    }
+  }
+
+  private Path journalPath(long number) {
+    return dir.resolve(JOURNAL_PREFIX + number + JOURNAL_SUFFIX);
+  }
+
+  // the numbers of the journals in the directory, in ascending order
+  private List<Long> journalNumbers() throws IOException {
+    List<Long> numbers = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        try {
+          numbers.add(Long.parseLong(name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length())));
+        } catch (NumberFormatException e) {
+          // not a journal
+        }
+      }
+    }
+    Collections.sort(numbers);
+    return numbers;
+  }
+
+  int getLoadedFromSnapshot() {
+    return loadedFromSnapshot;
+  }
+
+  int getReplayedRecords() {
+    return replayedRecords;
+  }
+
+  @Override
+  public String toString() {
+    synchronized (journalLock) {
+      return dir + ", snapshot LSAs: " + snapshotSize + ", journal records: " + journalRecords + ", compactions: " +
+        compactions;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package socs.network.node;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic exchanged with one neighbor, updated by the packet handlers and the senders without locking.
+ */
+public class NeighborMetrics implements NeighborMetricsMBean {
+  private final LongAdder packetsIn = new LongAdder();
+  private final LongAdder packetsOut = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+
+  void received(int size) {
+    packetsIn.increment();
+    bytesIn.add(size);
+  }
+
+  void sent(int size) {
+    packetsOut.increment();
+    bytesOut.add(size);
+  }
+
+  @Override
+  public long getPacketsIn() {
+    return packetsIn.sum();
+  }
+
+  @Override
+  public long getPacketsOut() {
+    return packetsOut.sum();
+  }
+
+  @Override
+  public long getBytesIn() {
+    return bytesIn.sum();
+  }
+
+  @Override
+  public long getBytesOut() {
+    return bytesOut.sum();
+  }
+}
@@ -0,0 +1,15 @@
+package socs.network.node;
+
+/**
+ * JMX view of the NeighborMetrics, registered as socs.network:type=Neighbor,router=[simulated IP],name=[neighbor IP]
+ */
+public interface NeighborMetricsMBean {
+
+  public long getPacketsIn();
+
+  public long getPacketsOut();
+
+  public long getBytesIn();
+
+  public long getBytesOut();
+}
@@ -1,7 +1,9 @@
 package socs.network.node;
 
+import socs.network.message.LSA;
 import socs.network.message.SOSPFPacket;
-import socs.network.sockets.SocketClient;
+
+import java.util.Vector;
 
 public interface Node {
 
@@ -11,17 +13,33 @@ public interface Node {
 
   public RouterDescription[] getAttachedNeighbors();
 
-  public void addAttachedLink(Link link);
+  // @return false if all the ports are in use
+  public boolean hasFreePort();
+
+  // @return false if all the ports are in use
+  public boolean addAttachedLink(Link link);
+
+  // the answer to an attach request of this router, the link to add if it was accepted or null
+  public void attachAnswered(String simulatedIP, Link link);
 
   public void removeAttachedLink(int portNumber);
 
+  // the neighbor's status has just become TWO_WAY, start the keepalive and dead timers of the adjacency
+  public void adjacencyUp(RouterDescription neighbor);
+
   public RouterDescription getDescription();
 
-  default void sendPacket(SOSPFPacket packet, RouterDescription dst) {
-    String hostIP = dst.getProcessIP();
-    int port = dst.getProcessPort();
-    SocketClient clientSocket = new SocketClient(hostIP, port);
-    clientSocket.send(packet);
-    clientSocket.close();
-  }
+  // the registry of the RouterDescriptions known by this router
+  public RouterRegistry getRegistry();
+
+  // decide on the attach request with the admission policy, right away or once the user has answered
+  public void requestConfirmation(RouterDescription requester);
+
+  public void sendPacket(SOSPFPacket packet, RouterDescription dst);
+
+  // deliver the DATA packet if it is addressed to this router, otherwise forward it to the next hop
+  public void forward(SOSPFPacket packet);
+
+  // queue the LSAs for the neighbor, the queued LSAs are sent together in one LSAUPDATE packet
+  public void floodLSAs(Vector<LSA> lsas, RouterDescription dst);
 }
@@ -0,0 +1,79 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the ports of a router: the link attached at every port and an index of the ports by the
+ * neighbor's simulated IP.
+ * <p/>
+ * The router publishes a new snapshot through a volatile field every time a link is added or removed, so the
+ * packet handlers look the neighbors up without any lock, in constant time, however many ports there are.
+ */
+final class PortTable {
+  private final Link[] ports;
+  // neighbor's simulated IP => port number
+  private final Map<String, Integer> index;
+  private final RouterDescription[] neighbors;
+  private final int freePort;
+
+  PortTable(int size) {
+    this(new Link[size]);
+  }
+
+  private PortTable(Link[] ports) {
+    this.ports = ports;
+    this.index = new HashMap<>();
+    ArrayList<RouterDescription> attached = new ArrayList<>();
+    int free = -1;
+    for (int i = 0; i < ports.length; i++) {
+      if (ports[i] == null) {
+        if (free < 0) {
+          free = i;
+        }
+      } else {
+        index.put(ports[i].router2.getSimulatedIP(), i);
+        attached.add(ports[i].router2);
+      }
+    }
+    this.neighbors = attached.toArray(new RouterDescription[0]);
+    this.freePort = free;
+  }
+
+  int size() {
+    return ports.length;
+  }
+
+  Link get(int port) {
+    return ports[port];
+  }
+
+  // @return the port of the link to the neighbor, -1 if there is none
+  int portOf(String simulatedIP) {
+    Integer port = index.get(simulatedIP);
+    return port == null ? -1 : port;
+  }
+
+  Link linkTo(String simulatedIP) {
+    Integer port = index.get(simulatedIP);
+    return port == null ? null : ports[port];
+  }
+
+  // the attached neighbors in port order, the array is shared by all the readers of this snapshot
+  RouterDescription[] neighbors() {
+    return neighbors;
+  }
+
+  // @return the lowest free port, -1 if all the ports are in use
+  int freePort() {
+    return freePort;
+  }
+
+  // @return a copy of this table with the link attached at the port, null to free the port
+  PortTable with(int port, Link link) {
+    Link[] copy = ports.clone();
+    copy[port] = link;
+    return new PortTable(copy);
+  }
+}
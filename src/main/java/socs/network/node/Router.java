@@ -1,138 +1,527 @@
 package socs.network.node;
 
 import socs.network.message.*;
-import socs.network.sockets.SocketClient;
-import socs.network.sockets.SocketServer;
+import socs.network.sockets.PacketTransport;
+import socs.network.sockets.TcpTransport;
 import socs.network.util.Configuration;
 import socs.network.util.Console;
+import socs.network.util.IPAddress;
+import socs.network.util.PrefixTrie;
+import socs.network.util.SerialExecutor;
+import socs.network.util.Threads;
+import socs.network.util.TimingWheel;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
- * The instance of Router class can be shared by multiple channel threads
- * Methods that access or modify the ports array must be protected by synchronization lock
+ * The instance of Router class can be shared by the I/O threads and the packet dispatcher thread
+ * Methods that modify the ports must be protected by synchronization lock, and no packet is sent while holding it;
+ * the ports are read without locking from the current PortTable snapshot
+ * <p/>
+ * A router does not keep any static state, so the simulator can run many of them in the same JVM over a
+ * LoopbackNetwork instead of TCP.
  */
 public class Router implements Node {
   private final LinkStateDatabase lsd;
 
   private final RouterDescription rd;
 
-  //assuming that all routers are with 4 ports
-  private final Link[] ports = new Link[4]; // store attached neighbors
+  // the routers known by this router, see RouterRegistry
+  private final RouterRegistry registry = new RouterRegistry();
 
-  // map message type to message handler, 0 for helloHandler, 1 for LSAUpdateHandler
-  private final MessageHandler[] handlers = new MessageHandler[2];
+  // the attached neighbors, replaced by a new snapshot under portsLock whenever a link is added or removed
+  private volatile PortTable ports;
 
-  private final PacketListener packetListener;
+  // map message type to message handler, 0 for helloHandler, 1 for LSAUpdateHandler, 2 for DataHandler
+  private final MessageHandler[] handlers = new MessageHandler[3];
+
+  // compiled from the current shortest path tree and ports by getForwardingTable
+  private volatile ForwardingTable forwardingTable;
+
+  // sends and receives the packets, over TCP or the in-memory network of the simulator
+  private final PacketTransport transport;
+
+  // runs the flooding and SPF timers, it is only shut down by the router if the router created it
+  private final ScheduledExecutorService timers;
+  private final boolean ownsTimers;
+
+  // LSAs waiting to be flooded to the neighbors
+  private final FloodQueue floodQueue;
+
+  // packet, flooding and SPF counters, printed by the stats command
+  private final RouterMetrics metrics;
+
+  // with virtual threads, the packets are sent by one virtual thread per send, in order for each neighbor;
+  // null to send them on the calling thread
+  private final ExecutorService sendExecutor;
+  private final Map<String, SerialExecutor> neighborSenders = new ConcurrentHashMap<>();
+
+  // keepalive HELLOs to the TWO_WAY neighbors and dead-neighbor detection, all the timers run on one timing wheel;
+  // null if the hello interval is 0
+  private final TimingWheel wheel;
+  private final long helloIntervalMillis;
+  private final long deadIntervalMillis;
+  // TWO_WAY neighbor's simulated IP => its liveness
+  private final Map<String, Adjacency> adjacencies = new ConcurrentHashMap<>();
 
   private final Object portsLock = new Object();
 
-  public static volatile boolean readingConfirmation = false; // indicate if it is asking for user confirm
+  // largest number of equal-cost paths printed by "detect <ip> all"
+  private static final int MAX_LISTED_PATHS = 64;
 
-  private AttachRequestStatus attachRequestStatus = AttachRequestStatus.NULL;
+  private volatile boolean readingConfirmation = false; // indicate if it is asking for user confirm
+
+  // decides on the incoming attach requests
+  private final AdmissionPolicy admission;
+  private final HelloHandler helloHandler;
+
+  // the attach requests sent by this router: target simulated IP => its answer, true if accepted
+  private final Map<String, CompletableFuture<Boolean>> pendingAttaches = new ConcurrentHashMap<>();
+  // how long an attach request waits for its answer, on both sides; 0 for ever
+  private final long attachTimeoutMillis;
 
   public Router(Configuration config) {
+    this(config, new TcpTransport(PacketCodecs.forName(config.hasPath("socs.network.codec") ?
+        config.getString("socs.network.codec") : "binary"),
+        config.getLong("socs.network.pool.idleTimeoutMillis", 60000), config.getInt("socs.network.io.threads", 2),
+        threadMode(config)),
+      null);
+  }
+
+  /**
+   * @param transport the transport of the router, it is started by the constructor
+   * @param timers    runs the flooding and SPF timers, it can be shared by many routers; null to create one
+   */
+  public Router(Configuration config, PacketTransport transport, ScheduledExecutorService timers) {
     String simulatedIP = config.getString("socs.network.router.ip");
     int processPort = config.getInt("socs.network.router.port");
-    rd = RouterDescription.getInstance("127.0.0.1", processPort, simulatedIP);
+    rd = registry.getInstance("127.0.0.1", processPort, simulatedIP);
+    rd.setArea(config.getInt("socs.network.router.area", LSA.BACKBONE));
     Console.log(rd.toString(), false);
+    this.transport = transport;
+    this.ownsTimers = timers == null;
+    this.timers = timers != null ? timers : Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "router-timers");
+      t.setDaemon(true);
+      return t;
+    });
+    admission = AdmissionPolicy.fromConfig(config);
+    attachTimeoutMillis = AdmissionPolicy.getTimeoutMillis(config);
+    ports = new PortTable(config.getInt("socs.network.router.ports", 4));
+    String threadMode = threadMode(config);
+    sendExecutor = Threads.VIRTUAL.equals(threadMode) && Threads.virtualThreadsSupported() ?
+      Executors.newCachedThreadPool(Threads.factory(threadMode, "packet-sender")) : null;
     lsd = new LinkStateDatabase(this);
-    packetListener = new PacketListener();
-    packetListener.start();
+    lsd.setMaxIncrementalChanges(config.getInt("socs.network.spf.maxIncrementalChanges", 8));
+    lsd.setMaxPaths(config.getInt("socs.network.ecmp.maxPaths", 4));
+    lsd.setSpfThrottle(this.timers, config.getLong("socs.network.spf.initialDelayMillis", 50),
+      config.getLong("socs.network.spf.holdMillis", 200), config.getLong("socs.network.spf.maxWaitMillis", 5000));
+    lsd.setReducedFlooding(config.getBoolean("socs.network.flood.reduced", false));
+    lsd.setAging(this.timers, config.getInt("socs.network.lsa.maxAgeSeconds", 3600),
+      config.getInt("socs.network.lsa.refreshSeconds", 1800), config.getLong("socs.network.lsa.sweepMillis", 1000));
+    if (config.hasPath("socs.network.router.prefixes")) {
+      lsd.setPrefixes(parsePrefixes(config.getString("socs.network.router.prefixes")));
+    }
+    if (config.hasPath("socs.network.area.ranges")) {
+      lsd.setAreaRanges(parsePrefixes(config.getString("socs.network.area.ranges")));
+    }
+    if (config.hasPath("socs.network.lsdb.dir")) {
+      // warm restart: the database of the previous run is restored before any packet is received
+      lsd.enableStorage(Paths.get(config.getString("socs.network.lsdb.dir")), this.timers,
+        config.getLong("socs.network.lsdb.compactIntervalMillis", 60000),
+        config.getInt("socs.network.lsdb.compactRecords", 10000));
+    }
+    floodQueue = new FloodQueue(this, this.timers, config.getLong("socs.network.flood.initialDelayMillis", 0),
+      config.getLong("socs.network.flood.holdMillis", 10), config.getLong("socs.network.flood.maxWaitMillis", 100),
+      transport.getCodec(), config.getInt("socs.network.flood.maxFrameBytes", 1400));
+    helloIntervalMillis = config.getLong("socs.network.hello.intervalMillis", 200);
+    deadIntervalMillis = config.getLong("socs.network.hello.deadIntervalMillis", 800);
+    wheel = helloIntervalMillis > 0 ? new TimingWheel(config.getLong("socs.network.hello.tickMillis", 10), 512,
+      this.timers, "hello-timers") : null;
+    metrics = new RouterMetrics(simulatedIP, lsd, floodQueue);
+    if (config.getBoolean("socs.network.jmx.enabled", true)) {
+      metrics.registerMBeans();
+    }
+    // register hello message handler
+    helloHandler = new HelloHandler(this, lsd);
+    handlers[0] = helloHandler;
+    // register LSAUpdate message handler
+    handlers[1] = new LSAUpdateHandler(this, lsd);
+    handlers[2] = new DataHandler(this, lsd);
+    try {
+      transport.start(rd, this::dispatchPacket);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot listen on port " + processPort, e);
+    }
+  }
+
+  // "10.1.0.0/16, 10.2.0.0/24"
+  static List<Prefix> parsePrefixes(String prefixes) {
+    List<Prefix> result = new ArrayList<>();
+    for (String prefix : prefixes.split(",")) {
+      if (!prefix.trim().isEmpty()) {
+        result.add(Prefix.parse(prefix));
+      }
+    }
+    return result;
+  }
+
+  private static String threadMode(Configuration config) {
+    return config.hasPath("socs.network.threads") ? config.getString("socs.network.threads") : Threads.PLATFORM;
+  }
+
+  // call the corresponding handler callback
+  private void dispatchPacket(SOSPFPacket packet, int size) {
+    metrics.packetReceived(packet, size);
+    // any packet from a TWO_WAY neighbor shows that it is alive, the sender of a DATA packet is its routerID
+    Adjacency adjacency = adjacencies.get(packet.routerID != null ? packet.routerID : packet.srcIP);
+    if (adjacency != null) {
+      adjacency.heard();
+    }
+    if (packet.sospfType < 0 || packet.sospfType >= handlers.length) {
+      Console.log("Dropped packet of unknown type " + packet.sospfType + " from " + packet.srcIP, true);
+      return;
+    }
+    long start = System.nanoTime();
+    handlers[packet.sospfType].handleMessage(packet);
+    metrics.packetHandled(packet.sospfType, System.nanoTime() - start);
   }
 
   @Override
   public int getOutgoingPort(String simulatedIP) {
-    synchronized (portsLock) {
-      for (int i = 0; i < ports.length; i++) {
-        if (ports[i] != null && ports[i].router2.getSimulatedIP().equals(simulatedIP)) {
-          return i;
+    return ports.portOf(simulatedIP);
+  }
+
+  @Override
+  public RouterDescription getAttachedNeighbor(String simulatedIP) {
+    Link link = ports.linkTo(simulatedIP);
+    return link == null ? null : link.router2;
+  }
+
+  @Override
+  public RouterDescription[] getAttachedNeighbors() {
+    return ports.neighbors().clone();
+  }
+
+  @Override
+  public boolean hasFreePort() {
+    return ports.freePort() >= 0;
+  }
+
+  /**
+   * @return the ports of the equal-cost next hops towards the destination, empty if it is unreachable
+   */
+  public int[] getOutgoingPorts(String destinationIP) {
+    List<String> nextHops = lsd.getShortestPathTree().getNextHops(destinationIP);
+    int[] result = new int[nextHops.size()];
+    int count = 0;
+    for (String nextHop : nextHops) {
+      int port = getOutgoingPort(nextHop);
+      // the tree may still list a neighbor that has just been detached
+      if (port >= 0) {
+        result[count++] = port;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * @param flowHash see ShortestPathTree.flowHash, the packets of a flow always leave through the same port
+   * @return the port of the equal-cost next hop chosen for the flow, -1 if the destination is unreachable
+   */
+  public int selectOutgoingPort(String destinationIP, int flowHash) {
+    String nextHop = lsd.getShortestPathTree().selectNextHop(destinationIP, flowHash);
+    return nextHop == null ? -1 : getOutgoingPort(nextHop);
+  }
+
+  /**
+   * @return the forwarding table of the last computed shortest path tree and the current ports, compiled again if
+   * either has changed
+   */
+  public ForwardingTable getForwardingTable() {
+    ShortestPathTree tree = lsd.getComputedShortestPathTree();
+    PortTable portTable = ports;
+    ForwardingTable table = forwardingTable;
+    if (table == null || table.tree != tree || table.portTable != portTable) {
+      table = ForwardingTable.compile(tree, lsd.getSnapshot().lsas, portTable, rd.getSimulatedIP(), rd.getArea());
+      forwardingTable = table;
+    }
+    return table;
+  }
+
+  @Override
+  public void forward(SOSPFPacket packet) {
+    ForwardingTable table = getForwardingTable();
+    int route = IPAddress.isIPv4(packet.dstIP) ? table.lookup(IPAddress.toInt(packet.dstIP)) : PrefixTrie.NO_ROUTE;
+    if (route != PrefixTrie.NO_ROUTE && table.isLocal(route)) {
+      metrics.dataDelivered();
+      Console.log("Received DATA packet from " + packet.srcIP + " for " + packet.dstIP + " (TTL " + packet.ttl + ")",
+        true);
+      return;
+    }
+    Link link = route == PrefixTrie.NO_ROUTE ? null :
+      linkAt(table.selectPort(route, ShortestPathTree.flowHash(packet.srcIP, packet.dstIP)));
+    if (link == null) {
+      metrics.dataNoRoute();
+      Console.log("No route to " + packet.dstIP + ", dropped the DATA packet from " + packet.srcIP, true);
+      return;
+    }
+    if (packet.ttl <= 1) {
+      metrics.dataTtlExpired();
+      Console.log("TTL expired, dropped the DATA packet from " + packet.srcIP + " to " + packet.dstIP, true);
+      return;
+    }
+    // the received packet is not used after it has been handled, so it is sent on as it is
+    packet.ttl--;
+    packet.routerID = rd.getSimulatedIP();
+    metrics.dataForwarded();
+    sendPacket(packet, link.router2);
+  }
+
+  // @return null if the port is -1 or free
+  private Link linkAt(int port) {
+    return port < 0 ? null : ports.get(port);
+  }
+
+  @Override
+  public RouterDescription getDescription() {
+    return rd;
+  }
+
+  @Override
+  public RouterRegistry getRegistry() {
+    return registry;
+  }
+
+  public LinkStateDatabase getLinkStateDatabase() {
+    return lsd;
+  }
+
+  public RouterMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public void sendPacket(SOSPFPacket packet, RouterDescription dst) {
+    if (sendExecutor == null) {
+      send(packet, dst);
+      return;
+    }
+    SerialExecutor sender = neighborSenders.get(dst.getSimulatedIP());
+    if (sender == null) {
+      SerialExecutor created = new SerialExecutor(sendExecutor);
+      sender = neighborSenders.putIfAbsent(dst.getSimulatedIP(), created);
+      if (sender == null) {
+        sender = created;
+      }
+    }
+    sender.execute(() -> send(packet, dst));
+  }
+
+  private void send(SOSPFPacket packet, RouterDescription dst) {
+    int size = transport.send(dst, packet);
+    if (size >= 0) {
+      metrics.packetSent(packet, dst, size);
+    }
+  }
+
+  // wait for the packets queued by sendPacket to be sent, then stop the sending threads
+  private void stopSending() {
+    if (sendExecutor == null) {
+      return;
+    }
+    sendExecutor.shutdown();
+    try {
+      sendExecutor.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void requestConfirmation(RouterDescription requester) {
+    switch (admission.decide(requester)) {
+      case ACCEPT:
+        helloHandler.acceptAttach(requester);
+        break;
+      case REJECT:
+        helloHandler.rejectAttach(requester, "Rejected the attach request from " + requester.getSimulatedIP() +
+          " (" + admission + ")");
+        break;
+      default:
+        // the user answers the requests one at a time, see terminal
+        if (attachTimeoutMillis > 0) {
+          timers.schedule(this::expireAttachRequests, attachTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        if (admission.next() == requester && !readingConfirmation) {
+          askConfirmation(requester);
         }
+    }
+  }
+
+  // reject the requests the user has not answered in time, and ask for the next one if the asked one has expired
+  private void expireAttachRequests() {
+    RouterDescription asked = admission.next();
+    List<RouterDescription> expired = admission.expire();
+    for (RouterDescription requester : expired) {
+      helloHandler.rejectAttach(requester, "The attach request from " + requester.getSimulatedIP() + " has timed out.");
+    }
+    if (readingConfirmation && expired.contains(asked)) {
+      RouterDescription next = admission.next();
+      readingConfirmation = false;
+      if (next != null) {
+        askConfirmation(next);
       }
-      return -1;
     }
   }
 
+  private void askConfirmation(RouterDescription requester) {
+    Console.logOneLine("Do you accept the request from " + requester.getSimulatedIP() + "?(Y/N): ");
+    readingConfirmation = true;
+  }
+
   @Override
-  public RouterDescription getAttachedNeighbor(String simulatedIP) {
-    synchronized (portsLock) {
-      for (Link link : ports) {
-        if (link != null && link.router2.getSimulatedIP().equals(simulatedIP)) {
-          return link.router2;
+  public void floodLSAs(Vector<LSA> lsas, RouterDescription dst) {
+    // the LSAs stay in their area, except the router's own LSA, which carries what it exports to the other areas
+    Vector<LSA> scoped = lsas;
+    for (int i = 0; i < lsas.size(); i++) {
+      LSA lsa = lsas.get(i);
+      if (lsa.area != dst.getArea() && !lsa.linkStateID.equals(rd.getSimulatedIP())) {
+        if (scoped == lsas) {
+          scoped = new Vector<>(lsas.subList(0, i));
         }
+      } else if (scoped != lsas) {
+        scoped.add(lsa);
       }
-      return null;
+    }
+    if (!scoped.isEmpty()) {
+      floodQueue.enqueue(dst, scoped);
     }
   }
 
   @Override
-  public RouterDescription[] getAttachedNeighbors() {
+  public boolean addAttachedLink(Link link) {
     synchronized (portsLock) {
-      ArrayList<RouterDescription> neighbors = new ArrayList<>();
-      for (int i = 0; i < ports.length; i++) {
-        if (ports[i] != null) {
-          neighbors.add(ports[i].router2);
-        }
+      int port = ports.freePort();
+      if (port < 0) {
+        return false;
       }
-      return neighbors.toArray(new RouterDescription[0]);
+      ports = ports.with(port, link);
+      return true;
     }
   }
 
   @Override
-  public RouterDescription getDescription() {
-    return rd;
+  public void attachAnswered(String simulatedIP, Link link) {
+    CompletableFuture<Boolean> answer = pendingAttaches.remove(simulatedIP);
+    if (answer == null) {
+      // nothing was asked, or the request has been replaced by a newer one
+      return;
+    }
+    boolean added = link != null && addAttachedLink(link);
+    if (link != null && !added) {
+      Console.log("All the ports are in use, the link to " + simulatedIP + " is not added", true);
+    }
+    answer.complete(added);
   }
 
   @Override
-  public void addAttachedLink(Link link) {
-    synchronized (portsLock) {
-      if (link == null) {
-        // the attach request has been rejected
-        attachRequestStatus = AttachRequestStatus.REJECTED;
-        portsLock.notify();
+  public void adjacencyUp(RouterDescription neighbor) {
+    if (wheel == null) {
+      return;
+    }
+    Adjacency adjacency = new Adjacency(neighbor);
+    Adjacency old = adjacencies.put(neighbor.getSimulatedIP(), adjacency);
+    if (old != null) {
+      old.close();
+    }
+    scheduleKeepalive(adjacency);
+    scheduleDeadCheck(adjacency, deadIntervalMillis);
+  }
+
+  private void scheduleKeepalive(Adjacency adjacency) {
+    adjacency.setHelloTimer(wheel.schedule(() -> {
+      if (adjacency.isClosed()) {
         return;
       }
-      // request has been accepted
-      attachRequestStatus = AttachRequestStatus.ACCEPTED;
-      for (int i = 0; i < ports.length; i++) {
-        if (ports[i] == null) {
-          ports[i] = link;
-          break;
-        }
+      sendPacket(PacketFactory.createKeepalivePacket(rd, adjacency.neighbor), adjacency.neighbor);
+      scheduleKeepalive(adjacency);
+    }, helloIntervalMillis));
+  }
+
+  // the dead timer only fires once per dead interval however many packets the neighbor sends
+  private void scheduleDeadCheck(Adjacency adjacency, long delayMillis) {
+    adjacency.setDeadTimer(wheel.schedule(() -> {
+      if (adjacency.isClosed()) {
+        return;
       }
-      portsLock.notify();
-    }
+      long silence = adjacency.millisSinceHeard();
+      if (silence < deadIntervalMillis) {
+        scheduleDeadCheck(adjacency, deadIntervalMillis - silence);
+        return;
+      }
+      int port = getOutgoingPort(adjacency.neighbor.getSimulatedIP());
+      if (port >= 0) {
+        Console.log("No packet from " + adjacency.neighbor.getSimulatedIP() + " for " + silence +
+          " ms, the neighbor is dead", true);
+        // the same LSDB update and flood as a disconnect command
+        processDisconnect(port);
+      }
+    }, delayMillis));
   }
 
   // remove the attached link and also reset all the related status of this router
   @Override
   public void removeAttachedLink(int portNumber) {
+    RouterDescription neighbor;
     synchronized (portsLock) {
-      if (ports[portNumber] == null) {
+      if (portNumber < 0 || portNumber >= ports.size() || ports.get(portNumber) == null) {
         return;
       }
+      neighbor = ports.get(portNumber).router2;
       // reset the neighbor's status, this is necessary because the lifetime of this RouterDescription instance
       // is the same as the router's lifetime, and this connection might be re-established in the future
-      ports[portNumber].router2.setStatus(RouterStatus.NULL);
-      // reset the attach request status
-      attachRequestStatus = AttachRequestStatus.NULL;
-      ports[portNumber] = null;
+      neighbor.setStatus(RouterStatus.NULL);
+      ports = ports.with(portNumber, null);
     }
+    Adjacency adjacency = adjacencies.remove(neighbor.getSimulatedIP());
+    if (adjacency != null) {
+      adjacency.close();
+    }
+    // the pooled connection is no longer needed once the link is gone
+    transport.close(neighbor);
   }
 
-  // broadcast the packet according to type to all the attached neighbors
-  private void broadcastPacket(short type) {
-    synchronized (portsLock) {
-      for (Link link : ports) {
-        if (link != null) {
-          SOSPFPacket pkt = type == 0 ?
-            PacketFactory.createHelloPacket(rd, link.router2, link.router2.getSimulatedIP())
-            : PacketFactory.createLSAUpdatePacket(rd, link.router2, lsd.getAllLSAs());
-          sendPacket(pkt, link.router2);
-        }
+  /**
+   * broadcast the packet according to type to all the attached neighbors
+   *
+   * @param lsas the changed LSAs carried by an LSAUPDATE packet, ignored for HELLO packets; they are queued in the
+   *             flood queue instead of being sent right away
+   */
+  private void broadcastPacket(short type, Vector<LSA> lsas) {
+    // the neighbors are copied under the lock and the packets are sent after releasing it
+    for (RouterDescription neighbor : getAttachedNeighbors()) {
+      if (type == PacketFactory.HELLO) {
+        sendPacket(PacketFactory.createHelloPacket(rd, neighbor, neighbor.getSimulatedIP()), neighbor);
+      } else {
+        floodLSAs(lsas, neighbor);
       }
     }
   }
@@ -152,9 +541,70 @@ public class Router implements Node {
     }
 
     String path = lsd.getShortestPath(destinationIP);
+    if (lsd.getShortestPathTree().getDistance(destinationIP) < 0 && IPAddress.isIPv4(destinationIP)) {
+      // a router of another area: the path leads to the border router advertising its summary
+      ForwardingTable table = getForwardingTable();
+      int route = table.lookup(IPAddress.toInt(destinationIP));
+      if (route != PrefixTrie.NO_ROUTE && !table.isLocal(route)) {
+        path = lsd.getShortestPath(table.getRouter(route)) + " -> ... -> " + destinationIP + " (inter-area)";
+      }
+    }
     Console.log(path, false);
   }
 
+  /**
+   * output all the equal-cost shortest paths to the given destination ip, and the next hops used to forward to it
+   * with their port
+   */
+  private void processDetectAll(String destinationIP) {
+    if (destinationIP.equals(this.rd.getSimulatedIP())) {
+      Console.log("The destination IP matches the router's own IP.", false);
+      return;
+    }
+    Console.log(lsd.getAllShortestPaths(destinationIP, MAX_LISTED_PATHS), false);
+    List<String> hops = new ArrayList<>();
+    for (String nextHop : lsd.getShortestPathTree().getNextHops(destinationIP)) {
+      hops.add(nextHop + " (port " + getOutgoingPort(nextHop) + ")");
+    }
+    Console.log("Next hops: " + String.join(", ", hops), false);
+  }
+
+  /**
+   * output the routing table: every router of the area reachable from this router, with the next hop, its port and
+   * the cost, all taken from one shortest path tree and written line by line
+   */
+  private void processRoutes() {
+    ShortestPathTree tree = lsd.getShortestPathTree();
+    Console.logLines(out -> {
+      out.println("Destination\tNext hop\tPort\tCost");
+      int[] count = new int[1];
+      tree.forEachRoute((destination, nextHop, cost) -> {
+        out.println(destination + "\t" + nextHop + "\t" + getOutgoingPort(nextHop) + "\t" + cost);
+        count[0]++;
+      });
+      out.println(count[0] + " routes");
+    });
+  }
+
+  /**
+   * originate DATA packets to the given address, they are forwarded hop by hop to the router advertising it
+   *
+   * @param count the number of packets
+   */
+  private void processSend(String destinationIP, int count) {
+    if (!IPAddress.isIPv4(destinationIP)) {
+      Console.log("Not an IPv4 address: " + destinationIP, false);
+      return;
+    }
+    ForwardingTable table = getForwardingTable();
+    int route = table.lookup(IPAddress.toInt(destinationIP));
+    Console.log(route == PrefixTrie.NO_ROUTE ? "No route to " + destinationIP :
+      "Sending " + count + " DATA packets to " + destinationIP + " via " + table.getRouter(route), false);
+    for (int i = 0; i < count; i++) {
+      forward(PacketFactory.createDataPacket(rd, destinationIP, PacketFactory.DEFAULT_TTL, new byte[0]));
+    }
+  }
+
   /**
    * disconnect with the router identified by the given destination ip address
    * Notice: this command should trigger the synchronization of database
@@ -162,23 +612,25 @@ public class Router implements Node {
    * @param portNumber the port number which the link attaches at
    */
   private void processDisconnect(int portNumber) {
+    String neighborIP;
     synchronized (portsLock) {
-      if (portNumber < 0 || portNumber >= ports.length) {
+      if (portNumber < 0 || portNumber >= ports.size()) {
         Console.log("Invalid neighbor", false);
         return;
       }
-      if (ports[portNumber] == null) {
+      if (ports.get(portNumber) == null) {
         Console.log("No link exists at port " + portNumber, false);
         return;
       }
-      // remove its neighbor's link description from its own LSA and remove its own link description from the
-      // neighbor's LSA
-      lsd.removeLinkDescriptions(ports[portNumber].router2.getSimulatedIP());
-      // send the LSAUpdate packet to all neighbors to synchronize the changes
-      broadcastPacket(PacketFactory.LSAUPDATE);
-      // remove the attached link from the ports array
-      removeAttachedLink(portNumber);
+      neighborIP = ports.get(portNumber).router2.getSimulatedIP();
     }
+    // remove its neighbor's link description from its own LSA and remove its own link description from the
+    // neighbor's LSA, after releasing the lock since the changes are written to the journal
+    Vector<LSA> changed = lsd.removeLinkDescriptions(neighborIP);
+    // send the changed LSAs to all neighbors to synchronize the changes
+    broadcastPacket(PacketFactory.LSAUPDATE, changed);
+    // remove the attached link from the ports
+    removeAttachedLink(portNumber);
   }
 
   /**
@@ -186,51 +638,53 @@ public class Router implements Node {
    * to establish the connection via socket, you need to indentify the process IP and process Port;
    * <p/>
    * NOTE: this command should not trigger link database synchronization
+   *
+   * @return completed with true once the remote router has accepted the request and the link is added
    */
-  private void processAttach(String processIP, short processPort,
-                             String simulatedIP) {
+  private CompletableFuture<Boolean> processAttach(String processIP, int processPort,
+                                                   String simulatedIP) {
     synchronized (portsLock) {
-      boolean linkExist =
-        Arrays.stream(ports).anyMatch(link -> link != null && link.router2.getSimulatedIP().equals(simulatedIP));
-      if (simulatedIP.equals(rd.getSimulatedIP()) || linkExist) {
+      if (simulatedIP.equals(rd.getSimulatedIP()) || ports.portOf(simulatedIP) >= 0) {
         Console.log("link already exists", false);
-        attachRequestStatus = AttachRequestStatus.REJECTED;
-        portsLock.notify();
-        return;
+        return CompletableFuture.completedFuture(false);
       }
+      if (ports.freePort() < 0) {
+        Console.log("All the ports are in use", false);
+        return CompletableFuture.completedFuture(false);
+      }
+    }
+    CompletableFuture<Boolean> answer = new CompletableFuture<>();
+    CompletableFuture<Boolean> previous = pendingAttaches.put(simulatedIP, answer);
+    if (previous != null) {
+      previous.complete(false);
+    }
+    if (attachTimeoutMillis > 0) {
+      // a router that never answers does not keep the request forever
+      ScheduledFuture<?> timeout = timers.schedule(() -> {
+        if (pendingAttaches.remove(simulatedIP, answer)) {
+          Console.log("The attach request to " + simulatedIP + " has timed out.", true);
+          answer.complete(false);
+        }
+      }, attachTimeoutMillis, TimeUnit.MILLISECONDS);
+      answer.whenComplete((accepted, e) -> timeout.cancel(false));
     }
 
     // send the HELLO packet to the remote router
-    RouterDescription attachedRouter = RouterDescription.getInstance(processIP, processPort, simulatedIP);
+    RouterDescription attachedRouter = registry.getInstance(processIP, processPort, simulatedIP);
     SOSPFPacket helloPacket = PacketFactory.createHelloPacket(rd, attachedRouter, simulatedIP);
     sendPacket(helloPacket, attachedRouter);
+    return answer;
   }
 
   /**
    * broadcast Hello to all attached neighbors
    */
   private void processStart() {
-    synchronized (portsLock) {
-      if (attachRequestStatus != AttachRequestStatus.ACCEPTED) {
-        Console.log("You cannot start the router before a successful attachment!", false);
-        return;
-      }
-      broadcastPacket(PacketFactory.HELLO);
-    }
-  }
-
-  private void startSynchronously() throws InterruptedException {
-    synchronized (portsLock) {
-      while (attachRequestStatus == AttachRequestStatus.NULL) {
-        // wait for the user to response the attach request
-        portsLock.wait();
-      }
-      if (attachRequestStatus == AttachRequestStatus.REJECTED) {
-        Console.log("You cannot start the router before a successful attachment!", false);
-        return;
-      }
-      broadcastPacket(PacketFactory.HELLO);
+    if (getAttachedNeighbors().length == 0) {
+      Console.log("You cannot start the router before a successful attachment!", false);
+      return;
     }
+    broadcastPacket(PacketFactory.HELLO, null);
   }
 
   /**
@@ -239,18 +693,47 @@ public class Router implements Node {
    * <p/>
    * This command does trigger the link database synchronization
    */
-  private void processConnect(String processIP, short processPort,
+  private void processConnect(String processIP, int processPort,
                               String simulatedIP) {
-    attachRequestStatus = AttachRequestStatus.NULL;
-    this.processAttach(processIP, processPort, simulatedIP);
+    // the terminal does not wait for the answer, so many links can be connected at once
+    connectAsync(processIP, processPort, simulatedIP);
+  }
+
+  /**
+   * attach and start the link to the remote router, blocking until the remote router has answered the attach
+   * request; it must not be called by the thread that handles the packets of this router
+   *
+   * @return true if the attach request has been accepted
+   */
+  public boolean connect(String processIP, int processPort, String simulatedIP) {
     try {
-      // processStart will wait for the user to accept the request
-      this.startSynchronously();
+      return connectAsync(processIP, processPort, simulatedIP).get();
     } catch (InterruptedException e) {
-      e.printStackTrace();
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      return false;
     }
   }
 
+  /**
+   * attach the link to the remote router and start it once the remote router has accepted the request, without
+   * waiting for the answer: the HELLO that starts the link is sent by the thread that handles the answer
+   *
+   * @return completed with true once the request has been accepted and the link started
+   */
+  public CompletableFuture<Boolean> connectAsync(String processIP, int processPort, String simulatedIP) {
+    return processAttach(processIP, processPort, simulatedIP).thenApply(accepted -> {
+      RouterDescription neighbor = accepted ? getAttachedNeighbor(simulatedIP) : null;
+      if (neighbor == null) {
+        Console.log("You cannot start the link to " + simulatedIP + " before a successful attachment!", true);
+        return false;
+      }
+      sendPacket(PacketFactory.createHelloPacket(rd, neighbor, neighbor.getSimulatedIP()), neighbor);
+      return true;
+    });
+  }
+
   /**
    * output the neighbors of the routers
    */
@@ -262,33 +745,74 @@ public class Router implements Node {
     }
   }
 
+  /**
+   * output the packet, LSA, flooding and SPF counters of the router
+   */
+  private void processStats() {
+    Console.log("\n" + metrics.report() + "  Forwarding table: " + getForwardingTable() +
+      "\n  Transport: " + transport + "\n  Attach requests: " + admission +
+      (wheel == null ? "" : "\n  Keepalive: " + adjacencies.size() + " adjacencies, " + wheel), false);
+  }
+
   /**
    * disconnect with all neighbors and quit the program
    */
   private void processQuit() {
-    // terminate the packet listener and all channel threads
-    packetListener.terminate();
+    // stop handling the incoming packets
+    transport.stopReceiving();
 
     // remove the link descriptions from LSD for all connected neighbors
-    synchronized (portsLock) {
-      for (Link link : ports) {
-        if (link != null) {
-          lsd.removeLinkDescriptions(link.router2.getSimulatedIP());
-        }
+    // originated router's simulated IP => changed LSA, the router's own LSA is changed once per neighbor
+    Map<String, LSA> changed = new LinkedHashMap<>();
+    // the changes are written to the journal, so they are made after releasing the lock
+    for (RouterDescription neighbor : getAttachedNeighbors()) {
+      for (LSA lsa : lsd.removeLinkDescriptions(neighbor.getSimulatedIP())) {
+        changed.put(lsa.linkStateID, lsa);
       }
     }
     // send the LSAUpdate packet to all neighbors after the lsd has updated all the link changes
-    broadcastPacket(PacketFactory.LSAUPDATE);
+    broadcastPacket(PacketFactory.LSAUPDATE, new Vector<>(changed.values()));
+    // the router exits right away, so do not wait for the flooding timer
+    if (wheel != null) {
+      wheel.stop();
+    }
+    lsd.stopAging();
+    lsd.closeStorage();
+    if (ownsTimers) {
+      timers.shutdownNow();
+    }
+    floodQueue.flush();
+    stopSending();
+    Console.log("Flooding: " + floodQueue + "\nSPF: " + lsd.getSpfThrottle(), false);
 
     // remove all the attached links
-    for (int i = 0; i < ports.length; i++) {
+    for (int i = 0; i < ports.size(); i++) {
       removeAttachedLink(i);
     }
+    transport.shutdown();
+    metrics.unregisterMBeans();
     Console.log("Successfully shut down the router.", false);
     System.exit(0);
   }
 
 
+  // release the transport and the timers without notifying the neighbors, used by the simulator
+  public void close() {
+    if (sendExecutor != null) {
+      sendExecutor.shutdownNow();
+    }
+    if (wheel != null) {
+      wheel.stop();
+    }
+    lsd.stopAging();
+    lsd.closeStorage();
+    transport.shutdown();
+    metrics.unregisterMBeans();
+    if (ownsTimers) {
+      timers.shutdownNow();
+    }
+  }
+
   public void terminal() {
     try {
       InputStreamReader isReader = new InputStreamReader(System.in);
@@ -298,15 +822,28 @@ public class Router implements Node {
       while (true) {
         if (readingConfirmation) {
           // reading user confirmation on attach request
-          if (command.equals("Y") || command.equals("y")) {
-            handlers[0].handleAccept();
-          } else if (command.equals("N") || command.equals("n")) {
-            handlers[0].handleReject("You have rejected the attach request.");
+          RouterDescription requester = admission.next();
+          boolean accept = command.equals("Y") || command.equals("y");
+          if (requester != null && (accept || command.equals("N") || command.equals("n"))) {
+            if (accept) {
+              helloHandler.acceptAttach(requester);
+            } else {
+              helloHandler.rejectAttach(requester,
+                "You have rejected the request from " + requester.getSimulatedIP() + ".");
+            }
+            requester = admission.answered(requester, accept);
           }
           readingConfirmation = false;
+          if (requester != null) {
+            askConfirmation(requester);
+          }
         } else if (command.startsWith("detect ")) {
           String[] cmdLine = command.split(" ");
-          processDetect(cmdLine[1]);
+          if (cmdLine.length > 2 && cmdLine[2].equals("all")) {
+            processDetectAll(cmdLine[1]);
+          } else {
+            processDetect(cmdLine[1]);
+          }
         } else if (command.startsWith("disconnect ")) {
           String[] cmdLine = command.split(" ");
           int portNumber = getOutgoingPort(cmdLine[1]);
@@ -327,6 +864,13 @@ public class Router implements Node {
           String[] cmdLine = command.split(" ");
           processConnect(cmdLine[1], Short.parseShort(cmdLine[2]),
             cmdLine[3]);
+        } else if (command.startsWith("send ")) {
+          String[] cmdLine = command.split(" ");
+          processSend(cmdLine[1], cmdLine.length > 2 ? Integer.parseInt(cmdLine[2]) : 1);
+        } else if (command.equals("routes")) {
+          processRoutes();
+        } else if (command.equals("stats")) {
+          processStats();
         } else if (command.equals("neighbors")) {
           //output neighbors
           processNeighbors();
@@ -341,47 +885,4 @@ public class Router implements Node {
       e.printStackTrace();
     }
   }
-
-  private class PacketListener extends Thread {
-
-    private final ArrayList<Thread> ChannelThreads = new ArrayList<>();
-    private final SocketServer serverSocket = new SocketServer(rd.getProcessPort());
-
-    @Override
-    public void run() {
-      while (!this.isInterrupted()) {
-        SocketClient clientSocket = serverSocket.accept();
-        // create a new thread to handle the incoming message
-        Thread channel = new Thread(() -> {
-          while (!Thread.currentThread().isInterrupted()) {
-            if (clientSocket == null) return;
-            SOSPFPacket packet = clientSocket.receive();
-            if (packet != null) {
-              // call the corresponding handler callback
-              handlers[packet.sospfType].handleMessage(packet);
-            }
-          }
-        });
-        ChannelThreads.add(channel);
-        channel.start();
-      }
-    }
-
-    @Override
-    public void start() {
-      // register hello message handler
-      handlers[0] = new HelloHandler(Router.this, lsd);
-      // register LSAUpdate message handler
-      handlers[1] = new LSAUpdateHandler(Router.this, lsd);
-      super.start();
-    }
-
-    public void terminate() {
-      serverSocket.close();
-      this.interrupt();
-      for (Thread channel : ChannelThreads) {
-        channel.interrupt();
-      }
-    }
-  }
 }
@@ -1,19 +1,14 @@
 package socs.network.node;
 
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Encapsulates the information of a router.
- * Each RouterDescription object is uniquely identified by simulatedIPAddress.
- * It applies the Flyweight pattern to map the simulatedIPAddress to a unique RouterDescription object.
+ * Each RouterDescription object is uniquely identified by simulatedIPAddress within the RouterRegistry of the router
+ * that knows about it.
  */
 
 public class RouterDescription {
-  // Map to store unique instances of RouterDescription
-  private static final Map<String, RouterDescription> instances = new ConcurrentHashMap<>();
-
   //used to socket communication
   private final String processIPAddress;
   private final int processPortNumber;
@@ -21,29 +16,15 @@ public class RouterDescription {
   private final String simulatedIPAddress;
   //status of the router
   private RouterStatus status = RouterStatus.NULL; // default status is null
+  // the area of the router, a neighbor announces it in its HELLOs
+  private volatile int area = 0;
 
-  private RouterDescription(String processIPAddress, int processPortNumber, String simulatedIPAddress) {
+  RouterDescription(String processIPAddress, int processPortNumber, String simulatedIPAddress) {
     this.processIPAddress = processIPAddress;
     this.processPortNumber = processPortNumber;
     this.simulatedIPAddress = simulatedIPAddress;
   }
 
-  // factory method to create the router description with null status by default
-  public static RouterDescription getInstance(String processIPAddress, int processPortNumber,
-                                              String simulatedIPAddress) {
-    return instances.computeIfAbsent(simulatedIPAddress, k -> new RouterDescription(processIPAddress,
-      processPortNumber, simulatedIPAddress));
-  }
-
-  // map the simulated IP address to the corresponding unique RouterDescription object
-  public static RouterDescription getInstance(String simulatedIPAddress) {
-    if (instances.containsKey(simulatedIPAddress)) {
-      return instances.get(simulatedIPAddress);
-    }
-    return null;
-  }
-
-
   public String getProcessIP() {
     return processIPAddress;
   }
@@ -56,6 +37,14 @@ public class RouterDescription {
     return simulatedIPAddress;
   }
 
+  public int getArea() {
+    return area;
+  }
+
+  public void setArea(int area) {
+    this.area = area;
+  }
+
   public synchronized RouterStatus getStatus() {
     return status;
   }
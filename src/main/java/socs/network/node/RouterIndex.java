@@ -0,0 +1,54 @@
+package socs.network.node;
+
+import socs.network.util.IPAddress;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns simulated IP addresses to dense int indices, so the shortest path computation works on int arrays.
+ * Indices are never reused. Only the SpfEngine adds routers, lookups are safe from any thread.
+ */
+class RouterIndex {
+  private final Map<String, Integer> indices = new ConcurrentHashMap<>();
+  private volatile String[] names = new String[16];
+  // tie-breaking order of the routers: the 32-bit address, so it does not depend on the interning order
+  private volatile long[] order = new long[16];
+  private volatile int size = 0;
+
+  int intern(String simulatedIP) {
+    Integer index = indices.get(simulatedIP);
+    if (index != null) {
+      return index;
+    }
+    int i = size;
+    if (i == names.length) {
+      names = Arrays.copyOf(names, i * 2);
+      order = Arrays.copyOf(order, i * 2);
+    }
+    names[i] = simulatedIP;
+    order[i] = IPAddress.isIPv4(simulatedIP) ? IPAddress.toInt(simulatedIP) & 0xFFFFFFFFL : (1L << 32) + i;
+    size = i + 1;
+    indices.put(simulatedIP, i);
+    return i;
+  }
+
+  // @return the index of the router, or -1 if it has never been seen
+  int indexOf(String simulatedIP) {
+    Integer index = indices.get(simulatedIP);
+    return index == null ? -1 : index;
+  }
+
+  String name(int index) {
+    return names[index];
+  }
+
+  long order(int index) {
+    return order[index];
+  }
+
+  int size() {
+    return size;
+  }
+}
@@ -0,0 +1,403 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a router: packets and bytes by packet type and by neighbor, and the duration of the packet handlers.
+ * The LSA, flooding and SPF counters are kept by the LinkStateDatabase and the FloodQueue and only read here.
+ * <p/>
+ * The counters are LongAdders, so the I/O threads, the packet handlers and the timers update them without
+ * contending. They are printed by the "stats" command and, when enabled, published as JMX MBeans.
+ */
+public class RouterMetrics implements RouterMetricsMBean {
+  private static final String[] TYPE_NAMES = {"HELLO", "LSAUPDATE", "DATA", "OTHER"};
+  private static final String DOMAIN = "socs.network";
+
+  private final String routerIP;
+  private final LinkStateDatabase lsd;
+  private final FloodQueue floodQueue;
+
+  // indexed by sospfType, the last slot counts the unknown types
+  private final LongAdder[] packetsIn = adders();
+  private final LongAdder[] packetsOut = adders();
+  private final LongAdder[] bytesIn = adders();
+  private final LongAdder[] bytesOut = adders();
+  private final LatencyHistogram[] handlerLatency = new LatencyHistogram[TYPE_NAMES.length];
+  private final LatencyHistogram allHandlerLatency = new LatencyHistogram();
+
+  // DATA packets
+  private final LongAdder dataDelivered = new LongAdder();
+  private final LongAdder dataForwarded = new LongAdder();
+  private final LongAdder dataNoRoute = new LongAdder();
+  private final LongAdder dataTtlExpired = new LongAdder();
+
+  // neighbor's simulated IP => traffic exchanged with it
+  private final Map<String, NeighborMetrics> neighbors = new ConcurrentHashMap<>();
+
+  private volatile boolean jmxEnabled = false;
+
+  RouterMetrics(String routerIP, LinkStateDatabase lsd, FloodQueue floodQueue) {
+    this.routerIP = routerIP;
+    this.lsd = lsd;
+    this.floodQueue = floodQueue;
+    for (int i = 0; i < handlerLatency.length; i++) {
+      handlerLatency[i] = new LatencyHistogram();
+    }
+  }
+
+  void packetReceived(SOSPFPacket packet, int size) {
+    int type = typeIndex(packet.sospfType);
+    packetsIn[type].increment();
+    bytesIn[type].add(size);
+    // the sender of a forwarded DATA packet is not its originator
+    String sender = packet.routerID != null ? packet.routerID : packet.srcIP;
+    if (sender != null) {
+      neighbor(sender).received(size);
+    }
+  }
+
+  void packetSent(SOSPFPacket packet, RouterDescription dst, int size) {
+    int type = typeIndex(packet.sospfType);
+    packetsOut[type].increment();
+    bytesOut[type].add(size);
+    neighbor(dst.getSimulatedIP()).sent(size);
+  }
+
+  void dataDelivered() {
+    dataDelivered.increment();
+  }
+
+  void dataForwarded() {
+    dataForwarded.increment();
+  }
+
+  void dataNoRoute() {
+    dataNoRoute.increment();
+  }
+
+  void dataTtlExpired() {
+    dataTtlExpired.increment();
+  }
+
+  void packetHandled(short sospfType, long nanos) {
+    handlerLatency[typeIndex(sospfType)].record(nanos);
+    allHandlerLatency.record(nanos);
+  }
+
+  private NeighborMetrics neighbor(String simulatedIP) {
+    NeighborMetrics metrics = neighbors.get(simulatedIP);
+    if (metrics == null) {
+      NeighborMetrics created = new NeighborMetrics();
+      metrics = neighbors.putIfAbsent(simulatedIP, created);
+      if (metrics == null) {
+        metrics = created;
+        if (jmxEnabled) {
+          register(created, neighborName(simulatedIP));
+        }
+      }
+    }
+    return metrics;
+  }
+
+  // publish the router and its neighbors to the platform MBean server
+  void registerMBeans() {
+    jmxEnabled = true;
+    register(this, routerName());
+    for (Map.Entry<String, NeighborMetrics> entry : neighbors.entrySet()) {
+      register(entry.getValue(), neighborName(entry.getKey()));
+    }
+  }
+
+  void unregisterMBeans() {
+    if (!jmxEnabled) {
+      return;
+    }
+    jmxEnabled = false;
+    unregister(routerName());
+    for (String neighbor : neighbors.keySet()) {
+      unregister(neighborName(neighbor));
+    }
+  }
+
+  /**
+   * @return the counters in the format of the "stats" command
+   */
+  public String report() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("  LSDB size: ").append(lsd.size()).append(", generation: ").append(lsd.getGeneration()).append('\n');
+    sb.append("  Type\tPackets in\tBytes in\tPackets out\tBytes out\tHandler latency\n");
+    for (int i = 0; i < TYPE_NAMES.length; i++) {
+      sb.append("  ").append(TYPE_NAMES[i]).append('\t').append(packetsIn[i].sum()).append("\t\t")
+        .append(bytesIn[i].sum()).append("\t\t").append(packetsOut[i].sum()).append("\t\t")
+        .append(bytesOut[i].sum()).append("\t\t").append(handlerLatency[i]).append('\n');
+    }
+    sb.append("  LSAs accepted: ").append(lsd.getLsasAccepted()).append(", stale: ").append(lsd.getLsasStale())
+      .append(", skipped before decoding: ").append(lsd.getLsasSkipped()).append(" (").append(lsd.getSkippedBytes())
+      .append(" bytes, ").append(lsd.getSkippedObjects()).append(" objects)\n");
+    sb.append("  Aging: refreshed: ").append(lsd.getLsasRefreshed()).append(", flushed: ").append(lsd.getLsasFlushed())
+      .append(", purged: ").append(lsd.getLsasPurged()).append(", late copies of purged LSAs dropped: ")
+      .append(lsd.getLateCopies()).append(", LSDB size before/after the last purge: ")
+      .append(lsd.getSizeBeforePurge()).append(" -> ").append(lsd.getSizeAfterPurge()).append('\n');
+    if (lsd.getStorage() != null) {
+      sb.append("  Storage: ").append(lsd.getStorage()).append('\n');
+    }
+    LSA own = lsd.getLSA(routerIP);
+    sb.append("  Area: ").append(own.area).append(own.exports.isEmpty() ? "" : " (border router)")
+      .append(", summaries advertised: ").append(own.summaries.size()).append(", exported: ")
+      .append(own.exports.size()).append(", LSAs of other areas dropped: ").append(lsd.getLsasOtherArea())
+      .append('\n');
+    sb.append("  Flooding: ").append(floodQueue).append('\n');
+    if (lsd.isReducedFlooding()) {
+      sb.append("  Reduced flooding: ").append(lsd.getFloodingTopology()).append(", floods reduced: ")
+        .append(lsd.getFloodsReduced()).append(", to every neighbor: ").append(lsd.getFloodsFull()).append('\n');
+    }
+    sb.append("  Data: delivered: ").append(dataDelivered.sum()).append(", forwarded: ").append(dataForwarded.sum())
+      .append(", dropped: ").append(dataNoRoute.sum()).append(" without route, ").append(dataTtlExpired.sum())
+      .append(" with TTL expired\n");
+    sb.append("  SPF: full runs: ").append(lsd.getSpfFullRuns()).append(", incremental runs: ")
+      .append(lsd.getSpfIncrementalRuns()).append(", latency: ").append(lsd.getSpfLatency()).append('\n');
+    if (lsd.getSpfThrottle() != null) {
+      sb.append("  SPF throttle: ").append(lsd.getSpfThrottle()).append('\n');
+    }
+    sb.append("  Neighbor\tPackets in\tBytes in\tPackets out\tBytes out\n");
+    for (Map.Entry<String, NeighborMetrics> entry : new TreeMap<>(neighbors).entrySet()) {
+      NeighborMetrics n = entry.getValue();
+      sb.append("  ").append(entry.getKey()).append('\t').append(n.getPacketsIn()).append("\t\t")
+        .append(n.getBytesIn()).append("\t\t").append(n.getPacketsOut()).append("\t\t").append(n.getBytesOut())
+        .append('\n');
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public long getHelloPacketsIn() {
+    return packetsIn[0].sum();
+  }
+
+  @Override
+  public long getHelloPacketsOut() {
+    return packetsOut[0].sum();
+  }
+
+  @Override
+  public long getLsaUpdatePacketsIn() {
+    return packetsIn[1].sum();
+  }
+
+  @Override
+  public long getLsaUpdatePacketsOut() {
+    return packetsOut[1].sum();
+  }
+
+  @Override
+  public long getBytesIn() {
+    return sum(bytesIn);
+  }
+
+  @Override
+  public long getBytesOut() {
+    return sum(bytesOut);
+  }
+
+  @Override
+  public long getLsasAccepted() {
+    return lsd.getLsasAccepted();
+  }
+
+  @Override
+  public long getLsasStale() {
+    return lsd.getLsasStale();
+  }
+
+  @Override
+  public long getLsasSkipped() {
+    return lsd.getLsasSkipped();
+  }
+
+  @Override
+  public long getLsaBytesSkipped() {
+    return lsd.getSkippedBytes();
+  }
+
+  @Override
+  public long getLsaObjectsSkipped() {
+    return lsd.getSkippedObjects();
+  }
+
+  @Override
+  public long getLsasRefreshed() {
+    return lsd.getLsasRefreshed();
+  }
+
+  @Override
+  public long getLsasFlushed() {
+    return lsd.getLsasFlushed();
+  }
+
+  @Override
+  public long getLsasPurged() {
+    return lsd.getLsasPurged();
+  }
+
+  @Override
+  public long getLateCopies() {
+    return lsd.getLateCopies();
+  }
+
+  @Override
+  public long getFloodPackets() {
+    return floodQueue.getPackets();
+  }
+
+  @Override
+  public long getDataDelivered() {
+    return dataDelivered.sum();
+  }
+
+  @Override
+  public long getDataForwarded() {
+    return dataForwarded.sum();
+  }
+
+  @Override
+  public long getDataDropped() {
+    return dataNoRoute.sum() + dataTtlExpired.sum();
+  }
+
+  @Override
+  public long getFloodsSplit() {
+    return floodQueue.getSplit();
+  }
+
+  @Override
+  public long getFloodLsasSuperseded() {
+    return floodQueue.getSuperseded();
+  }
+
+  @Override
+  public long getFloodsReduced() {
+    return lsd.getFloodsReduced();
+  }
+
+  @Override
+  public long getFloodsFull() {
+    return lsd.getFloodsFull();
+  }
+
+  @Override
+  public int getInterAreaSummaries() {
+    return lsd.getLSA(routerIP).summaries.size();
+  }
+
+  @Override
+  public long getLsasOtherArea() {
+    return lsd.getLsasOtherArea();
+  }
+
+  @Override
+  public int getLsdbSize() {
+    return lsd.size();
+  }
+
+  @Override
+  public long getSpfFullRuns() {
+    return lsd.getSpfFullRuns();
+  }
+
+  @Override
+  public long getSpfIncrementalRuns() {
+    return lsd.getSpfIncrementalRuns();
+  }
+
+  @Override
+  public long getSpfMeanMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(lsd.getSpfLatency().getMeanNanos());
+  }
+
+  @Override
+  public long getSpfP99Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(lsd.getSpfLatency().getPercentileNanos(99));
+  }
+
+  @Override
+  public long getSpfMaxMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(lsd.getSpfLatency().getMaxNanos());
+  }
+
+  @Override
+  public long getHandlerMeanMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(allHandlerLatency.getMeanNanos());
+  }
+
+  @Override
+  public long getHandlerP99Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(allHandlerLatency.getPercentileNanos(99));
+  }
+
+  private ObjectName routerName() {
+    return objectName("type=Router,name=" + routerIP);
+  }
+
+  private ObjectName neighborName(String neighborIP) {
+    return objectName("type=Neighbor,router=" + routerIP + ",name=" + neighborIP);
+  }
+
+  private static ObjectName objectName(String properties) {
+    try {
+      return new ObjectName(DOMAIN + ":" + properties);
+    } catch (JMException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static void register(Object mbean, ObjectName name) {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      if (!server.isRegistered(name)) {
+        server.registerMBean(mbean, name);
+      }
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static void unregister(ObjectName name) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (JMException e) {
+      // already unregistered
+    }
+  }
+
+  private static int typeIndex(short sospfType) {
+    return sospfType >= 0 && sospfType < TYPE_NAMES.length - 1 ? sospfType : TYPE_NAMES.length - 1;
+  }
+
+  private static long sum(LongAdder[] adders) {
+    long total = 0;
+    for (LongAdder adder : adders) {
+      total += adder.sum();
+    }
+    return total;
+  }
+
+  private static LongAdder[] adders() {
+    LongAdder[] adders = new LongAdder[TYPE_NAMES.length];
+    for (int i = 0; i < adders.length; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+}
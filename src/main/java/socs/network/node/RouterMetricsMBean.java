@@ -0,0 +1,81 @@
+package socs.network.node;
+
+/**
+ * JMX view of the RouterMetrics, registered as socs.network:type=Router,name=[simulated IP]
+ */
+public interface RouterMetricsMBean {
+
+  public long getHelloPacketsIn();
+
+  public long getHelloPacketsOut();
+
+  public long getLsaUpdatePacketsIn();
+
+  public long getLsaUpdatePacketsOut();
+
+  public long getBytesIn();
+
+  public long getBytesOut();
+
+  public long getLsasAccepted();
+
+  public long getLsasStale();
+
+  // stale LSAs dropped from their header, before their links were decoded
+  public long getLsasSkipped();
+
+  public long getLsaBytesSkipped();
+
+  public long getLsaObjectsSkipped();
+
+  // own LSAs originated again, LSAs flushed at the maximum age and flushed LSAs removed from the database
+  public long getLsasRefreshed();
+
+  public long getLsasFlushed();
+
+  public long getLsasPurged();
+
+  // late copies of purged LSAs dropped instead of bringing them back
+  public long getLateCopies();
+
+  public long getFloodPackets();
+
+  public long getDataDelivered();
+
+  public long getDataForwarded();
+
+  // no route to the destination or TTL expired
+  public long getDataDropped();
+
+  // floods sent in more than one packet because of socs.network.flood.maxFrameBytes
+  public long getFloodsSplit();
+
+  public long getFloodLsasSuperseded();
+
+  // with socs.network.flood.reduced, the floods sent over the flooding topology and the ones sent to every neighbor
+  public long getFloodsReduced();
+
+  public long getFloodsFull();
+
+  // summaries of the other areas advertised into the router's area, 0 unless it is an area border router
+  public int getInterAreaSummaries();
+
+  // LSAs of other areas received from a router that is not a neighbor
+  public long getLsasOtherArea();
+
+  public int getLsdbSize();
+
+  public long getSpfFullRuns();
+
+  public long getSpfIncrementalRuns();
+
+  public long getSpfMeanMicros();
+
+  public long getSpfP99Micros();
+
+  public long getSpfMaxMicros();
+
+  public long getHandlerMeanMicros();
+
+  public long getHandlerP99Micros();
+}
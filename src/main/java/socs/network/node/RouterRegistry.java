@@ -0,0 +1,31 @@
+package socs.network.node;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The routers known by one router.
+ * It applies the Flyweight pattern to map the simulatedIPAddress to a unique RouterDescription object. Every router
+ * has its own registry, because the status of a neighbor is the router's own view of the link, so many routers can
+ * live in the same JVM.
+ */
+public class RouterRegistry {
+  // Map to store unique instances of RouterDescription
+  private final Map<String, RouterDescription> instances = new ConcurrentHashMap<>();
+
+  // factory method to create the router description with null status by default
+  public RouterDescription getInstance(String processIPAddress, int processPortNumber, String simulatedIPAddress) {
+    return instances.computeIfAbsent(simulatedIPAddress, k -> new RouterDescription(processIPAddress,
+      processPortNumber, simulatedIPAddress));
+  }
+
+  // map the simulated IP address to the corresponding unique RouterDescription object, null if it is unknown
+  public RouterDescription getInstance(String simulatedIPAddress) {
+    return instances.get(simulatedIPAddress);
+  }
+
+  // forget a router whose LSA has been purged, it is created again if the router comes back
+  public void remove(String simulatedIPAddress) {
+    instances.remove(simulatedIPAddress);
+  }
+}
@@ -0,0 +1,318 @@
+package socs.network.node;
+
+import java.util.*;
+
+/**
+ * Immutable result of one shortest path computation from the router itself to every reachable router.
+ * It is computed once per version (generation) of the link state database by the SpfEngine, so route lookups only
+ * walk the predecessor chain of the destination instead of running Dijkstra's algorithm again.
+ * Routers are identified by their index in the RouterIndex of the engine.
+ * <p/>
+ * Besides the single path chosen by the engine (the smallest simulated IP among equal-cost predecessors), the tree
+ * keeps every equal-cost predecessor of every router, so it can list all the equal-cost paths and give the set of
+ * equal-cost next hops of a destination (ECMP), limited to maxPaths next hops. The next-hop sets are computed for all
+ * the destinations the first time one is asked for.
+ */
+public class ShortestPathTree {
+
+  // generation of the link state database this tree was computed from
+  private final long generation;
+  private final RouterIndex index;
+  private final int source;
+  private final int[] dist; // Distance from source to each node, SpfEngine.INFINITY if unreachable
+  private final int[] prev; // Previous node in optimal path from source
+  private final int[] nextHop; // First router after the source on the optimal path
+  // the equal-cost predecessors of router i are preds[predOffsets[i] .. predOffsets[i + 1])
+  private final int[] predOffsets;
+  private final int[] preds;
+  private final int maxPaths;
+  // router => its equal-cost next hops, in simulated IP order; computed on first use
+  private volatile int[][] nextHops;
+
+  ShortestPathTree(long generation, RouterIndex index, int source, int[] dist, int[] prev, int[] predOffsets,
+                   int[] preds, int maxPaths) {
+    this.generation = generation;
+    this.index = index;
+    this.source = source;
+    this.dist = dist;
+    this.prev = prev;
+    this.predOffsets = predOffsets;
+    this.preds = preds;
+    this.maxPaths = maxPaths;
+    this.nextHop = new int[dist.length];
+    Arrays.fill(nextHop, -1);
+    nextHop[source] = source;
+    // a router's next hop is inherited from its predecessor, walk up to the first router whose next hop is known
+    // and fill in the routers on the way, so every router is only visited once
+    int[] chain = new int[16];
+    for (int destination = 0; destination < dist.length; destination++) {
+      if (dist[destination] == SpfEngine.INFINITY) continue;
+      int length = 0;
+      int at = destination;
+      while (nextHop[at] < 0) {
+        if (length == chain.length) chain = Arrays.copyOf(chain, length * 2);
+        chain[length++] = at;
+        at = prev[at];
+      }
+      int hop = nextHop[at];
+      while (length > 0) {
+        int node = chain[--length];
+        if (at == source) {
+          hop = node; // the first router after the source
+        }
+        nextHop[node] = hop;
+        at = node;
+      }
+    }
+  }
+
+  public long getGeneration() {
+    return generation;
+  }
+
+  public boolean isReachable(String destinationIP) {
+    return indexOf(destinationIP) >= 0;
+  }
+
+  // @return the number of hops to the destination, or -1 if it is unreachable
+  public int getDistance(String destinationIP) {
+    int i = indexOf(destinationIP);
+    return i < 0 ? -1 : dist[i];
+  }
+
+  // @return the neighbor to forward to in order to reach the destination, or null if it is unreachable
+  public String getNextHop(String destinationIP) {
+    int i = indexOf(destinationIP);
+    return i < 0 ? null : index.name(nextHop[i]);
+  }
+
+  // @return the routers on the optimal path from the source to the destination, or null if it is unreachable
+  public List<String> getPath(String destinationIP) {
+    int i = indexOf(destinationIP);
+    if (i < 0) {
+      return null;
+    }
+    LinkedList<String> path = new LinkedList<>();
+    for (int at = i; at >= 0; at = prev[at]) {
+      path.addFirst(index.name(at));
+    }
+    return path;
+  }
+
+  /**
+   * @return the equal-cost neighbors to forward to in order to reach the destination, at most maxPaths of them in
+   * simulated IP order; an empty list if it is unreachable or the source itself
+   */
+  public List<String> getNextHops(String destinationIP) {
+    int i = indexOf(destinationIP);
+    if (i < 0) {
+      return Collections.emptyList();
+    }
+    int[] hops = nextHops()[i];
+    List<String> names = new ArrayList<>(hops.length);
+    for (int hop : hops) {
+      names.add(index.name(hop));
+    }
+    return names;
+  }
+
+  /**
+   * the routing table of the source, one route per reachable router in simulated IP order, without building it
+   */
+  public void forEachRoute(RouteConsumer consumer) {
+    List<Integer> nodes = new ArrayList<>();
+    for (int i = 0; i < dist.length; i++) {
+      if (dist[i] != SpfEngine.INFINITY && i != source) {
+        nodes.add(i);
+      }
+    }
+    nodes.sort(Comparator.comparingLong(index::order));
+    for (int node : nodes) {
+      consumer.accept(index.name(node), index.name(nextHop[node]), dist[node]);
+    }
+  }
+
+  public interface RouteConsumer {
+    void accept(String destinationIP, String nextHop, int cost);
+  }
+
+  /**
+   * hash-based path selection: the packets of one flow always take the same next hop, and the flows are spread over
+   * all the equal-cost next hops
+   *
+   * @param flowHash e.g. flowHash(source, destination)
+   * @return null if the destination is unreachable or the source itself
+   */
+  public String selectNextHop(String destinationIP, int flowHash) {
+    int i = indexOf(destinationIP);
+    if (i < 0) {
+      return null;
+    }
+    int[] hops = nextHops()[i];
+    return hops.length == 0 ? null : index.name(hops[Math.floorMod(mix(flowHash), hops.length)]);
+  }
+
+  public static int flowHash(String sourceIP, String destinationIP) {
+    return 31 * sourceIP.hashCode() + destinationIP.hashCode();
+  }
+
+  // the final mix of MurmurHash3, so that close flow hashes do not pick the same next hop
+  static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  // @return the number of equal-cost paths to the destination, 0 if it is unreachable
+  public long countPaths(String destinationIP) {
+    int i = indexOf(destinationIP);
+    if (i < 0) {
+      return 0;
+    }
+    // routers in increasing distance, so the predecessors of a router are counted before it
+    long[] counts = new long[dist.length];
+    counts[source] = 1;
+    for (int node : byDistance()) {
+      if (node == source) continue;
+      long sum = 0;
+      for (int k = predOffsets[node]; k < predOffsets[node + 1]; k++) {
+        sum += counts[preds[k]];
+        if (sum < 0) {
+          sum = Long.MAX_VALUE; // too many to count
+          break;
+        }
+      }
+      counts[node] = sum;
+    }
+    return counts[i];
+  }
+
+  /**
+   * @param limit the largest number of paths returned, they can be exponentially many
+   * @return the equal-cost paths from the source to the destination, in simulated IP order; empty if it is
+   * unreachable
+   */
+  public List<List<String>> getAllPaths(String destinationIP, int limit) {
+    int i = indexOf(destinationIP);
+    List<List<String>> paths = new ArrayList<>();
+    if (i >= 0) {
+      collectPaths(i, new LinkedList<>(), paths, limit);
+    }
+    return paths;
+  }
+
+  // walk the equal-cost predecessors back to the source
+  private void collectPaths(int node, LinkedList<String> suffix, List<List<String>> paths, int limit) {
+    suffix.addFirst(index.name(node));
+    if (node == source) {
+      paths.add(new ArrayList<>(suffix));
+    } else {
+      for (int p : sortedPreds(node)) {
+        if (paths.size() >= limit) break;
+        collectPaths(p, suffix, paths, limit);
+      }
+    }
+    suffix.removeFirst();
+  }
+
+  private int[] sortedPreds(int node) {
+    int[] sorted = Arrays.copyOfRange(preds, predOffsets[node], predOffsets[node + 1]);
+    sortByOrder(sorted, sorted.length);
+    return sorted;
+  }
+
+  private int[][] nextHops() {
+    int[][] hops = nextHops;
+    if (hops != null) {
+      return hops;
+    }
+    hops = new int[dist.length][];
+    int[] merged = new int[maxPaths * 2];
+    for (int node : byDistance()) {
+      if (node == source) {
+        hops[node] = new int[0];
+        continue;
+      }
+      int count = 0;
+      int[] shared = null;
+      for (int k = predOffsets[node]; k < predOffsets[node + 1]; k++) {
+        int p = preds[k];
+        // a neighbor of the source is its own next hop
+        int[] candidates = p == source ? new int[]{node} : hops[p];
+        shared = count == 0 ? candidates : null;
+        for (int hop : candidates) {
+          if (!contains(merged, count, hop)) {
+            if (count == merged.length) merged = Arrays.copyOf(merged, count * 2);
+            merged[count++] = hop;
+          }
+        }
+      }
+      if (shared != null && shared.length == count) {
+        // a single predecessor: share its set
+        hops[node] = shared;
+        continue;
+      }
+      sortByOrder(merged, count);
+      hops[node] = Arrays.copyOf(merged, Math.min(count, maxPaths));
+    }
+    nextHops = hops;
+    return hops;
+  }
+
+  // the reachable routers in increasing distance from the source
+  private int[] byDistance() {
+    long[] keys = new long[dist.length];
+    int count = 0;
+    for (int i = 0; i < dist.length; i++) {
+      if (dist[i] != SpfEngine.INFINITY) {
+        keys[count++] = ((long) dist[i] << 32) | i;
+      }
+    }
+    Arrays.sort(keys, 0, count);
+    int[] nodes = new int[count];
+    for (int k = 0; k < count; k++) {
+      nodes[k] = (int) keys[k];
+    }
+    return nodes;
+  }
+
+  // insertion sort by simulated IP, the arrays are short
+  private void sortByOrder(int[] nodes, int length) {
+    for (int a = 1; a < length; a++) {
+      int node = nodes[a];
+      int b = a - 1;
+      while (b >= 0 && index.order(nodes[b]) > index.order(node)) {
+        nodes[b + 1] = nodes[b];
+        b--;
+      }
+      nodes[b + 1] = node;
+    }
+  }
+
+  private static boolean contains(int[] array, int length, int value) {
+    for (int i = 0; i < length; i++) {
+      if (array[i] == value) return true;
+    }
+    return false;
+  }
+
+  // all the reachable routers, including the source itself
+  public Set<String> getDestinations() {
+    Set<String> destinations = new HashSet<>();
+    for (int i = 0; i < dist.length; i++) {
+      if (dist[i] != SpfEngine.INFINITY) {
+        destinations.add(index.name(i));
+      }
+    }
+    return destinations;
+  }
+
+  // @return the index of the destination if it is reachable in this tree, -1 otherwise
+  private int indexOf(String destinationIP) {
+    int i = index.indexOf(destinationIP);
+    return i >= 0 && i < dist.length && dist[i] != SpfEngine.INFINITY ? i : -1;
+  }
+}
@@ -0,0 +1,472 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.util.PersistentHashMap;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Maintains the shortest path tree of the router across changes of the link state database.
+ * <p/>
+ * Routers are interned to dense int indices and the topology is kept as a compressed sparse row (CSR) graph in both
+ * directions, rebuilt from the parsed links of every LSA. Only the LSAs that changed are parsed again. The computation
+ * only works on reusable primitive arrays and an indexed binary heap, so a run does not create garbage apart from the
+ * resulting ShortestPathTree. While every link has the same weight, a full computation is a breadth-first search.
+ * <p/>
+ * When only a few LSAs have changed the tree is updated incrementally: a removed link only recomputes the routers
+ * that lost their last shortest path, a new link only relaxes the routers below it.
+ * <p/>
+ * Only the LSAs of the router's own area are parsed: the LSA of a neighbor in another area is kept for its summaries
+ * but its links are ignored, so the neighbor is a leaf of the graph and the computation is bounded by the size of
+ * the area.
+ * <p/>
+ * Among equal cost predecessors the smallest simulated IP is always chosen, so that both ways of computing the tree
+ * produce exactly the same result. Not thread safe, the caller serializes the computations.
+ */
+class SpfEngine {
+  static final int INFINITY = Integer.MAX_VALUE;
+  private static final int LINK_WEIGHT = 1; // Each hop has a weight of 1
+  private static final int[] NO_LINKS = new int[0];
+
+  private final RouterIndex index = new RouterIndex();
+  private final int source;
+  private final int area;
+
+  // router index => indices of the routers listed in its LSA, the CSR arrays are rebuilt from these rows
+  private int[][] rows = new int[16][];
+
+  // out-links of router i are outTargets[outOffsets[i] .. outOffsets[i + 1]), in-links are stored the same way
+  private int nodeCount = 0;
+  private int[] outOffsets = new int[17];
+  private int[] outTargets = new int[16];
+  private int[] outWeights = new int[16];
+  private int[] inOffsets = new int[17];
+  private int[] inSources = new int[16];
+  private int[] inWeights = new int[16];
+  private boolean unitWeights = true;
+
+  // state reused by every computation
+  private int[] dist = new int[16]; // Distance from source to each node, INFINITY if unreachable
+  private int[] prev = new int[16]; // Previous node in optimal path from source, -1 if none
+  private int[] queue = new int[16];
+  private final IndexedIntHeap heap = new IndexedIntHeap();
+  private int[] touchedMark = new int[16];
+  private int[] affectedMark = new int[16];
+  private int[] orphanMark = new int[16];
+  private int mark = 0;
+  private int[] touched = new int[16];
+  private int touchedCount = 0;
+  private int[] orphans = new int[16];
+  private int orphanCount = 0;
+  // the equal-cost predecessors collected by snapshot, at most one per in-link
+  private int[] predScratch = new int[16];
+  // link changes of the current incremental update, as (from << 32 | to)
+  private long[] addedLinks = new long[16];
+  private int addedCount = 0;
+  private long[] removedLinks = new long[16];
+  private int removedCount = 0;
+  // while removals are processed the added links must not be used yet
+  private boolean maskAddedLinks = false;
+
+  // largest number of equal-cost next hops kept per destination
+  private int maxPaths = 4;
+
+  private boolean initialized = false;
+  private long fullRuns = 0;
+  private long incrementalRuns = 0;
+
+  SpfEngine(String source, int area) {
+    this.source = index.intern(source);
+    this.area = area;
+    ensureCapacity(1);
+  }
+
+  /**
+   * recompute the distances of the whole tree from scratch
+   *
+   * @param changedRouters originators of the LSAs that were added, replaced or removed since the last computation,
+   *                       only their links are parsed again
+   */
+  ShortestPathTree computeFull(long generation, PersistentHashMap<String, LSA> store,
+                               Collection<String> changedRouters) {
+    updateTopology(store, changedRouters);
+    Arrays.fill(dist, 0, nodeCount, INFINITY);
+    Arrays.fill(prev, 0, nodeCount, -1);
+    dist[source] = 0;
+    if (unitWeights) {
+      breadthFirstSearch();
+    } else {
+      heap.offer(source, 0);
+      dijkstra();
+    }
+    for (int node = 0; node < nodeCount; node++) {
+      updatePredecessor(node);
+    }
+    fullRuns++;
+    return snapshot(generation);
+  }
+
+  /**
+   * update the tree after the LSAs of the given routers have changed, only recomputing the affected routers
+   *
+   * @param changedRouters originators of the LSAs that were added, replaced or removed since the last computation
+   */
+  ShortestPathTree computeIncremental(long generation, PersistentHashMap<String, LSA> store,
+                                      Collection<String> changedRouters) {
+    if (!initialized) {
+      return computeFull(generation, store, changedRouters);
+    }
+    int oldCount = nodeCount;
+    updateTopology(store, changedRouters);
+    Arrays.fill(dist, oldCount, nodeCount, INFINITY);
+    Arrays.fill(prev, oldCount, nodeCount, -1);
+
+    mark++;
+    touchedCount = 0;
+    // the removed links are handled first, on the topology without the added links
+    maskAddedLinks = true;
+    handleRemovedLinks();
+    maskAddedLinks = false;
+    handleAddedLinks();
+
+    // the routers whose distance changed, and the routers they point to, may have a different predecessor
+    for (int i = 0; i < touchedCount; i++) {
+      int node = touched[i];
+      markAffected(node);
+      for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+        markAffected(outTargets[e]);
+      }
+    }
+    incrementalRuns++;
+    return snapshot(generation);
+  }
+
+  /**
+   * parse the links of the changed LSAs (of all the LSAs the first time), record the added and removed links and
+   * rebuild the CSR graph
+   */
+  private void updateTopology(PersistentHashMap<String, LSA> store, Collection<String> changedRouters) {
+    addedCount = 0;
+    removedCount = 0;
+    Iterable<String> routers = initialized ? changedRouters : store.keys();
+    initialized = true;
+    for (String changed : routers) {
+      int router = index.intern(changed);
+      ensureCapacity(index.size());
+      LSA lsa = store.get(changed);
+      int[] oldLinks = rows[router] == null ? NO_LINKS : rows[router];
+      int[] newLinks = lsa == null ? NO_LINKS : parseLinks(router, lsa);
+      for (int to : oldLinks) {
+        if (!contains(newLinks, to)) removedLinks = append(removedLinks, removedCount++, link(router, to));
+      }
+      for (int to : newLinks) {
+        if (!contains(oldLinks, to)) addedLinks = append(addedLinks, addedCount++, link(router, to));
+      }
+      // parsing may grow the rows array, so it is stored afterwards
+      rows[router] = newLinks;
+    }
+    Arrays.sort(addedLinks, 0, addedCount);
+    rebuildGraph();
+  }
+
+  void setMaxPaths(int maxPaths) {
+    this.maxPaths = Math.max(1, maxPaths);
+  }
+
+  long getFullRuns() {
+    return fullRuns;
+  }
+
+  long getIncrementalRuns() {
+    return incrementalRuns;
+  }
+
+  int getRouterCount() {
+    return index.size();
+  }
+
+  private void handleRemovedLinks() {
+    // a removed link only matters if it was on a shortest path towards the router it points to
+    for (int i = 0; i < removedCount; i++) {
+      int from = (int) (removedLinks[i] >>> 32);
+      int to = (int) removedLinks[i];
+      touch(to);
+      if (to != source && dist[from] != INFINITY && dist[to] != INFINITY && dist[from] + LINK_WEIGHT == dist[to]) {
+        heap.offer(to, dist[to]);
+      }
+    }
+    // collect the orphaned routers, closest first, so that all the candidate predecessors of a router have been
+    // classified before the router itself
+    orphanCount = 0;
+    while (!heap.isEmpty()) {
+      int node = heap.poll();
+      if (hasShortestPredecessor(node)) continue;
+      orphanMark[node] = mark;
+      orphans = append(orphans, orphanCount++, node);
+      for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+        int next = outTargets[e];
+        if (next != source && dist[next] != INFINITY && dist[next] == dist[node] + outWeights[e]
+          && !isMasked(node, next)) {
+          heap.offer(next, dist[next]);
+        }
+      }
+    }
+    if (orphanCount == 0) return;
+
+    // reattach the orphans through the best remaining link from the rest of the tree
+    for (int i = 0; i < orphanCount; i++) {
+      dist[orphans[i]] = INFINITY;
+      prev[orphans[i]] = -1;
+      touch(orphans[i]);
+    }
+    for (int i = 0; i < orphanCount; i++) {
+      int orphan = orphans[i];
+      int best = INFINITY;
+      for (int e = inOffsets[orphan]; e < inOffsets[orphan + 1]; e++) {
+        int p = inSources[e];
+        if (dist[p] != INFINITY && dist[p] + inWeights[e] < best && !isMasked(p, orphan)) {
+          best = dist[p] + inWeights[e];
+        }
+      }
+      if (best != INFINITY) {
+        dist[orphan] = best;
+        heap.offer(orphan, best);
+      }
+    }
+    dijkstra();
+  }
+
+  // a new link can only shorten the paths that go through it
+  private void handleAddedLinks() {
+    for (int i = 0; i < addedCount; i++) {
+      int from = (int) (addedLinks[i] >>> 32);
+      int to = (int) addedLinks[i];
+      touch(to);
+      if (dist[from] != INFINITY && dist[from] + LINK_WEIGHT < dist[to]) {
+        dist[to] = dist[from] + LINK_WEIGHT;
+        heap.offer(to, dist[to]);
+      }
+    }
+    dijkstra();
+  }
+
+  private boolean hasShortestPredecessor(int node) {
+    for (int e = inOffsets[node]; e < inOffsets[node + 1]; e++) {
+      int p = inSources[e];
+      if (dist[p] != INFINITY && dist[p] + inWeights[e] == dist[node] && orphanMark[p] != mark
+        && !isMasked(p, node)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void breadthFirstSearch() {
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = source;
+    while (head < tail) {
+      int node = queue[head++];
+      int next = dist[node] + 1;
+      for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+        int neighbor = outTargets[e];
+        if (dist[neighbor] == INFINITY) {
+          dist[neighbor] = next;
+          queue[tail++] = neighbor;
+        }
+      }
+    }
+  }
+
+  /**
+   * Dijkstra's algorithm from the routers in the heap, whose tentative distances are already set
+   */
+  private void dijkstra() {
+    while (!heap.isEmpty()) {
+      int currentDist = heap.minKey();
+      int node = heap.poll();
+      touch(node);
+      for (int e = outOffsets[node]; e < outOffsets[node + 1]; e++) {
+        int neighbor = outTargets[e];
+        int candidate = currentDist + outWeights[e];
+        if (candidate < dist[neighbor] && !isMasked(node, neighbor)) {
+          dist[neighbor] = candidate;
+          heap.offer(neighbor, candidate);
+        }
+      }
+    }
+  }
+
+  // choose the smallest simulated IP among the predecessors on a shortest path
+  private void updatePredecessor(int node) {
+    if (node == source || dist[node] == INFINITY) {
+      prev[node] = -1;
+      return;
+    }
+    int best = -1;
+    for (int e = inOffsets[node]; e < inOffsets[node + 1]; e++) {
+      int p = inSources[e];
+      if (dist[p] != INFINITY && dist[p] + inWeights[e] == dist[node]
+        && (best < 0 || index.order(p) < index.order(best))) {
+        best = p;
+      }
+    }
+    prev[node] = best;
+  }
+
+  private void touch(int node) {
+    if (touchedMark[node] != mark) {
+      touchedMark[node] = mark;
+      touched = append(touched, touchedCount++, node);
+    }
+  }
+
+  private void markAffected(int node) {
+    if (affectedMark[node] != mark) {
+      affectedMark[node] = mark;
+      updatePredecessor(node);
+    }
+  }
+
+  private boolean isMasked(int from, int to) {
+    return maskAddedLinks && addedCount > 0 && Arrays.binarySearch(addedLinks, 0, addedCount, link(from, to)) >= 0;
+  }
+
+  // the distinct routers listed in the LSA, excluding the router itself, none for an LSA of another area
+  private int[] parseLinks(int router, LSA lsa) {
+    if (lsa.area != area) {
+      return NO_LINKS;
+    }
+    int[] links = new int[lsa.links.size()];
+    int count = 0;
+    for (LinkDescription ld : lsa.links) {
+      int to = index.intern(ld.linkID);
+      if (to != router && !contains(links, count, to)) {
+        if (count == links.length) links = Arrays.copyOf(links, count * 2 + 1);
+        links[count++] = to;
+      }
+    }
+    ensureCapacity(index.size());
+    return count == links.length ? links : Arrays.copyOf(links, count);
+  }
+
+  // rebuild both CSR arrays from the rows
+  private void rebuildGraph() {
+    int n = index.size();
+    ensureCapacity(n);
+    if (outOffsets.length < n + 1) {
+      outOffsets = new int[Math.max(n + 1, outOffsets.length * 2)];
+      inOffsets = new int[outOffsets.length];
+    }
+    int edges = 0;
+    Arrays.fill(inOffsets, 0, n + 1, 0);
+    for (int i = 0; i < n; i++) {
+      outOffsets[i] = edges;
+      int[] row = rows[i] == null ? NO_LINKS : rows[i];
+      edges += row.length;
+      for (int to : row) {
+        inOffsets[to + 1]++;
+      }
+    }
+    outOffsets[n] = edges;
+    if (outTargets.length < edges) {
+      int length = Math.max(edges, outTargets.length * 2);
+      outTargets = new int[length];
+      outWeights = new int[length];
+      inSources = new int[length];
+      inWeights = new int[length];
+    }
+    for (int i = 0; i < n; i++) {
+      inOffsets[i + 1] += inOffsets[i];
+    }
+    // inOffsets[i] is used as the insertion cursor of router i, then shifted back
+    for (int i = 0; i < n; i++) {
+      int[] row = rows[i] == null ? NO_LINKS : rows[i];
+      int e = outOffsets[i];
+      for (int to : row) {
+        outTargets[e] = to;
+        outWeights[e] = LINK_WEIGHT;
+        int slot = inOffsets[to]++;
+        inSources[slot] = i;
+        inWeights[slot] = LINK_WEIGHT;
+        e++;
+      }
+    }
+    for (int i = n; i > 0; i--) {
+      inOffsets[i] = inOffsets[i - 1];
+    }
+    inOffsets[0] = 0;
+    unitWeights = true; // LinkDescription does not carry a cost yet, every link has the same weight
+    nodeCount = n;
+  }
+
+  private void ensureCapacity(int n) {
+    if (dist.length >= n) return;
+    int length = Math.max(n, dist.length * 2);
+    int old = dist.length;
+    rows = Arrays.copyOf(rows, length);
+    dist = Arrays.copyOf(dist, length);
+    prev = Arrays.copyOf(prev, length);
+    Arrays.fill(dist, old, length, INFINITY);
+    Arrays.fill(prev, old, length, -1);
+    queue = new int[length];
+    touchedMark = Arrays.copyOf(touchedMark, length);
+    affectedMark = Arrays.copyOf(affectedMark, length);
+    orphanMark = Arrays.copyOf(orphanMark, length);
+    heap.ensureCapacity(length);
+  }
+
+  // the tree gets its own copy of the distances and of the equal-cost predecessors, as a CSR graph
+  private ShortestPathTree snapshot(long generation) {
+    int[] predOffsets = new int[nodeCount + 1];
+    if (predScratch.length < inSources.length) {
+      predScratch = new int[inSources.length];
+    }
+    int count = 0;
+    for (int node = 0; node < nodeCount; node++) {
+      predOffsets[node] = count;
+      if (node == source || dist[node] == INFINITY) continue;
+      for (int e = inOffsets[node]; e < inOffsets[node + 1]; e++) {
+        if (isShortestLink(e, node)) predScratch[count++] = inSources[e];
+      }
+    }
+    predOffsets[nodeCount] = count;
+    return new ShortestPathTree(generation, index, source, Arrays.copyOf(dist, nodeCount),
+      Arrays.copyOf(prev, nodeCount), predOffsets, Arrays.copyOf(predScratch, count), maxPaths);
+  }
+
+  // the in-link e of the router is on a shortest path to it
+  private boolean isShortestLink(int e, int node) {
+    int p = inSources[e];
+    return dist[p] != INFINITY && dist[p] + inWeights[e] == dist[node];
+  }
+
+  private static long link(int from, int to) {
+    return ((long) from << 32) | (to & 0xFFFFFFFFL);
+  }
+
+  private static boolean contains(int[] array, int value) {
+    return contains(array, array.length, value);
+  }
+
+  private static boolean contains(int[] array, int length, int value) {
+    for (int i = 0; i < length; i++) {
+      if (array[i] == value) return true;
+    }
+    return false;
+  }
+
+  private static int[] append(int[] array, int position, int value) {
+    if (position == array.length) array = Arrays.copyOf(array, position * 2);
+    array[position] = value;
+    return array;
+  }
+
+  private static long[] append(long[] array, int position, long value) {
+    if (position == array.length) array = Arrays.copyOf(array, position * 2);
+    array[position] = value;
+    return array;
+  }
+}
@@ -0,0 +1,444 @@
+package socs.network.sim;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.message.PacketCodec;
+import socs.network.message.PacketCodecs;
+import socs.network.message.PacketFactory;
+import socs.network.message.Prefix;
+import socs.network.node.AdmissionPolicy;
+import socs.network.node.LinkStateDatabase;
+import socs.network.node.Router;
+import socs.network.sockets.LoopbackNetwork;
+import socs.network.util.Configuration;
+import socs.network.util.Console;
+import socs.network.util.Throttle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the routers of a topology in one JVM over a LoopbackNetwork and measures how long the link state databases
+ * take to converge.
+ * <p/>
+ * The routers accept the attach requests automatically and every link is connected like the "connect" command does,
+ * without waiting for the answer to one request before sending the next.
+ * Every router gets as many ports as the most connected router of the topology needs.
+ * The packet handlers of all the routers share one thread pool and their timers share one scheduler.
+ * <p/>
+ * A grid can be split into areas, see Topology.splitGridIntoAreas. Once the databases have converged, the simulator
+ * prints their size and the heap used, checks the forwarding between random routers with DATA packets and validates
+ * the routing table of every router in parallel, see validateRoutes. Then
+ * every router refreshes its LSA, and the simulator counts the duplicate LSAs received during that round, with full
+ * or, if "reduced" is given, reduced flooding.
+ * <p/>
+ * usage: Simulator ring|grid|random|scalefree|clique routers [seed] [areas count] [reduced]
+ * Simulator file topology_path [reduced]
+ */
+public class Simulator {
+  private static final long CONVERGENCE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+  private static final int DATA_PACKETS = 1000;
+
+  private final Topology topology;
+  private final ExecutorService handlerPool;
+  private final ScheduledExecutorService timers;
+  private final LoopbackNetwork network;
+  private final Router[] routers;
+  private final Map<String, Integer> indices = new HashMap<>();
+
+  private int rejectedLinks = 0;
+  private boolean reducedFlooding = false;
+
+  /**
+   * @param threads the number of threads handling the packets of all the routers
+   */
+  public Simulator(Topology topology, PacketCodec codec, int threads) {
+    this.topology = topology;
+    handlerPool = Executors.newFixedThreadPool(threads, daemon("sim-handler"));
+    timers = Executors.newScheduledThreadPool(Math.max(1, threads / 2), daemon("sim-timers"));
+    network = new LoopbackNetwork(codec, handlerPool);
+    routers = new Router[topology.size()];
+  }
+
+  // use socs.network.flood.reduced on every router, must be called before start
+  public void setReducedFlooding(boolean reducedFlooding) {
+    this.reducedFlooding = reducedFlooding;
+  }
+
+  // create and start all the routers, without any link
+  public void start() {
+    int maxDegree = 1;
+    for (int i = 0; i < routers.length; i++) {
+      maxDegree = Math.max(maxDegree, topology.getNeighbors(i).size());
+    }
+    for (int i = 0; i < routers.length; i++) {
+      Configuration config = new Configuration();
+      config.addEntry("socs.network.router.ip", topology.getRouter(i));
+      config.addEntry("socs.network.router.port", String.valueOf(processPort(i)));
+      config.addEntry("socs.network.router.ports", String.valueOf(maxDegree));
+      int area = topology.getArea(i);
+      config.addEntry("socs.network.router.area", String.valueOf(area));
+      List<String> ranges = new ArrayList<>();
+      for (Prefix range : topology.getRanges(area)) {
+        ranges.add(range.toString());
+      }
+      if (!ranges.isEmpty()) {
+        config.addEntry("socs.network.area.ranges", String.join(",", ranges));
+      }
+      config.addEntry("socs.network.attach.policy", AdmissionPolicy.ACCEPT);
+      config.addEntry("socs.network.flood.reduced", String.valueOf(reducedFlooding));
+      // thousands of MBeans would only slow the simulation down
+      config.addEntry("socs.network.jmx.enabled", "false");
+      // the keepalives would keep the network from ever being idle, so the convergence could not be measured
+      config.addEntry("socs.network.hello.intervalMillis", "0");
+      routers[i] = new Router(config, network.newTransport(), timers);
+      indices.put(topology.getRouter(i), i);
+    }
+  }
+
+  /**
+   * connect every link of the topology, all at once, and wait for the answers of the attach requests
+   *
+   * @return the number of rejected links
+   */
+  public int connectAll() throws InterruptedException {
+    List<CompletableFuture<Boolean>> answers = new ArrayList<>();
+    for (int[] link : topology.getLinks()) {
+      int b = link[1];
+      answers.add(routers[link[0]].connectAsync("127.0.0.1", processPort(b), topology.getRouter(b)));
+    }
+    for (CompletableFuture<Boolean> answer : answers) {
+      try {
+        if (!answer.get()) {
+          rejectedLinks++;
+        }
+      } catch (ExecutionException e) {
+        rejectedLinks++;
+      }
+    }
+    return rejectedLinks;
+  }
+
+  /**
+   * @return true once every packet has been handled, no SPF run is pending, and every router holds the latest LSA of
+   * every router of its area it can reach and of its neighbors in other areas, and nothing else
+   */
+  public boolean isConverged() {
+    if (!network.isIdle()) {
+      return false;
+    }
+    // group the routers by the links they currently advertise inside their area
+    int[] component = new int[routers.length];
+    for (int i = 0; i < routers.length; i++) {
+      component[i] = i;
+    }
+    int[] latestSeq = new int[routers.length];
+    for (int i = 0; i < routers.length; i++) {
+      LSA own = routers[i].getLinkStateDatabase().getLSA(topology.getRouter(i));
+      latestSeq[i] = own.lsaSeqNumber;
+      for (LinkDescription ld : own.links) {
+        Integer j = indices.get(ld.linkID);
+        if (j != null && topology.getArea(j) == topology.getArea(i)) {
+          union(component, i, j);
+        }
+      }
+    }
+    Map<Integer, List<Integer>> members = new HashMap<>();
+    for (int i = 0; i < routers.length; i++) {
+      members.computeIfAbsent(find(component, i), k -> new ArrayList<>()).add(i);
+    }
+    for (int i = 0; i < routers.length; i++) {
+      LinkStateDatabase lsd = routers[i].getLinkStateDatabase();
+      Throttle spfThrottle = lsd.getSpfThrottle();
+      if (spfThrottle != null && spfThrottle.isPending()) {
+        return false;
+      }
+      List<Integer> area = members.get(find(component, i));
+      int expected = area.size();
+      for (int j : area) {
+        if (!isLatest(lsd, j, latestSeq)) {
+          return false;
+        }
+      }
+      for (LinkDescription ld : lsd.getLSA(topology.getRouter(i)).links) {
+        Integer j = indices.get(ld.linkID);
+        if (j != null && topology.getArea(j) != topology.getArea(i)) {
+          expected++;
+          if (!isLatest(lsd, j, latestSeq)) {
+            return false;
+          }
+        }
+      }
+      if (lsd.size() != expected) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isLatest(LinkStateDatabase lsd, int router, int[] latestSeq) {
+    LSA lsa = lsd.getLSA(topology.getRouter(router));
+    return lsa != null && lsa.lsaSeqNumber == latestSeq[router];
+  }
+
+  /**
+   * send DATA packets between random routers and wait until the network is idle
+   *
+   * @return the number of packets delivered
+   */
+  public long checkForwarding(int packets, long seed) throws InterruptedException {
+    long before = getDataDelivered();
+    Random random = new Random(seed);
+    for (int i = 0; i < packets; i++) {
+      Router src = routers[random.nextInt(routers.length)];
+      String dst = topology.getRouter(random.nextInt(routers.length));
+      // the paths across a large grid are longer than the default TTL, use the largest one the codec carries
+      src.forward(PacketFactory.createDataPacket(src.getDescription(), dst, 0xFF, new byte[0]));
+    }
+    do {
+      Thread.sleep(10);
+    } while (!network.isIdle());
+    return getDataDelivered() - before;
+  }
+
+  /**
+   * every router originates its LSA again, then wait until the databases have converged
+   *
+   * @return the time in milliseconds until they converged, -1 if they did not within the timeout
+   */
+  public long refreshAll(long timeoutMillis) throws InterruptedException {
+    for (Router router : routers) {
+      router.getLinkStateDatabase().refresh();
+    }
+    return awaitConvergence(timeoutMillis);
+  }
+
+  /**
+   * check the routing table of every router against the trees of its next hops: the next hop of a route must be a
+   * neighbor whose own route to the destination is one hop shorter, so every route is loop-free and shortest. The
+   * routers are checked in parallel on the common ForkJoin pool, which has a thread per core.
+   *
+   * @return the number of routes checked and the number of invalid ones
+   */
+  public long[] validateRoutes() {
+    return ForkJoinPool.commonPool().invoke(new RouteCheck(0, routers.length));
+  }
+
+  // checks the routes of the routers from..to, split in halves down to a few routers per task
+  private final class RouteCheck extends RecursiveTask<long[]> {
+    private static final int ROUTERS_PER_TASK = 8;
+    private final int from;
+    private final int to;
+
+    RouteCheck(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected long[] compute() {
+      if (to - from > ROUTERS_PER_TASK) {
+        int middle = (from + to) >>> 1;
+        RouteCheck left = new RouteCheck(from, middle);
+        left.fork();
+        long[] right = new RouteCheck(middle, to).compute();
+        long[] result = left.join();
+        return new long[]{result[0] + right[0], result[1] + right[1]};
+      }
+      long[] result = new long[2];
+      for (int i = from; i < to; i++) {
+        Set<Integer> neighbors = topology.getNeighbors(i);
+        routers[i].getLinkStateDatabase().getShortestPathTree().forEachRoute((destination, nextHop, cost) -> {
+          Integer hop = indices.get(nextHop);
+          boolean valid = hop != null && neighbors.contains(hop) && (nextHop.equals(destination) ? cost == 1 :
+            routers[hop].getLinkStateDatabase().getShortestPathTree().getDistance(destination) == cost - 1);
+          result[0]++;
+          if (!valid) {
+            result[1]++;
+          }
+        });
+      }
+      return result;
+    }
+  }
+
+  // the LSAs received that were not newer than the database, by all the routers
+  public long getDuplicateLSAs() {
+    long duplicates = 0;
+    for (Router router : routers) {
+      duplicates += router.getLinkStateDatabase().getLsasStale();
+    }
+    return duplicates;
+  }
+
+  private long getDataDelivered() {
+    long delivered = 0;
+    for (Router router : routers) {
+      delivered += router.getMetrics().getDataDelivered();
+    }
+    return delivered;
+  }
+
+  // the size of the databases of the routers, summed and largest, and the summaries advertised by all of them
+  public String describeDatabases() {
+    long lsas = 0;
+    int largest = 0;
+    long summaries = 0;
+    for (int i = 0; i < routers.length; i++) {
+      LinkStateDatabase lsd = routers[i].getLinkStateDatabase();
+      lsas += lsd.size();
+      largest = Math.max(largest, lsd.size());
+      summaries += lsd.getLSA(topology.getRouter(i)).summaries.size();
+    }
+    return "LSDB size: mean " + lsas / Math.max(routers.length, 1) + ", max " + largest + ", total " + lsas +
+      " LSAs, summaries advertised: " + summaries;
+  }
+
+  /**
+   * @return the time in milliseconds until the databases converged, -1 if they did not within the timeout
+   */
+  public long awaitConvergence(long timeoutMillis) throws InterruptedException {
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    long pause = 1;
+    while (!isConverged()) {
+      if (System.nanoTime() > deadline) {
+        return -1;
+      }
+      Thread.sleep(pause);
+      pause = Math.min(pause * 2, 50);
+    }
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  public Router getRouter(int index) {
+    return routers[index];
+  }
+
+  public LoopbackNetwork getNetwork() {
+    return network;
+  }
+
+  public void close() {
+    for (Router router : routers) {
+      if (router != null) {
+        router.close();
+      }
+    }
+    timers.shutdownNow();
+    handlerPool.shutdownNow();
+  }
+
+  // the process port is not used by the loopback network, it only has to be unique
+  private static int processPort(int router) {
+    return router + 1;
+  }
+
+  private static int find(int[] parent, int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  private static void union(int[] parent, int a, int b) {
+    parent[find(parent, a)] = find(parent, b);
+  }
+
+  private static ThreadFactory daemon(String name) {
+    return r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Topology topology;
+    boolean reduced = args.length > 0 && args[args.length - 1].equals("reduced");
+    if (reduced) {
+      args = Arrays.copyOf(args, args.length - 1);
+    }
+    if (args.length == 2 && args[0].equals("file")) {
+      topology = Topology.fromFile(args[1]);
+    } else if (args.length >= 2 && args.length <= 5) {
+      int areas = 0;
+      int length = args.length;
+      if (length >= 4 && args[length - 2].equals("areas")) {
+        areas = Integer.parseInt(args[length - 1]);
+        length -= 2;
+      }
+      topology = Topology.generate(args[0], Integer.parseInt(args[1]), length == 3 ? Long.parseLong(args[2]) : 42);
+      if (areas > 0) {
+        if (!args[0].equals("grid")) {
+          throw new IllegalArgumentException("Only a grid can be split into areas");
+        }
+        topology.splitGridIntoAreas(areas);
+      }
+    } else {
+      System.out.println("usage: Simulator ring|grid|random|scalefree|clique routers [seed] [areas count] [reduced]");
+      System.out.println("       Simulator file topology_path [reduced]");
+      System.exit(1);
+      return;
+    }
+    Console.setQuiet(true);
+    Simulator simulator = new Simulator(topology, PacketCodecs.BINARY, Runtime.getRuntime().availableProcessors());
+    simulator.setReducedFlooding(reduced);
+    simulator.start();
+    long start = System.nanoTime();
+    int rejected = simulator.connectAll();
+    long connected = System.nanoTime();
+    long converged = simulator.awaitConvergence(CONVERGENCE_TIMEOUT_MILLIS);
+    long end = System.nanoTime();
+    LoopbackNetwork network = simulator.getNetwork();
+    System.out.println("routers: " + topology.size() + ", links: " + topology.getLinks().size() +
+      ", rejected links: " + rejected);
+    System.out.println("connecting the links: " + TimeUnit.NANOSECONDS.toMillis(connected - start) + " ms");
+    if (converged < 0) {
+      System.out.println("the databases did not converge within " + CONVERGENCE_TIMEOUT_MILLIS + " ms");
+    } else {
+      System.out.println("convergence after the last link: " + converged + " ms, total: " +
+        TimeUnit.NANOSECONDS.toMillis(end - start) + " ms");
+    }
+    System.out.println("packets: " + network.getPackets() + ", bytes: " + network.getBytes() +
+      ", dropped: " + network.getDropped());
+    System.out.println(simulator.describeDatabases());
+    System.gc();
+    Runtime runtime = Runtime.getRuntime();
+    System.out.println("heap used: " + (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + " MB");
+    if (converged >= 0) {
+      System.out.println("DATA packets delivered between random routers: " +
+        simulator.checkForwarding(DATA_PACKETS, 42) + "/" + DATA_PACKETS);
+      long validating = System.nanoTime();
+      long[] routes = simulator.validateRoutes();
+      System.out.println("routes of every router validated in " +
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - validating) + " ms on " +
+        Runtime.getRuntime().availableProcessors() + " cores: " + routes[0] + " routes, invalid: " + routes[1]);
+      long duplicates = simulator.getDuplicateLSAs();
+      long packets = network.getPackets();
+      long refreshed = simulator.refreshAll(CONVERGENCE_TIMEOUT_MILLIS);
+      duplicates = simulator.getDuplicateLSAs() - duplicates;
+      System.out.println((reduced ? "reduced" : "full") + " flooding of a refresh of every LSA: " +
+        (refreshed < 0 ? "did not converge" : refreshed + " ms") + ", packets: " + (network.getPackets() - packets) +
+        ", duplicate LSAs received: " + duplicates + String.format(" (%.2f per router and LSA)",
+        (double) duplicates / topology.size() / topology.size()));
+    }
+    simulator.close();
+  }
+}
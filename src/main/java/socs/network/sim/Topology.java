@@ -0,0 +1,219 @@
+package socs.network.sim;
+
+import socs.network.message.LSA;
+import socs.network.message.Prefix;
+import socs.network.util.IPAddress;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Routers and the links between them, either generated or read from a topology file.
+ * <p/>
+ * A topology file lists one link per line as the simulated IPs of its two ends, e.g. "192.168.1.1 192.168.1.2".
+ * Empty lines and lines starting with '#' are ignored. Generated routers are named 10.0.0.0 + index.
+ * <p/>
+ * All the routers are in the backbone unless the topology is split into areas, see splitGridIntoAreas.
+ */
+public class Topology {
+  private static final int BASE_ADDRESS = IPAddress.toInt("10.0.0.0");
+
+  private final List<String> routers = new ArrayList<>();
+  private final Map<String, Integer> indices = new HashMap<>();
+  private final List<Set<Integer>> adjacency = new ArrayList<>();
+  private final List<int[]> links = new ArrayList<>();
+  // router index => area, null while every router is in the backbone
+  private int[] areas = null;
+  // area => the prefixes summarizing it
+  private final Map<Integer, List<Prefix>> ranges = new HashMap<>();
+
+  public static String routerIP(int router) {
+    return IPAddress.toString(BASE_ADDRESS + router);
+  }
+
+  /**
+   * @param shape "ring", "grid", "random" (random spanning tree plus as many random links), "scalefree"
+   *              (Barabasi-Albert, two links per new router) or "clique" (full mesh)
+   */
+  public static Topology generate(String shape, int routers, long seed) {
+    Topology topology = new Topology();
+    for (int i = 0; i < routers; i++) {
+      topology.addRouter(routerIP(i));
+    }
+    Random random = new Random(seed);
+    switch (shape) {
+      case "ring":
+        for (int i = 0; i < routers; i++) {
+          topology.addLink(i, (i + 1) % routers);
+        }
+        break;
+      case "grid":
+        int side = (int) Math.ceil(Math.sqrt(routers));
+        for (int i = 0; i < routers; i++) {
+          if ((i + 1) % side != 0 && i + 1 < routers) topology.addLink(i, i + 1);
+          if (i + side < routers) topology.addLink(i, i + side);
+        }
+        break;
+      case "random":
+        for (int i = 1; i < routers; i++) {
+          topology.addLink(i, random.nextInt(i));
+        }
+        for (int i = 0; i < routers; i++) {
+          topology.addLink(i, random.nextInt(routers));
+        }
+        break;
+      case "scalefree":
+        // every link end is recorded once, so picking a random end is picking a router proportionally to its degree
+        int[] ends = new int[4 * routers + 6];
+        int endCount = 0;
+        for (int i = 1; i < Math.min(routers, 3); i++) {
+          for (int j = 0; j < i; j++) {
+            topology.addLink(i, j);
+            ends[endCount++] = i;
+            ends[endCount++] = j;
+          }
+        }
+        for (int i = 3; i < routers; i++) {
+          int added = 0;
+          while (added < 2) {
+            int target = ends[random.nextInt(endCount)];
+            if (topology.addLink(i, target)) {
+              ends[endCount++] = target;
+              added++;
+            }
+          }
+          ends[endCount++] = i;
+          ends[endCount++] = i;
+        }
+        break;
+      case "clique":
+        for (int i = 0; i < routers; i++) {
+          for (int j = i + 1; j < routers; j++) {
+            topology.addLink(i, j);
+          }
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown topology: " + shape);
+    }
+    return topology;
+  }
+
+  /**
+   * split a grid into areas: the first column is the backbone, which crosses every area, and the other routers are
+   * split into bands of consecutive rows. The range of a band covers the addresses from its first to its last router,
+   * including the backbone routers of its rows, whose own /32 is more specific.
+   *
+   * @param count the number of areas besides the backbone
+   */
+  public void splitGridIntoAreas(int count) {
+    int side = (int) Math.ceil(Math.sqrt(size()));
+    int rows = (size() + side - 1) / side;
+    if (count < 1 || count > rows) {
+      throw new IllegalArgumentException("Cannot split " + rows + " rows into " + count + " areas");
+    }
+    areas = new int[size()];
+    int[] first = new int[count + 1];
+    int[] last = new int[count + 1];
+    Arrays.fill(first, -1);
+    for (int i = 0; i < size(); i++) {
+      int band = (i / side) * count / rows;
+      areas[i] = i % side == 0 ? LSA.BACKBONE : band + 1;
+      if (first[band + 1] < 0) {
+        first[band + 1] = i;
+      }
+      last[band + 1] = i;
+    }
+    ranges.clear();
+    for (int area = 1; area <= count; area++) {
+      ranges.put(area, cover(IPAddress.toInt(getRouter(first[area])), IPAddress.toInt(getRouter(last[area]))));
+    }
+  }
+
+  public int getArea(int router) {
+    return areas == null ? LSA.BACKBONE : areas[router];
+  }
+
+  // the prefixes summarizing the area, empty if its routers are summarized one by one
+  public List<Prefix> getRanges(int area) {
+    List<Prefix> result = ranges.get(area);
+    return result == null ? Collections.<Prefix>emptyList() : result;
+  }
+
+  // the fewest prefixes covering exactly the addresses from first to last
+  private static List<Prefix> cover(int first, int last) {
+    List<Prefix> result = new ArrayList<>();
+    long start = first & 0xFFFFFFFFL;
+    long end = last & 0xFFFFFFFFL;
+    while (start <= end) {
+      int length = 32;
+      // the largest block aligned on start that does not go past end
+      while (length > 0 && (start & ((1L << (33 - length)) - 1)) == 0 && start + (1L << (33 - length)) - 1 <= end) {
+        length--;
+      }
+      result.add(new Prefix((int) start, length));
+      start += 1L << (32 - length);
+    }
+    return result;
+  }
+
+  public static Topology fromFile(String path) throws IOException {
+    Topology topology = new Topology();
+    try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) continue;
+        String[] ends = line.split("\\s+");
+        if (ends.length != 2) {
+          throw new IOException("Invalid link: " + line);
+        }
+        topology.addLink(topology.addRouter(ends[0]), topology.addRouter(ends[1]));
+      }
+    }
+    return topology;
+  }
+
+  // @return the index of the router, it is only added once
+  public int addRouter(String simulatedIP) {
+    Integer index = indices.get(simulatedIP);
+    if (index != null) {
+      return index;
+    }
+    indices.put(simulatedIP, routers.size());
+    routers.add(simulatedIP);
+    adjacency.add(new LinkedHashSet<>());
+    return routers.size() - 1;
+  }
+
+  // @return false for a link to the router itself or a link that already exists
+  public boolean addLink(int a, int b) {
+    if (a == b || adjacency.get(a).contains(b)) {
+      return false;
+    }
+    adjacency.get(a).add(b);
+    adjacency.get(b).add(a);
+    links.add(new int[]{a, b});
+    return true;
+  }
+
+  public int size() {
+    return routers.size();
+  }
+
+  public String getRouter(int index) {
+    return routers.get(index);
+  }
+
+  // the neighbors of the router, in the order the links were added
+  public Set<Integer> getNeighbors(int index) {
+    return Collections.unmodifiableSet(adjacency.get(index));
+  }
+
+  // the links as pairs of router indices, in the order they were added
+  public List<int[]> getLinks() {
+    return Collections.unmodifiableList(links);
+  }
+}
@@ -0,0 +1,88 @@
+package socs.network.sockets;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Packet listener with one thread per inbound connection doing blocking reads.
+ * It is meant to run on virtual threads, which are cheap enough to give every neighbor its own, the NioPacketServer
+ * is the better choice for platform threads.
+ */
+public class BlockingPacketServer implements PacketServer {
+  private final ServerSocket serverSocket;
+  private final ThreadFactory threads;
+  private final Executor dispatcher;
+  private final PacketReceiver receiver;
+  private final PacketCodec codec;
+  private final Set<SocketClient> connections = ConcurrentHashMap.newKeySet();
+  private volatile boolean closed = false;
+
+  /**
+   * @param threads    creates the accepting thread and the thread of every connection
+   * @param dispatcher runs the receiver, so the packets of all the connections are handled one at a time
+   * @param codec      only used by the connections to encode, the frames are decoded with the codec that produced them
+   */
+  public BlockingPacketServer(int port, ThreadFactory threads, Executor dispatcher, PacketReceiver receiver,
+                              PacketCodec codec) throws IOException {
+    this.serverSocket = new ServerSocket(port);
+    this.threads = threads;
+    this.dispatcher = dispatcher;
+    this.receiver = receiver;
+    this.codec = codec;
+  }
+
+  @Override
+  public void start() {
+    threads.newThread(this::accept).start();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // ignore
+    }
+    for (SocketClient connection : connections) {
+      connection.close();
+    }
+  }
+
+  private void accept() {
+    while (!closed) {
+      try {
+        Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        SocketClient connection = new SocketClient(socket, codec);
+        connections.add(connection);
+        threads.newThread(() -> read(connection)).start();
+      } catch (IOException e) {
+        // the server socket has been closed
+      }
+    }
+  }
+
+  private void read(SocketClient connection) {
+    try {
+      while (!closed && !connection.isClosed()) {
+        SOSPFPacket packet = connection.receive();
+        if (packet != null) {
+          int size = connection.getLastFrameSize();
+          dispatcher.execute(() -> receiver.receive(packet, size));
+        }
+      }
+    } finally {
+      connections.remove(connection);
+      connection.close();
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package socs.network.sockets;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.node.RouterDescription;
+import socs.network.util.Console;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one long-lived connection per neighbor, so HELLO and LSAUPDATE packets sent to the same
+ * neighbor share a single stream instead of opening a new socket for every packet.
+ * A broken connection, or one the neighbor has closed, is re-established once before the packet is dropped, and
+ * connections that have not been used for the idle timeout are closed by a single background sweeper.
+ */
+public class ConnectionPool {
+  // returned by PooledConnection.send when the connection has been closed, nothing has been sent
+  private static final int CLOSED = -2;
+
+  // neighbor's simulated IP => connection, RouterDescription is a flyweight so the IP identifies it uniquely
+  private final Map<String, PooledConnection> connections = new ConcurrentHashMap<>();
+
+  private final long idleTimeoutMillis;
+
+  private final PacketCodec codec;
+
+  private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "connection-evictor");
+    t.setDaemon(true);
+    return t;
+  });
+
+  // connection reuse metrics
+  private final AtomicLong opened = new AtomicLong();
+  private final AtomicLong reused = new AtomicLong();
+  private final AtomicLong reconnects = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  public ConnectionPool(PacketCodec codec, long idleTimeoutMillis) {
+    this.codec = codec;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    long period = Math.max(idleTimeoutMillis / 2, 1);
+    evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * send the packet to the neighbor over its pooled connection
+   *
+   * @return the size of the frame, or -1 if the packet could not be delivered even after reconnecting
+   */
+  public int send(RouterDescription dst, SOSPFPacket packet) {
+    while (true) {
+      PooledConnection conn = connections.computeIfAbsent(dst.getSimulatedIP(), k -> new PooledConnection(dst));
+      int sent = conn.send(packet);
+      if (sent != CLOSED) {
+        return sent;
+      }
+      // the connection has been closed and removed since it was looked up, the packet goes to its successor
+    }
+  }
+
+  // close the connection to the neighbor, e.g. when the link to it has been removed
+  public void close(RouterDescription dst) {
+    PooledConnection conn = connections.remove(dst.getSimulatedIP());
+    if (conn != null) {
+      conn.close();
+    }
+  }
+
+  public void shutdown() {
+    evictor.shutdownNow();
+    for (PooledConnection conn : connections.values()) {
+      conn.close();
+    }
+    connections.clear();
+  }
+
+  private void evictIdle() {
+    long now = System.currentTimeMillis();
+    for (PooledConnection conn : connections.values()) {
+      if (conn.closeIfIdle(now)) {
+        evicted.incrementAndGet();
+      }
+    }
+  }
+
+  public long getOpened() {
+    return opened.get();
+  }
+
+  public long getReused() {
+    return reused.get();
+  }
+
+  public long getReconnects() {
+    return reconnects.get();
+  }
+
+  public long getEvicted() {
+    return evicted.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  @Override
+  public String toString() {
+    return "connections: " + connections.size() + ", opened: " + opened + ", reused: " + reused +
+      ", reconnects: " + reconnects + ", evicted: " + evicted + ", failures: " + failures;
+  }
+
+  /**
+   * the connection to a single neighbor, all the senders to this neighbor are serialized on its monitor
+   */
+  private class PooledConnection {
+    private final RouterDescription dst;
+    private SocketClient client;
+    private long lastUsed;
+    // set once the connection has been removed from the pool, it must not open a socket again
+    private boolean closed = false;
+
+    PooledConnection(RouterDescription dst) {
+      this.dst = dst;
+    }
+
+    synchronized int send(SOSPFPacket packet) {
+      if (closed) {
+        return CLOSED;
+      }
+      lastUsed = System.currentTimeMillis();
+      if (client != null && client.peerClosed()) {
+        // the neighbor has closed the connection (e.g. it restarted), the frame would be silently lost
+        discard();
+        reconnects.incrementAndGet();
+      }
+      if (client != null) {
+        try {
+          int sent = client.send(packet);
+          // only counted once the connection has proved to work, a broken one is counted as a reconnect
+          reused.incrementAndGet();
+          return sent;
+        } catch (IOException e) {
+          // the pooled connection is broken (e.g. the neighbor restarted), reconnect once and resend
+          discard();
+          reconnects.incrementAndGet();
+        }
+      }
+      try {
+        open();
+        return client.send(packet);
+      } catch (IOException e) {
+        discard();
+        failures.incrementAndGet();
+        Console.log("Failed to send packet to " + dst.getSimulatedIP() + ": " + e.getMessage(), true);
+        return -1;
+      }
+    }
+
+    synchronized boolean closeIfIdle(long now) {
+      if (client != null && now - lastUsed >= idleTimeoutMillis) {
+        discard();
+        return true;
+      }
+      return false;
+    }
+
+    synchronized void close() {
+      closed = true;
+      discard();
+    }
+
+    private void open() throws IOException {
+      client = new SocketClient(dst.getProcessIP(), dst.getProcessPort(), codec);
+      opened.incrementAndGet();
+    }
+
+    private void discard() {
+      if (client != null) {
+        client.close();
+        client = null;
+      }
+    }
+  }
+}
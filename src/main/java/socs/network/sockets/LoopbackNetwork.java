@@ -0,0 +1,181 @@
+package socs.network.sockets;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.node.RouterDescription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory network connecting the routers of one JVM, used by the simulator.
+ * <p/>
+ * The routers are addressed by their simulated IP. A packet is encoded by the sender right away, so the receiver
+ * gets its own copy of the LSAs as they were when the packet was sent, exactly like over TCP. The packets of a
+ * router are handled one at a time, in the order they were sent, by a thread pool shared by all the routers, so
+ * thousands of routers do not need thousands of threads.
+ */
+public class LoopbackNetwork {
+  // packets handled by a router before its turn goes to the next one
+  private static final int BATCH_SIZE = 64;
+
+  private final PacketCodec codec;
+  private final Executor executor;
+
+  // simulated IP => receiving side of the router
+  private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+  private final AtomicLong inFlight = new AtomicLong();
+  private final AtomicLong packets = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * @param executor runs the packet handlers of all the routers
+   */
+  public LoopbackNetwork(PacketCodec codec, Executor executor) {
+    this.codec = codec;
+    this.executor = executor;
+  }
+
+  // the transport of a new router attached to this network
+  public PacketTransport newTransport() {
+    return new LoopbackTransport();
+  }
+
+  // true when every sent packet has been handled
+  public boolean isIdle() {
+    return inFlight.get() == 0;
+  }
+
+  public long getPackets() {
+    return packets.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  // packets sent to an unknown router or that could not be encoded or decoded
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * the queue of the packets sent to one router, it is drained by at most one pool thread at a time
+   */
+  private class Endpoint implements Runnable {
+    private final PacketReceiver receiver;
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed = false;
+
+    Endpoint(PacketReceiver receiver) {
+      this.receiver = receiver;
+    }
+
+    void deliver(ByteBuffer frame) {
+      queue.add(frame);
+      schedule();
+    }
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        executor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      ByteBuffer frame;
+      for (int i = 0; i < BATCH_SIZE && (frame = queue.poll()) != null; i++) {
+        try {
+          if (!closed) {
+            int size = frame.remaining();
+            receiver.receive(codec.decode(frame), size);
+          }
+        } catch (IOException e) {
+          dropped.incrementAndGet();
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+        } finally {
+          inFlight.decrementAndGet();
+        }
+      }
+      scheduled.set(false);
+      // a packet may have been queued after the last poll
+      if (!queue.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+
+  private class LoopbackTransport implements PacketTransport {
+    private String localIP;
+    private Endpoint endpoint;
+
+    @Override
+    public void start(RouterDescription local, PacketReceiver receiver) {
+      localIP = local.getSimulatedIP();
+      endpoint = new Endpoint(receiver);
+      endpoints.put(localIP, endpoint);
+    }
+
+    @Override
+    public PacketCodec getCodec() {
+      return codec;
+    }
+
+    @Override
+    public int send(RouterDescription dst, SOSPFPacket packet) {
+      Endpoint target = endpoints.get(dst.getSimulatedIP());
+      if (target == null) {
+        dropped.incrementAndGet();
+        return -1;
+      }
+      ByteBuffer frame;
+      try {
+        frame = codec.encode(packet, ByteBuffer.allocate(256));
+      } catch (IOException e) {
+        dropped.incrementAndGet();
+        return -1;
+      }
+      int size = frame.remaining();
+      inFlight.incrementAndGet();
+      packets.incrementAndGet();
+      bytes.addAndGet(size);
+      target.deliver(frame);
+      return size;
+    }
+
+    @Override
+    public void close(RouterDescription dst) {
+      // there is no connection to release
+    }
+
+    @Override
+    public void stopReceiving() {
+      if (endpoint != null) {
+        endpoints.remove(localIP, endpoint);
+        endpoint.closed = true;
+      }
+    }
+
+    @Override
+    public void shutdown() {
+      stopReceiving();
+    }
+
+    @Override
+    public String toString() {
+      return "loopback";
+    }
+  }
+}
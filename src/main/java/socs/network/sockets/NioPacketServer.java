@@ -0,0 +1,226 @@
+package socs.network.sockets;
+
+import socs.network.message.PacketCodecs;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.Console;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking packet listener.
+ * A fixed number of I/O threads, each running its own selector, serve all the inbound connections. The first
+ * I/O thread also accepts the connections and hands them out round-robin. Length-prefixed frames are read into a
+ * direct buffer per connection, decoded there and passed to the dispatcher, so the number of threads stays the same
+ * no matter how many neighbors are connected.
+ */
+public class NioPacketServer implements PacketServer {
+  private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+  private final ServerSocketChannel serverChannel;
+  private final IOLoop[] loops;
+  private final Executor dispatcher;
+  private final PacketReceiver receiver;
+  private int nextLoop = 0;
+
+  /**
+   * @param ioThreads  the number of selector threads
+   * @param dispatcher runs the receiver, so that a slow handler does not stall the I/O threads
+   * @param receiver   called with every decoded packet, in the order the packets arrive on a connection
+   */
+  public NioPacketServer(int port, int ioThreads, Executor dispatcher, PacketReceiver receiver)
+    throws IOException {
+    this.dispatcher = dispatcher;
+    this.receiver = receiver;
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(port));
+    serverChannel.configureBlocking(false);
+    loops = new IOLoop[Math.max(ioThreads, 1)];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new IOLoop("packet-io-" + i);
+    }
+    serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+  }
+
+  @Override
+  public void start() {
+    for (IOLoop loop : loops) {
+      loop.start();
+    }
+  }
+
+  @Override
+  public void close() {
+    for (IOLoop loop : loops) {
+      loop.interrupt();
+      loop.selector.wakeup();
+    }
+    try {
+      serverChannel.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private void accept() {
+    try {
+      SocketChannel channel;
+      while ((channel = serverChannel.accept()) != null) {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        IOLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        loop.pending.add(channel);
+        loop.selector.wakeup();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * read state of a single inbound connection, only accessed by the I/O thread that owns it
+   */
+  private static class Connection {
+    final SocketChannel channel;
+    ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE); // kept in write mode
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+  }
+
+  private class IOLoop extends Thread {
+    private final Selector selector;
+    // channels accepted by the first loop and waiting to be registered with this one
+    private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+    IOLoop(String name) throws IOException {
+      super(name);
+      setDaemon(true);
+      selector = Selector.open();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!isInterrupted()) {
+          selector.select();
+          registerPending();
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) continue;
+            if (key.isAcceptable()) {
+              accept();
+            } else if (key.isReadable()) {
+              read(key);
+            }
+          }
+        }
+      } catch (IOException | ClosedSelectorException e) {
+        // the server is shutting down
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          closeQuietly(key.channel());
+        }
+        closeQuietly(selector);
+      }
+    }
+
+    private void registerPending() {
+      SocketChannel channel;
+      while ((channel = pending.poll()) != null) {
+        try {
+          channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+        } catch (ClosedChannelException e) {
+          // the peer went away before the channel was registered
+        }
+      }
+    }
+
+    private void read(SelectionKey key) {
+      Connection conn = (Connection) key.attachment();
+      try {
+        if (conn.channel.read(conn.buffer) < 0) {
+          close(key);
+          return;
+        }
+      } catch (IOException e) {
+        close(key);
+        return;
+      }
+      ByteBuffer buffer = conn.buffer;
+      buffer.flip();
+      while (buffer.remaining() >= 4) {
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        if (length < 0 || length > SocketClient.MAX_FRAME_SIZE) {
+          // the stream is out of sync, it cannot be recovered
+          close(key);
+          return;
+        }
+        if (buffer.remaining() < 4 + length) {
+          break;
+        }
+        ByteBuffer frame = buffer.duplicate();
+        frame.position(start + 4).limit(start + 4 + length);
+        if (!dispatch(frame)) {
+          close(key);
+          return;
+        }
+        buffer.position(start + 4 + length);
+      }
+      int missing = buffer.remaining() >= 4 ? 4 + buffer.getInt(buffer.position()) : 0;
+      buffer.compact();
+      if (buffer.position() == 0 && buffer.capacity() > INITIAL_BUFFER_SIZE) {
+        // a large frame has been consumed, give the memory back
+        conn.buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+      } else if (missing > buffer.capacity()) {
+        // the frame in progress does not fit, grow the buffer to hold it completely
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(missing, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        conn.buffer = larger;
+      }
+    }
+
+    // @return false if the connection must be closed, the other connections of the loop are still served
+    private boolean dispatch(ByteBuffer frame) {
+      SOSPFPacket packet;
+      int size = 4 + frame.remaining();
+      try {
+        packet = PacketCodecs.decode(frame);
+        dispatcher.execute(() -> receiver.receive(packet, size));
+      } catch (IOException e) {
+        // a malformed frame, the following frames can still be read
+      } catch (RuntimeException e) {
+        // a frame the codec did not expect, the peer is not trusted anymore
+        Console.log("Closed a connection after an undecodable frame: " + e, true);
+        return false;
+      }
+      return true;
+    }
+
+    private void close(SelectionKey key) {
+      key.cancel();
+      closeQuietly(key.channel());
+    }
+
+    private void closeQuietly(Closeable closeable) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package socs.network.sockets;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * Receives the packets delivered by a transport.
+ */
+public interface PacketReceiver {
+
+  /**
+   * @param size the number of bytes the packet took on the transport
+   */
+  public void receive(SOSPFPacket packet, int size);
+}
@@ -0,0 +1,11 @@
+package socs.network.sockets;
+
+/**
+ * Listens on the process port and delivers the packets of all the inbound connections to a PacketReceiver.
+ */
+public interface PacketServer {
+
+  public void start();
+
+  public void close();
+}
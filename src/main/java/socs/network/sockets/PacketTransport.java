@@ -0,0 +1,38 @@
+package socs.network.sockets;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.node.RouterDescription;
+
+import java.io.IOException;
+
+/**
+ * Moves the packets between routers. A router only reaches its neighbors through its transport, so the same router
+ * code runs over TCP sockets (TcpTransport) or inside the in-memory network of the simulator (LoopbackNetwork).
+ */
+public interface PacketTransport {
+
+  /**
+   * start receiving the packets sent to the local router
+   *
+   * @param receiver called with every received packet, one packet at a time and in the order they arrive
+   */
+  public void start(RouterDescription local, PacketReceiver receiver) throws IOException;
+
+  /**
+   * @return the number of bytes sent, or -1 if the packet could not be delivered
+   */
+  public int send(RouterDescription dst, SOSPFPacket packet);
+
+  // the codec encoding the sent packets
+  public PacketCodec getCodec();
+
+  // release what is kept for the neighbor, e.g. when the link to it has been removed
+  public void close(RouterDescription dst);
+
+  // stop receiving packets, the packets can still be sent
+  public void stopReceiving();
+
+  // stop receiving and release everything
+  public void shutdown();
+}
@@ -1,73 +1,153 @@
 package socs.network.sockets;
 
+import socs.network.message.PacketCodec;
+import socs.network.message.PacketCodecs;
 import socs.network.message.SOSPFPacket;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
 
+/**
+ * Each packet is sent as a length-prefixed frame: a 4-byte payload length followed by the payload
+ * produced by the packet codec. The encode and decode buffers are reused across packets.
+ */
 public class SocketClient {
+  // upper bound of a frame, anything larger is treated as a corrupted stream
+  public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
   private Socket socket;
-  private ObjectInputStream in;
-  private ObjectOutputStream out;
+  private DataInputStream in;
+  private DataOutputStream out;
+  private final PacketCodec codec;
+  private ByteBuffer sendBuffer = ByteBuffer.allocate(1024);
+  private ByteBuffer receiveBuffer = ByteBuffer.allocate(1024);
+  private volatile boolean closed = false;
+  private int lastFrameSize = 0;
 
 
-  public SocketClient(String pHost, int pPort) {
-    try {
-      socket = new Socket(pHost, pPort);
-      initStream();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+  public SocketClient(String pHost, int pPort, PacketCodec codec) throws IOException {
+    this.codec = codec;
+    // opened through a channel, so peerClosed can look at the connection without blocking
+    socket = SocketChannel.open(new InetSocketAddress(pHost, pPort)).socket();
+    socket.setTcpNoDelay(true);
+    initStream();
   }
 
-  public SocketClient(Socket socket) {
+  public SocketClient(Socket socket, PacketCodec codec) {
+    this.codec = codec;
     this.socket = socket;
     try {
       initStream();
     } catch (IOException e) {
       e.printStackTrace();
+      closed = true;
     }
   }
 
 
-  public void send(SOSPFPacket packet) {
+  // @return the size of the frame, including its length prefix
+  public int send(SOSPFPacket packet) throws IOException {
+    sendBuffer = codec.encode(packet, sendBuffer);
+    int length = sendBuffer.remaining();
+    out.writeInt(length);
+    out.write(sendBuffer.array(), sendBuffer.arrayOffset() + sendBuffer.position(), length);
+    out.flush();
+    return 4 + length;
+  }
+
+  /**
+   * @return null if the frame does not hold a valid SOSPFPacket or the stream has been closed
+   */
+  public SOSPFPacket receive() {
     try {
-      out.writeObject(packet);
+      int length = in.readInt();
+      if (length < 0 || length > MAX_FRAME_SIZE) {
+        // the stream is out of sync, it cannot be recovered
+        close();
+        return null;
+      }
+      if (receiveBuffer.capacity() < length) {
+        receiveBuffer = ByteBuffer.allocate(Math.max(length, receiveBuffer.capacity() * 2));
+      }
+      receiveBuffer.clear();
+      in.readFully(receiveBuffer.array(), 0, length);
+      receiveBuffer.limit(length);
+      lastFrameSize = 4 + length;
+      try {
+        return PacketCodecs.decode(receiveBuffer);
+      } catch (IOException e) {
+        // a malformed frame, the next frame can still be read
+        return null;
+      }
     } catch (IOException e) {
-      e.printStackTrace();
+      // the peer has closed the connection
+      closed = true;
     }
+    return null;
+  }
+
+  // the size of the last frame read by receive, including its length prefix
+  public int getLastFrameSize() {
+    return lastFrameSize;
+  }
+
+  public boolean isClosed() {
+    return closed;
   }
 
   /**
-   * @return null if the packet is not an instance of SOSPFPacket
+   * check without blocking whether the peer has closed a connection that is only used to send, since writing into
+   * a connection closed by the peer succeeds once and the frame is lost
    */
-  public SOSPFPacket receive() {
+  public boolean peerClosed() {
+    SocketChannel channel = socket.getChannel();
+    if (closed || channel == null) {
+      return closed;
+    }
     try {
-      Object obj = in.readObject();
-      if (obj instanceof SOSPFPacket) {
-        return (SOSPFPacket) obj;
+      channel.configureBlocking(false);
+      try {
+        // the peer never sends anything on this connection, whatever it sends is dropped
+        ByteBuffer probe = ByteBuffer.allocate(64);
+        while (true) {
+          int read = channel.read(probe);
+          if (read < 0) {
+            closed = true;
+          }
+          if (read <= 0) {
+            break;
+          }
+          probe.clear();
+        }
+      } finally {
+        channel.configureBlocking(true);
       }
-    } catch (IOException | ClassNotFoundException e) {
-      // ignore
+    } catch (IOException e) {
+      // e.g. the connection has been reset
+      closed = true;
     }
-    return null;
+    return closed;
   }
 
   public void close() {
+    closed = true;
     try {
-      in.close();
-      out.close();
+      if (in != null) in.close();
+      if (out != null) out.close();
       socket.close();
     } catch (IOException e) {
-      e.printStackTrace();
+      // ignore, the connection is discarded anyway
     }
   }
 
 
   private void initStream() throws IOException {
-    out = new ObjectOutputStream(socket.getOutputStream());
-    in = new ObjectInputStream(socket.getInputStream());
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
   }
 
 }
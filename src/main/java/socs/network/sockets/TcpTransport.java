@@ -0,0 +1,92 @@
+package socs.network.sockets;
+
+import socs.network.message.PacketCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.node.RouterDescription;
+import socs.network.util.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The transport of a router running in its own process: packets are received by a PacketServer on the process
+ * port and sent over the pooled connections of a ConnectionPool.
+ * With platform threads a NioPacketServer serves all the connections with a few selector threads, with virtual
+ * threads a BlockingPacketServer gives every connection its own virtual thread.
+ */
+public class TcpTransport implements PacketTransport {
+  private final ConnectionPool connectionPool;
+  private final PacketCodec codec;
+  private final int ioThreads;
+  private final String threadMode;
+
+  // runs the receiver in the order the packets are received
+  private final ExecutorService packetDispatcher = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "packet-dispatcher");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private PacketServer packetServer;
+
+  /**
+   * @param ioThreads  the number of selector threads of the NioPacketServer, only used with platform threads
+   * @param threadMode Threads.PLATFORM or Threads.VIRTUAL
+   */
+  public TcpTransport(PacketCodec codec, long idleTimeoutMillis, int ioThreads, String threadMode) {
+    this.connectionPool = new ConnectionPool(codec, idleTimeoutMillis);
+    this.codec = codec;
+    this.ioThreads = ioThreads;
+    this.threadMode = threadMode;
+  }
+
+  @Override
+  public void start(RouterDescription local, PacketReceiver receiver) throws IOException {
+    if (Threads.VIRTUAL.equals(threadMode) && Threads.virtualThreadsSupported()) {
+      packetServer = new BlockingPacketServer(local.getProcessPort(), Threads.factory(threadMode, "packet-reader"),
+        packetDispatcher, receiver, codec);
+    } else {
+      packetServer = new NioPacketServer(local.getProcessPort(), ioThreads, packetDispatcher, receiver);
+    }
+    packetServer.start();
+  }
+
+  @Override
+  public PacketCodec getCodec() {
+    return codec;
+  }
+
+  @Override
+  public int send(RouterDescription dst, SOSPFPacket packet) {
+    return connectionPool.send(dst, packet);
+  }
+
+  @Override
+  public void close(RouterDescription dst) {
+    connectionPool.close(dst);
+  }
+
+  @Override
+  public void stopReceiving() {
+    if (packetServer != null) {
+      packetServer.close();
+    }
+    packetDispatcher.shutdownNow();
+  }
+
+  @Override
+  public void shutdown() {
+    stopReceiving();
+    connectionPool.shutdown();
+  }
+
+  public ConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  @Override
+  public String toString() {
+    return "tcp, " + connectionPool;
+  }
+}
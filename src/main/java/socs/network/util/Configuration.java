@@ -15,6 +15,11 @@ public class Configuration {
     _config = ConfigFactory.parseFile(new File(path));
   }
 
+  // an empty configuration, the entries are added with addEntry, e.g. for routers created by the simulator
+  public Configuration() {
+    _config = ConfigFactory.empty();
+  }
+
   public String getString(String key) {
     return _config.getString(key);
   }
@@ -35,6 +40,23 @@ public class Configuration {
     return _config.getDouble(key);
   }
 
+  public boolean hasPath(String key) {
+    return _config.hasPath(key);
+  }
+
+  // optional entries fall back to the given default value when they are absent from the config file
+  public int getInt(String key, int defaultValue) {
+    return _config.hasPath(key) ? _config.getInt(key) : defaultValue;
+  }
+
+  public long getLong(String key, long defaultValue) {
+    return _config.hasPath(key) ? _config.getLong(key) : defaultValue;
+  }
+
+  public boolean getBoolean(String key, boolean defaultValue) {
+    return _config.hasPath(key) ? _config.getBoolean(key) : defaultValue;
+  }
+
   public void addEntry(String key, String value) {
     _config = _config.withValue(key, ConfigValueFactory.fromAnyRef(value));
   }
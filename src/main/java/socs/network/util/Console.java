@@ -1,7 +1,19 @@
 package socs.network.util;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.function.Consumer;
+
 public class Console {
 
+  // nothing is printed in quiet mode, e.g. when the simulator runs thousands of routers in the same JVM
+  private static volatile boolean quiet = false;
+
+  public static void setQuiet(boolean quiet) {
+    Console.quiet = quiet;
+  }
+
   /**
    * Log a message to the console with carriage return
    *
@@ -11,6 +23,9 @@ public class Console {
    *              set it false if the message is an active request from the user
    */
   public static void log(String str, boolean arrow) {
+    if (quiet) {
+      return;
+    }
     synchronized (Console.class) {
       System.out.println(str);
       if (arrow) {
@@ -19,7 +34,26 @@ public class Console {
     }
   }
 
+  /**
+   * Log a long output line by line through a buffered writer, without building it as one string; the other
+   * messages wait until it is written
+   */
+  public static void logLines(Consumer<PrintWriter> lines) {
+    if (quiet) {
+      return;
+    }
+    synchronized (Console.class) {
+      // System.out must stay open, so the writer is only flushed
+      PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+      lines.accept(writer);
+      writer.flush();
+    }
+  }
+
   public static void logOneLine(String str) {
+    if (quiet) {
+      return;
+    }
     synchronized (Console.class) {
       System.out.print(str);
     }
@@ -0,0 +1,55 @@
+package socs.network.util;
+
+/**
+ * Conversions between dotted-quad IPv4 addresses and their 32-bit representation.
+ */
+public class IPAddress {
+
+  // @return true if the address is a well formed dotted-quad IPv4 address
+  public static boolean isIPv4(String address) {
+    if (address == null) {
+      return false;
+    }
+    int octets = 0;
+    int value = -1;
+    for (int i = 0; i < address.length(); i++) {
+      char c = address.charAt(i);
+      if (c == '.') {
+        if (value < 0 || ++octets > 3) return false;
+        value = -1;
+      } else if (c >= '0' && c <= '9') {
+        value = (value < 0 ? 0 : value * 10) + (c - '0');
+        if (value > 255) return false;
+      } else {
+        return false;
+      }
+    }
+    return octets == 3 && value >= 0;
+  }
+
+  /**
+   * @throws IllegalArgumentException if the address is not a dotted-quad IPv4 address
+   */
+  public static int toInt(String address) {
+    if (!isIPv4(address)) {
+      throw new IllegalArgumentException("Not an IPv4 address: " + address);
+    }
+    int result = 0;
+    int value = 0;
+    for (int i = 0; i < address.length(); i++) {
+      char c = address.charAt(i);
+      if (c == '.') {
+        result = (result << 8) | value;
+        value = 0;
+      } else {
+        value = value * 10 + (c - '0');
+      }
+    }
+    return (result << 8) | value;
+  }
+
+  public static String toString(int address) {
+    return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." +
+      ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+  }
+}
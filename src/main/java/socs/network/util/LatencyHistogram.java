@@ -0,0 +1,80 @@
+package socs.network.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with power-of-two buckets in nanoseconds.
+ * Recording is lock-free and contention-free (one LongAdder per bucket), so it can be called on every packet.
+ * The percentiles are approximated by the upper bound of their bucket, so they are at most twice the real value.
+ */
+public class LatencyHistogram {
+  private static final int BUCKETS = 64;
+
+  // bucket i holds the durations in [2^i, 2^(i+1)) ns, bucket 0 also holds 0
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    buckets[nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos)].increment();
+    count.increment();
+    total.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMeanNanos() {
+    long n = count.sum();
+    return n == 0 ? 0 : total.sum() / n;
+  }
+
+  public long getMaxNanos() {
+    return max.get();
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   */
+  public long getPercentileNanos(double percentile) {
+    long n = count.sum();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(n * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets[i].sum();
+      if (seen >= Math.max(rank, 1)) {
+        long upperBound = i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+        return Math.min(upperBound, max.get());
+      }
+    }
+    return max.get();
+  }
+
+  @Override
+  public String toString() {
+    return "count: " + getCount() + ", mean: " + micros(getMeanNanos()) + ", p50: " +
+      micros(getPercentileNanos(50)) + ", p99: " + micros(getPercentileNanos(99)) + ", max: " +
+      micros(getMaxNanos()) + " (us)";
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
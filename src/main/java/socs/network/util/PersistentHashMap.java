@@ -0,0 +1,412 @@
+package socs.network.util;
+
+import java.util.*;
+
+/**
+ * Immutable hash map (a hash array mapped trie). put and remove return a new map that shares all the unchanged
+ * branches with the old one, so a change only copies the O(log32 n) nodes on the path to the key and every version
+ * stays valid and consistent for the threads still reading it.
+ * <p/>
+ * Null keys and null values are not supported.
+ */
+public final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+  private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<>(null, 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentHashMap<K, V> empty() {
+    return (PersistentHashMap<K, V>) EMPTY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(K key) {
+    if (root == null) {
+      return null;
+    }
+    Leaf leaf = root.find(0, hash(key), key);
+    return leaf == null ? null : (V) leaf.value;
+  }
+
+  public boolean containsKey(K key) {
+    return get(key) != null;
+  }
+
+  // @return a map with the value set for the key, this map if the key already maps to the same value
+  public PersistentHashMap<K, V> put(K key, V value) {
+    Objects.requireNonNull(value);
+    Leaf leaf = new Leaf(hash(key), key, value);
+    if (root == null) {
+      return new PersistentHashMap<>(new BitmapNode(0, leaf.hash, leaf), 1);
+    }
+    boolean[] added = new boolean[1];
+    Node newRoot = root.put(0, leaf, added);
+    return newRoot == root ? this : new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  // @return a map without the key, this map if the key was not there
+  public PersistentHashMap<K, V> remove(K key) {
+    if (root == null) {
+      return this;
+    }
+    Node newRoot = root.remove(0, hash(key), key);
+    if (newRoot == root) {
+      return this;
+    }
+    return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+  }
+
+  // the entries in no particular order
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    return new EntryIterator<>(root);
+  }
+
+  public Iterable<K> keys() {
+    return () -> {
+      Iterator<Map.Entry<K, V>> entries = iterator();
+      return new Iterator<K>() {
+        @Override
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        @Override
+        public K next() {
+          return entries.next().getKey();
+        }
+      };
+    };
+  }
+
+  // an unmodifiable view of the values of this version of the map
+  public Collection<V> values() {
+    return new AbstractCollection<V>() {
+      @Override
+      public Iterator<V> iterator() {
+        Iterator<Map.Entry<K, V>> entries = PersistentHashMap.this.iterator();
+        return new Iterator<V>() {
+          @Override
+          public boolean hasNext() {
+            return entries.hasNext();
+          }
+
+          @Override
+          public V next() {
+            return entries.next().getValue();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    // spread the low bits, which pick the branch at the top of the trie
+    return h ^ (h >>> 16);
+  }
+
+  private static int fragment(int hash, int shift) {
+    return (hash >>> shift) & 31;
+  }
+
+  private abstract static class Node {
+    abstract Leaf find(int shift, int hash, Object key);
+
+    abstract Node put(int shift, Leaf leaf, boolean[] added);
+
+    // @return the node without the key, null if it is left empty
+    abstract Node remove(int shift, int hash, Object key);
+  }
+
+  private static final class Leaf implements Map.Entry<Object, Object> {
+    final int hash;
+    final Object key;
+    final Object value;
+
+    Leaf(int hash, Object key, Object value) {
+      this.hash = hash;
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    public Object getKey() {
+      return key;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * up to 32 slots, one per 5-bit fragment of the hash; the bitmap tells which are used and the slots are packed,
+   * every slot holds either a Leaf or a child Node
+   */
+  private static final class BitmapNode extends Node {
+    final int bitmap;
+    final Object[] slots;
+
+    BitmapNode(int bitmap, Object[] slots) {
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+
+    BitmapNode(int shift, int hash, Object slot) {
+      this(1 << fragment(hash, shift), new Object[]{slot});
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Leaf find(int shift, int hash, Object key) {
+      int bit = 1 << fragment(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      Object slot = slots[index(bit)];
+      if (slot instanceof Leaf) {
+        Leaf leaf = (Leaf) slot;
+        return leaf.hash == hash && leaf.key.equals(key) ? leaf : null;
+      }
+      return ((Node) slot).find(shift + 5, hash, key);
+    }
+
+    @Override
+    Node put(int shift, Leaf leaf, boolean[] added) {
+      int bit = 1 << fragment(leaf.hash, shift);
+      int i = index(bit);
+      if ((bitmap & bit) == 0) {
+        Object[] copy = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, copy, 0, i);
+        copy[i] = leaf;
+        System.arraycopy(slots, i, copy, i + 1, slots.length - i);
+        added[0] = true;
+        return new BitmapNode(bitmap | bit, copy);
+      }
+      Object slot = slots[i];
+      Object replacement;
+      if (slot instanceof Leaf) {
+        Leaf old = (Leaf) slot;
+        if (old.hash == leaf.hash && old.key.equals(leaf.key)) {
+          if (old.value == leaf.value) {
+            return this;
+          }
+          replacement = leaf;
+        } else {
+          added[0] = true;
+          replacement = merge(shift + 5, old, leaf);
+        }
+      } else {
+        Node child = (Node) slot;
+        replacement = child.put(shift + 5, leaf, added);
+        if (replacement == child) {
+          return this;
+        }
+      }
+      Object[] copy = slots.clone();
+      copy[i] = replacement;
+      return new BitmapNode(bitmap, copy);
+    }
+
+    @Override
+    Node remove(int shift, int hash, Object key) {
+      int bit = 1 << fragment(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int i = index(bit);
+      Object slot = slots[i];
+      Object replacement;
+      if (slot instanceof Leaf) {
+        Leaf leaf = (Leaf) slot;
+        if (leaf.hash != hash || !leaf.key.equals(key)) {
+          return this;
+        }
+        replacement = null;
+      } else {
+        Node child = (Node) slot;
+        Node newChild = child.remove(shift + 5, hash, key);
+        if (newChild == child) {
+          return this;
+        }
+        replacement = newChild;
+        // a branch left with a single entry is pulled up
+        if (newChild instanceof BitmapNode && ((BitmapNode) newChild).slots.length == 1 &&
+          ((BitmapNode) newChild).slots[0] instanceof Leaf) {
+          replacement = ((BitmapNode) newChild).slots[0];
+        }
+      }
+      if (replacement != null) {
+        Object[] copy = slots.clone();
+        copy[i] = replacement;
+        return new BitmapNode(bitmap, copy);
+      }
+      if (slots.length == 1) {
+        return null;
+      }
+      Object[] copy = new Object[slots.length - 1];
+      System.arraycopy(slots, 0, copy, 0, i);
+      System.arraycopy(slots, i + 1, copy, i, slots.length - i - 1);
+      return new BitmapNode(bitmap & ~bit, copy);
+    }
+
+    // the smallest branch holding two leaves with different keys
+    private static Node merge(int shift, Leaf a, Leaf b) {
+      if (a.hash == b.hash) {
+        return new CollisionNode(a.hash, new Leaf[]{a, b});
+      }
+      int fa = fragment(a.hash, shift);
+      int fb = fragment(b.hash, shift);
+      if (fa == fb) {
+        return new BitmapNode(shift, a.hash, merge(shift + 5, a, b));
+      }
+      Object[] slots = fa < fb ? new Object[]{a, b} : new Object[]{b, a};
+      return new BitmapNode((1 << fa) | (1 << fb), slots);
+    }
+  }
+
+  // the keys sharing the same full hash, compared one by one
+  private static final class CollisionNode extends Node {
+    final int hash;
+    final Leaf[] leaves;
+
+    CollisionNode(int hash, Leaf[] leaves) {
+      this.hash = hash;
+      this.leaves = leaves;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < leaves.length; i++) {
+        if (leaves[i].key.equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Leaf find(int shift, int hash, Object key) {
+      int i = hash == this.hash ? indexOf(key) : -1;
+      return i < 0 ? null : leaves[i];
+    }
+
+    @Override
+    Node put(int shift, Leaf leaf, boolean[] added) {
+      if (leaf.hash != hash) {
+        // nest this node in a bitmap node, then add the leaf next to it
+        return new BitmapNode(shift, hash, this).put(shift, leaf, added);
+      }
+      int i = indexOf(leaf.key);
+      if (i >= 0) {
+        if (leaves[i].value == leaf.value) {
+          return this;
+        }
+        Leaf[] copy = leaves.clone();
+        copy[i] = leaf;
+        return new CollisionNode(hash, copy);
+      }
+      Leaf[] copy = Arrays.copyOf(leaves, leaves.length + 1);
+      copy[leaves.length] = leaf;
+      added[0] = true;
+      return new CollisionNode(hash, copy);
+    }
+
+    @Override
+    Node remove(int shift, int hash, Object key) {
+      int i = hash == this.hash ? indexOf(key) : -1;
+      if (i < 0) {
+        return this;
+      }
+      if (leaves.length == 1) {
+        return null;
+      }
+      Leaf[] copy = new Leaf[leaves.length - 1];
+      System.arraycopy(leaves, 0, copy, 0, i);
+      System.arraycopy(leaves, i + 1, copy, i, leaves.length - i - 1);
+      return new CollisionNode(hash, copy);
+    }
+  }
+
+  // depth-first walk of the trie with an explicit stack, a 32-bit hash gives at most 7 bitmap levels
+  private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+    private final Object[][] stack = new Object[9][];
+    private final int[] positions = new int[9];
+    private int depth = -1;
+    private Leaf next;
+
+    EntryIterator(Node root) {
+      if (root != null) {
+        push(root);
+        advance();
+      }
+    }
+
+    private void push(Node node) {
+      depth++;
+      stack[depth] = node instanceof BitmapNode ? ((BitmapNode) node).slots : ((CollisionNode) node).leaves;
+      positions[depth] = 0;
+    }
+
+    private void advance() {
+      next = null;
+      while (depth >= 0) {
+        Object[] slots = stack[depth];
+        if (positions[depth] == slots.length) {
+          stack[depth--] = null;
+          continue;
+        }
+        Object slot = slots[positions[depth]++];
+        if (slot instanceof Leaf) {
+          next = (Leaf) slot;
+          return;
+        }
+        push((Node) slot);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map.Entry<K, V> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<K, V> entry = (Map.Entry<K, V>) (Map.Entry<?, ?>) next;
+      advance();
+      return entry;
+    }
+  }
+}
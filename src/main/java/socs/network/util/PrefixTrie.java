@@ -0,0 +1,149 @@
+package socs.network.util;
+
+import java.util.Arrays;
+
+/**
+ * Longest-prefix-match table over 32-bit addresses, compiled into a 16-8-8 multibit trie.
+ * <p/>
+ * The first 16 bits of an address index a root array of 65536 entries, the next two bytes index chunks of 256
+ * entries, so a lookup reads at most three array entries and never compares a prefix. A prefix whose length is not a
+ * stride boundary is expanded into all the entries it covers (controlled prefix expansion); the prefixes are inserted
+ * from the shortest to the longest, so a longer prefix simply overwrites the entries of the shorter ones it is nested
+ * in. An entry is 0 (no route), value + 1 (a leaf) or ~offset (a chunk). The trie is immutable once built.
+ */
+public final class PrefixTrie {
+  public static final int NO_ROUTE = -1;
+
+  private static final int ROOT_BITS = 16;
+  private static final int CHUNK_BITS = 8;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  private final int[] root;
+  private final int[] chunks;
+  private final int size;
+
+  private PrefixTrie(int[] root, int[] chunks, int size) {
+    this.root = root;
+    this.chunks = chunks;
+    this.size = size;
+  }
+
+  // @return the value of the longest prefix containing the address, NO_ROUTE if there is none
+  public int lookup(int address) {
+    int entry = root[address >>> ROOT_BITS];
+    if (entry < 0) {
+      entry = chunks[~entry + ((address >>> CHUNK_BITS) & 0xFF)];
+      if (entry < 0) {
+        entry = chunks[~entry + (address & 0xFF)];
+      }
+    }
+    return entry - 1;
+  }
+
+  // the number of distinct prefixes
+  public int size() {
+    return size;
+  }
+
+  public int getChunkCount() {
+    return chunks.length / CHUNK_SIZE;
+  }
+
+  // the size of the arrays
+  public long getMemoryBytes() {
+    return 4L * (root.length + chunks.length);
+  }
+
+  @Override
+  public String toString() {
+    return size + " prefixes, " + getChunkCount() + " chunks, " + getMemoryBytes() / 1024 + " KB";
+  }
+
+  /**
+   * collects the prefixes, the same prefix added twice keeps the last value
+   */
+  public static final class Builder {
+    private long[] prefixes = new long[16];
+    private int[] values = new int[16];
+    private int count = 0;
+
+    /**
+     * @param value 0 or more
+     * @throws IllegalArgumentException if the length is not between 0 and 32 or the value is negative
+     */
+    public Builder add(int address, int length, int value) {
+      if (length < 0 || length > 32 || value < 0 || value == Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Invalid prefix length " + length + " or value " + value);
+      }
+      if (count == prefixes.length) {
+        prefixes = Arrays.copyOf(prefixes, count * 2);
+        values = Arrays.copyOf(values, count * 2);
+      }
+      int masked = length == 0 ? 0 : address & (-1 << (32 - length));
+      // sorted by length, then address, then insertion order
+      prefixes[count] = (long) length << 32 | (masked & 0xFFFFFFFFL);
+      values[count] = value;
+      count++;
+      return this;
+    }
+
+    public PrefixTrie build() {
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = i;
+      }
+      // stable, so the last of two equal prefixes is inserted last
+      Arrays.sort(order, (a, b) -> Long.compare(prefixes[a], prefixes[b]));
+      Compiler compiler = new Compiler();
+      int distinct = 0;
+      for (int i = 0; i < count; i++) {
+        long prefix = prefixes[order[i]];
+        if (i == count - 1 || prefixes[order[i + 1]] != prefix) {
+          distinct++;
+        }
+        compiler.insert((int) prefix, (int) (prefix >>> 32), values[order[i]] + 1);
+      }
+      return new PrefixTrie(compiler.root, Arrays.copyOf(compiler.chunks, compiler.used), distinct);
+    }
+  }
+
+  private static final class Compiler {
+    final int[] root = new int[1 << ROOT_BITS];
+    int[] chunks = new int[CHUNK_SIZE * 16];
+    int used = 0;
+
+    // the prefixes arrive from the shortest to the longest, so the entries a prefix covers are all leaves: the
+    // chunks below them are only created by the longer prefixes that come after it
+    void insert(int address, int length, int leaf) {
+      if (length <= ROOT_BITS) {
+        int index = address >>> ROOT_BITS;
+        Arrays.fill(root, index, index + (1 << (ROOT_BITS - length)), leaf);
+        return;
+      }
+      int entry = root[address >>> ROOT_BITS];
+      int offset = entry < 0 ? ~entry : newChunk(entry);
+      root[address >>> ROOT_BITS] = ~offset;
+      int index = offset + ((address >>> CHUNK_BITS) & 0xFF);
+      if (length <= ROOT_BITS + CHUNK_BITS) {
+        Arrays.fill(chunks, index, index + (1 << (ROOT_BITS + CHUNK_BITS - length)), leaf);
+        return;
+      }
+      entry = chunks[index];
+      offset = entry < 0 ? ~entry : newChunk(entry);
+      chunks[index] = ~offset;
+      index = offset + (address & 0xFF);
+      Arrays.fill(chunks, index, index + (1 << (32 - length)), leaf);
+    }
+
+    // @return the offset of a new chunk whose entries are all the leaf it replaces
+    private int newChunk(int leaf) {
+      if (used + CHUNK_SIZE > chunks.length) {
+        chunks = Arrays.copyOf(chunks, chunks.length * 2);
+      }
+      int offset = used;
+      used += CHUNK_SIZE;
+      Arrays.fill(chunks, offset, used, leaf);
+      return offset;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package socs.network.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the submitted tasks one at a time and in submission order on a shared executor, e.g. the packets sent to one
+ * neighbor. No thread is kept while the queue is empty.
+ */
+public class SerialExecutor implements Executor {
+  private final Executor executor;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  public SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    schedule();
+  }
+
+  private void schedule() {
+    if (scheduled.compareAndSet(false, true)) {
+      executor.execute(this::drain);
+    }
+  }
+
+  private void drain() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    }
+    scheduled.set(false);
+    // a task may have been added after the last poll
+    if (!tasks.isEmpty()) {
+      schedule();
+    }
+  }
+}
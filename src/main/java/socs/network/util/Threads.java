@@ -0,0 +1,62 @@
+package socs.network.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for the two execution modes of a router: "platform" threads and the "virtual" threads of
+ * Java 21. The virtual threads are created through reflection, so the code still compiles and runs on older JDKs,
+ * where the virtual mode falls back to platform threads.
+ */
+public final class Threads {
+  public static final String PLATFORM = "platform";
+  public static final String VIRTUAL = "virtual";
+
+  private Threads() {
+  }
+
+  // @return true if the running JVM supports virtual threads
+  public static boolean virtualThreadsSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param mode "platform" or "virtual"
+   * @return a factory of threads named name-0, name-1, ...; platform threads are daemons
+   */
+  public static ThreadFactory factory(String mode, String name) {
+    if (VIRTUAL.equals(mode)) {
+      if (virtualThreadsSupported()) {
+        return virtualFactory(name);
+      }
+      Console.log("Virtual threads need Java 21 or later, using platform threads", false);
+    } else if (!PLATFORM.equals(mode)) {
+      throw new IllegalArgumentException("Unknown thread mode: " + mode);
+    }
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  // Thread.ofVirtual().name(name + "-", 0).factory()
+  private static ThreadFactory virtualFactory(String name) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Method setName = builderClass.getMethod("name", String.class, long.class);
+      builder = setName.invoke(builder, name + "-", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot create virtual threads", e);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package socs.network.util;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs an action at most once per hold time no matter how many events trigger it, like the SPF and LSA throttling
+ * timers of OSPF.
+ * <p/>
+ * The first event after a quiet period runs the action after the initial delay. The events that arrive while a run
+ * is pending are merged into it. Every run that follows the previous one within the maximum wait doubles the hold
+ * time, up to the maximum wait, and once no run has happened for the maximum wait the hold time is reset.
+ */
+public class Throttle {
+  private final ScheduledExecutorService scheduler;
+  private final Runnable action;
+  private final long initialDelay; // all the intervals are in nanoseconds
+  private final long holdTime;
+  private final long maxWait;
+
+  // guarded by this
+  private boolean pending = false;
+  private boolean hasRun = false;
+  private long lastRun;
+  private long currentHold;
+
+  private final AtomicLong events = new AtomicLong();
+  private final AtomicLong runs = new AtomicLong();
+
+  /**
+   * @param scheduler runs the action, it should be single-threaded if the action is not thread safe
+   */
+  public Throttle(ScheduledExecutorService scheduler, long initialDelayMillis, long holdMillis, long maxWaitMillis,
+                  Runnable action) {
+    this.scheduler = scheduler;
+    this.action = action;
+    this.initialDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(initialDelayMillis, 0));
+    this.holdTime = TimeUnit.MILLISECONDS.toNanos(Math.max(holdMillis, 0));
+    this.maxWait = Math.max(TimeUnit.MILLISECONDS.toNanos(maxWaitMillis), holdTime);
+    this.currentHold = holdTime;
+  }
+
+  // record an event, the action runs once for all the events until it has started
+  public void trigger() {
+    events.incrementAndGet();
+    synchronized (this) {
+      if (pending) {
+        return;
+      }
+      long now = System.nanoTime();
+      long delay;
+      if (!hasRun || now - lastRun >= maxWait) {
+        // quiet period, react quickly
+        currentHold = holdTime;
+        delay = initialDelay;
+      } else {
+        delay = Math.max(initialDelay, lastRun + currentHold - now);
+        currentHold = Math.min(currentHold * 2, maxWait);
+      }
+      try {
+        scheduler.schedule(this::run, delay, TimeUnit.NANOSECONDS);
+        pending = true;
+      } catch (RejectedExecutionException e) {
+        // the scheduler has been shut down
+      }
+    }
+  }
+
+  private void run() {
+    synchronized (this) {
+      // the events from now on need another run
+      pending = false;
+      hasRun = true;
+      lastRun = System.nanoTime();
+    }
+    runs.incrementAndGet();
+    try {
+      action.run();
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  // a run has been scheduled and has not started yet
+  public synchronized boolean isPending() {
+    return pending;
+  }
+
+  public long getEvents() {
+    return events.get();
+  }
+
+  public long getRuns() {
+    return runs.get();
+  }
+
+  // the events that did not cause a run of their own
+  public long getCoalesced() {
+    return Math.max(events.get() - runs.get(), 0);
+  }
+
+  @Override
+  public String toString() {
+    return "events: " + events + ", runs: " + runs + ", coalesced: " + getCoalesced();
+  }
+}
@@ -0,0 +1,212 @@
+package socs.network.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel: one thread serves any number of timers with O(1) scheduling and cancellation.
+ * <p/>
+ * The wheel is an array of buckets, one per tick. A timer due in n ticks goes into bucket (now + n) mod size and
+ * waits there for n / size full turns of the wheel. Every tick the thread only looks at the timers of one bucket, so
+ * thousands of hello and dead timers cost the same as a few. Timers fire up to one tick late; the expired tasks run
+ * on the executor, not on the wheel thread.
+ */
+public class TimingWheel {
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final Executor executor;
+  private final Thread worker;
+  private final long startTime;
+
+  // timers scheduled since the last tick, moved into their bucket by the wheel thread
+  private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+  private volatile boolean stopped = false;
+
+  private final AtomicLong scheduled = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+  private final AtomicLong cancelled = new AtomicLong();
+
+  /**
+   * @param ticksPerWheel rounded up to a power of two
+   * @param executor      runs the tasks of the expired timers
+   */
+  public TimingWheel(long tickMillis, int ticksPerWheel, Executor executor, String name) {
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(tickMillis, 1));
+    int size = Integer.highestOneBit(Math.max(ticksPerWheel, 1) * 2 - 1);
+    this.wheel = new Bucket[size];
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = size - 1;
+    this.executor = executor;
+    this.startTime = System.nanoTime();
+    this.worker = new Thread(this::run, name);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  // run the task once after the delay
+  public Timeout schedule(Runnable task, long delayMillis) {
+    Timeout timeout = new Timeout(task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    scheduled.incrementAndGet();
+    added.add(timeout);
+    return timeout;
+  }
+
+  // the pending timers never fire
+  public void stop() {
+    stopped = true;
+    worker.interrupt();
+  }
+
+  public long getScheduled() {
+    return scheduled.get();
+  }
+
+  public long getExpired() {
+    return expired.get();
+  }
+
+  public long getCancelled() {
+    return cancelled.get();
+  }
+
+  @Override
+  public String toString() {
+    return "timers scheduled: " + scheduled + ", expired: " + expired + ", cancelled: " + cancelled;
+  }
+
+  private void run() {
+    long tick = 0;
+    while (!stopped) {
+      long sleep = (tick + 1) * tickNanos - (System.nanoTime() - startTime);
+      if (sleep > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(sleep);
+        } catch (InterruptedException e) {
+          continue; // stopped
+        }
+      }
+      transferAdded(tick);
+      expire(wheel[(int) (tick & mask)]);
+      tick++;
+    }
+  }
+
+  // put the new timers in their bucket, a timer already due goes in the current one
+  private void transferAdded(long tick) {
+    Timeout timeout;
+    while ((timeout = added.poll()) != null) {
+      if (timeout.state != Timeout.PENDING) {
+        continue;
+      }
+      long due = Math.max(timeout.deadline / tickNanos, tick);
+      timeout.remainingRounds = (due - tick) / wheel.length;
+      wheel[(int) (due & mask)].add(timeout);
+    }
+  }
+
+  private void expire(Bucket bucket) {
+    Timeout timeout = bucket.head;
+    while (timeout != null) {
+      Timeout next = timeout.next;
+      if (timeout.state != Timeout.PENDING) {
+        bucket.remove(timeout);
+      } else if (timeout.remainingRounds <= 0) {
+        bucket.remove(timeout);
+        if (timeout.expire()) {
+          expired.incrementAndGet();
+          try {
+            executor.execute(timeout.task);
+          } catch (RejectedExecutionException e) {
+            // the executor has been shut down
+          }
+        }
+      } else {
+        timeout.remainingRounds--;
+      }
+      timeout = next;
+    }
+  }
+
+  /**
+   * a scheduled timer, it fires at most once
+   */
+  public final class Timeout {
+    private static final int PENDING = 0;
+    private static final int EXPIRED = 1;
+    private static final int CANCELLED = 2;
+
+    private final Runnable task;
+    // nanoseconds since the start of the wheel
+    private final long deadline;
+    private volatile int state = PENDING;
+
+    // only used by the wheel thread
+    private long remainingRounds;
+    private Timeout prev;
+    private Timeout next;
+
+    private Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    // @return false if the timer had already fired or been cancelled; it is dropped by the wheel at its next turn
+    public boolean cancel() {
+      synchronized (this) {
+        if (state != PENDING) {
+          return false;
+        }
+        state = CANCELLED;
+      }
+      cancelled.incrementAndGet();
+      return true;
+    }
+
+    private synchronized boolean expire() {
+      if (state != PENDING) {
+        return false;
+      }
+      state = EXPIRED;
+      return true;
+    }
+  }
+
+  // doubly linked list of the timers of one tick, only used by the wheel thread
+  private static final class Bucket {
+    private Timeout head;
+    private Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.prev = tail;
+      timeout.next = null;
+      if (tail == null) {
+        head = timeout;
+      } else {
+        tail.next = timeout;
+      }
+      tail = timeout;
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.prev == null) {
+        head = timeout.next;
+      } else {
+        timeout.prev.next = timeout.next;
+      }
+      if (timeout.next == null) {
+        tail = timeout.prev;
+      } else {
+        timeout.next.prev = timeout.prev;
+      }
+      timeout.prev = null;
+      timeout.next = null;
+    }
+  }
+}
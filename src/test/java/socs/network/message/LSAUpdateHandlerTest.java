@@ -0,0 +1,62 @@
+package socs.network.message;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import socs.network.node.LinkStateDatabase;
+import socs.network.node.TestNode;
+import socs.network.util.Console;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LSAUpdateHandlerTest {
+
+  @Before
+  public void silenceConsole() {
+    Console.setQuiet(true);
+  }
+
+  @After
+  public void restoreConsole() {
+    Console.setQuiet(false);
+  }
+
+  private static SOSPFPacket update(Vector<LSA> lsas) {
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.sospfType = PacketFactory.LSAUPDATE;
+    packet.srcProcessIP = "127.0.0.1";
+    packet.srcProcessPort = 3002;
+    packet.srcIP = "192.168.1.2";
+    packet.dstIP = "192.168.1.1";
+    packet.routerID = "192.168.1.2";
+    packet.lsaArray = lsas;
+    return packet;
+  }
+
+  @Test
+  public void updateWithoutLSAsIsEmpty() throws IOException {
+    TestNode node = new TestNode("192.168.1.1");
+    LinkStateDatabase lsd = new LinkStateDatabase(node);
+    LSAUpdateHandler handler = new LSAUpdateHandler(node, lsd);
+
+    // encoded without an LSA array, the binary codec decodes it with neither lsaArray nor encodedLSAs
+    ByteBuffer frame = PacketCodecs.BINARY.encode(update(null), null);
+    SOSPFPacket received = PacketCodecs.decode(frame);
+    assertNull(received.lsaArray);
+    assertNull(received.encodedLSAs);
+    handler.handleMessage(received);
+    assertEquals(1, lsd.size());
+
+    // an LSA still arrives once the packet has one
+    Vector<LSA> lsas = new Vector<>(Collections.singletonList(new LSA("192.168.1.3", 1,
+      Collections.singletonList(new LinkDescription("192.168.1.2", 0)))));
+    handler.handleMessage(PacketCodecs.decode(PacketCodecs.BINARY.encode(update(lsas), null)));
+    assertEquals(2, lsd.size());
+  }
+}
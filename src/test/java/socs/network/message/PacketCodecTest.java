@@ -0,0 +1,254 @@
+package socs.network.message;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PacketCodecTest {
+  private static final PacketCodec[] CODECS = {PacketCodecs.BINARY, PacketCodecs.JAVA};
+
+  private static SOSPFPacket packet(short type, String srcProcessIP) {
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.sospfType = type;
+    packet.srcProcessIP = srcProcessIP;
+    packet.srcProcessPort = 3001;
+    packet.srcIP = "192.168.1.1";
+    packet.dstIP = "192.168.1.2";
+    packet.routerID = "192.168.1.1";
+    return packet;
+  }
+
+  private static SOSPFPacket hello(String neighborID, int area) {
+    SOSPFPacket packet = packet(PacketFactory.HELLO, "127.0.0.1");
+    packet.neighborID = neighborID;
+    packet.area = area;
+    return packet;
+  }
+
+  private static SOSPFPacket lsaUpdate() {
+    SOSPFPacket packet = packet(PacketFactory.LSAUPDATE, "127.0.0.1");
+    packet.lsaArray = new Vector<>(Arrays.asList(
+      new LSA("192.168.1.1", Integer.MIN_VALUE + 3,
+        Arrays.asList(new LinkDescription("192.168.1.1", -1), new LinkDescription("192.168.1.2", 0))),
+      new LSA("192.168.1.2", 12, Collections.singletonList(new LinkDescription("10.0.0.1", 3)),
+        Arrays.asList(Prefix.parse("192.168.1.2/32"), Prefix.parse("172.16.0.0/12")), 30),
+      new LSA("10.2.0.1", 5, Collections.singletonList(new LinkDescription("10.0.0.1", 1)),
+        Collections.singletonList(Prefix.parse("10.2.0.0/24")), 2,
+        Collections.singletonList(new Summary(Prefix.parse("10.0.0.0/16"), 0, 3)),
+        Collections.singletonList(new Summary(Prefix.parse("10.2.0.0/16"), 2, 1)), 600),
+      new LSA("192.168.1.3", 9, Collections.<LinkDescription>emptyList()).flushed()));
+    return packet;
+  }
+
+  private static SOSPFPacket data() {
+    SOSPFPacket packet = packet(PacketFactory.DATA, null);
+    packet.dstIP = "172.16.4.5";
+    packet.ttl = 17;
+    packet.payload = new byte[]{1, 2, 3, (byte) 0xFF};
+    return packet;
+  }
+
+  private static List<SOSPFPacket> packets() {
+    SOSPFPacket emptyUpdate = packet(PacketFactory.LSAUPDATE, "router1.example");
+    emptyUpdate.lsaArray = new Vector<>();
+    return Arrays.asList(hello(null, 0), hello("192.168.1.2", 0), hello("-1", 0), hello("10.2.0.1", 2), lsaUpdate(),
+      emptyUpdate, data());
+  }
+
+  private static SOSPFPacket roundTrip(PacketCodec codec, SOSPFPacket packet) throws IOException {
+    ByteBuffer frame = codec.encode(packet, null);
+    // the receiver recognizes the codec from the first byte of the frame
+    return PacketCodecs.decode(frame);
+  }
+
+  private static ByteBuffer encode(SOSPFPacket packet) throws IOException {
+    return PacketCodecs.BINARY.encode(packet, null);
+  }
+
+  private static Vector<LSA> lsas(SOSPFPacket packet) throws IOException {
+    return packet.encodedLSAs != null ? packet.encodedLSAs.decodeAll() : packet.lsaArray;
+  }
+
+  private static void assertSamePacket(SOSPFPacket expected, SOSPFPacket actual) throws IOException {
+    assertEquals(expected.sospfType, actual.sospfType);
+    assertEquals(expected.srcProcessIP, actual.srcProcessIP);
+    assertEquals(expected.srcProcessPort, actual.srcProcessPort);
+    assertEquals(expected.srcIP, actual.srcIP);
+    assertEquals(expected.dstIP, actual.dstIP);
+    assertEquals(expected.routerID, actual.routerID);
+    assertEquals(expected.neighborID, actual.neighborID);
+    assertEquals(expected.area, actual.area);
+    if (expected.sospfType == PacketFactory.DATA) {
+      assertEquals(expected.ttl, actual.ttl);
+      assertArrayEquals(expected.payload, actual.payload);
+    }
+    if (expected.lsaArray == null) {
+      assertNull(actual.lsaArray);
+      assertNull(actual.encodedLSAs);
+      return;
+    }
+    Vector<LSA> actualLSAs = lsas(actual);
+    assertNotNull(actualLSAs);
+    assertEquals(expected.lsaArray.size(), actualLSAs.size());
+    for (int i = 0; i < actualLSAs.size(); i++) {
+      assertSameLSA(expected.lsaArray.get(i), actualLSAs.get(i));
+    }
+  }
+
+  private static void assertSameLSA(LSA expected, LSA actual) {
+    assertEquals(expected.linkStateID, actual.linkStateID);
+    assertEquals(expected.lsaSeqNumber, actual.lsaSeqNumber);
+    assertEquals(expected.links.toString(), actual.links.toString());
+    assertEquals(expected.prefixes, actual.prefixes);
+    assertEquals(expected.area, actual.area);
+    assertEquals(expected.summaries, actual.summaries);
+    assertEquals(expected.exports, actual.exports);
+    assertEquals(expected.isMaxAge(), actual.isMaxAge());
+    // the age keeps growing while the test runs
+    assertTrue(Math.abs(expected.getAge() - actual.getAge()) <= 1);
+  }
+
+  private static void assertRejected(ByteBuffer frame) {
+    try {
+      PacketCodecs.decode(frame);
+      fail("decoded a malformed frame");
+    } catch (IOException e) {
+      // the normal decode error
+    }
+  }
+
+  @Test
+  public void everyPacketTypeSurvivesBothCodecs() throws IOException {
+    for (PacketCodec codec : CODECS) {
+      for (SOSPFPacket packet : packets()) {
+        assertSamePacket(packet, roundTrip(codec, packet));
+      }
+    }
+  }
+
+  @Test
+  public void bothCodecsDecodeTheSameLSAs() throws IOException {
+    SOSPFPacket packet = lsaUpdate();
+    Vector<LSA> binary = lsas(roundTrip(PacketCodecs.BINARY, packet));
+    Vector<LSA> java = lsas(roundTrip(PacketCodecs.JAVA, packet));
+    for (int i = 0; i < binary.size(); i++) {
+      assertSameLSA(java.get(i), binary.get(i));
+    }
+  }
+
+  @Test
+  public void singleLSASurvivesWriteAndRead() throws IOException {
+    for (LSA lsa : lsaUpdate().lsaArray) {
+      ByteBuffer buf = ByteBuffer.allocate(BinaryPacketCodec.encodedSize(lsa));
+      BinaryPacketCodec.writeLSA(lsa, buf);
+      assertEquals(0, buf.remaining());
+      buf.flip();
+      LSA read = BinaryPacketCodec.readLSA(buf);
+      assertEquals(lsa.linkStateID, read.linkStateID);
+      assertEquals(lsa.links.toString(), read.links.toString());
+      assertEquals(lsa.summaries, read.summaries);
+    }
+  }
+
+  @Test
+  public void truncatedFramesAreRejected() throws IOException {
+    for (PacketCodec codec : CODECS) {
+      for (SOSPFPacket packet : packets()) {
+        ByteBuffer frame = codec.encode(packet, null);
+        for (int length = 1; length < frame.remaining(); length++) {
+          ByteBuffer truncated = frame.duplicate();
+          truncated.limit(frame.position() + length);
+          try {
+            lsas(PacketCodecs.decode(truncated));
+            fail(codec + " decoded " + length + " of the " + frame.remaining() + " bytes of a frame");
+          } catch (IOException e) {
+            // the normal decode error
+          }
+        }
+      }
+    }
+  }
+
+  // a frame with the given flags, followed by a varint of 0xFFFFFFFF, i.e. -1 once decoded as an int
+  private static ByteBuffer negativeAfterFlags(int flags, byte[] before) {
+    ByteBuffer buf = ByteBuffer.allocate(64);
+    buf.put(BinaryPacketCodec.MAGIC).put(BinaryPacketCodec.VERSION).put((byte) PacketFactory.HELLO).put((byte) flags);
+    buf.put(before);
+    buf.put(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+    buf.put(new byte[16]);
+    buf.flip();
+    return buf;
+  }
+
+  @Test
+  public void negativeLengthsAreRejected() throws IOException {
+    // PROCESS_IP_STRING: the length of the process IP
+    assertRejected(negativeAfterFlags(1 << 3, new byte[0]));
+    // PROCESS_IP_NULL and HAS_LSAS: srcProcessPort, srcIP, dstIP and routerID, then the LSA count
+    assertRejected(negativeAfterFlags(1 << 4 | 1 << 2, new byte[]{0, 1, 1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1}));
+
+    // an LSA whose body size in the header is negative
+    SOSPFPacket update = packet(PacketFactory.LSAUPDATE, "127.0.0.1");
+    update.lsaArray = new Vector<>(Collections.singletonList(new LSA("192.168.1.2", 1,
+      Collections.singletonList(new LinkDescription("192.168.1.3", 0)))));
+    ByteBuffer frame = encode(update);
+    byte[] bytes = Arrays.copyOf(frame.array(), frame.remaining());
+    // packet header(4) processIP(4) port(2) IPs(12) count(1), then linkStateID(4) seqNumber(5) age(1) bodySize(1)
+    int bodySize = 4 + 4 + 2 + 12 + 1 + 4 + 5 + 1;
+    assertEquals(bytes.length - bodySize - 1, bytes[bodySize]);
+    ByteBuffer negative = ByteBuffer.allocate(bytes.length + 4);
+    negative.put(bytes, 0, bodySize).put(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+    negative.put(bytes, bodySize + 1, bytes.length - bodySize - 1);
+    negative.flip();
+    assertRejected(negative);
+
+    // a DATA payload of negative size
+    SOSPFPacket data = data();
+    data.payload = null;
+    frame = encode(data);
+    bytes = Arrays.copyOf(frame.array(), frame.remaining());
+    assertEquals(0, bytes[bytes.length - 1]);
+    negative = ByteBuffer.allocate(bytes.length + 4);
+    negative.put(bytes, 0, bytes.length - 1).put(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+    negative.flip();
+    assertRejected(negative);
+  }
+
+  @Test
+  public void negativeCountsInsideAnLSABodyAreRejected() throws IOException {
+    byte[] minusOne = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+    // the link count, then after no link the prefix count, then after no prefix and area 0 the summary and the
+    // export counts
+    byte[][] bodies = {minusOne, concat(new byte[]{0}, minusOne), concat(new byte[]{0, 0, 0}, minusOne),
+      concat(new byte[]{0, 0, 0, 0}, minusOne)};
+    for (byte[] body : bodies) {
+      ByteBuffer buf = ByteBuffer.allocate(4 + 5 + 1 + body.length);
+      buf.putInt(0x0A000001).put((byte) 0).put((byte) body.length).put(body);
+      buf.flip();
+      try {
+        BinaryPacketCodec.readLSA(buf);
+        fail("read an LSA with a negative count");
+      } catch (IOException e) {
+        // the normal decode error
+      }
+    }
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    byte[] result = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+}
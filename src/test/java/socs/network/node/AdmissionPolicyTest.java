@@ -0,0 +1,72 @@
+package socs.network.node;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionPolicyTest {
+  // the time of the policies, only moved by the tests
+  private final AtomicLong now = new AtomicLong();
+
+  private AdmissionPolicy policy(double ratePerSecond, long timeoutMillis) {
+    return new AdmissionPolicy(AdmissionPolicy.ASK, Collections.emptyList(), 16, ratePerSecond, timeoutMillis,
+      now::get);
+  }
+
+  private void advance(long millis) {
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  private static RouterDescription requester(String simulatedIP) {
+    return new RouterDescription("127.0.0.1", 0, simulatedIP);
+  }
+
+  @Test
+  public void retransmitsOfAPendingRequestAreNotRateLimited() {
+    AdmissionPolicy policy = policy(1, 0);
+    RouterDescription first = requester("192.168.1.2");
+    assertEquals(AdmissionPolicy.Decision.ASK, policy.decide(first));
+    for (int i = 0; i < 10; i++) {
+      advance(10);
+      assertEquals(AdmissionPolicy.Decision.ASK, policy.decide(first));
+    }
+    assertEquals(0, policy.getRateLimited());
+    assertEquals(1, policy.getPending());
+    // the bucket of one request per second is empty for another peer
+    assertEquals(AdmissionPolicy.Decision.REJECT, policy.decide(requester("192.168.1.3")));
+    assertEquals(1, policy.getRateLimited());
+  }
+
+  @Test
+  public void unansweredRequestsExpire() {
+    AdmissionPolicy policy = policy(0, 50);
+    RouterDescription first = requester("192.168.1.2");
+    RouterDescription second = requester("192.168.1.3");
+    policy.decide(first);
+    advance(30);
+    assertTrue(policy.expire().isEmpty());
+    policy.decide(second);
+    advance(19);
+    assertTrue(policy.expire().isEmpty());
+    advance(1);
+    assertEquals(Collections.singletonList(first), policy.expire());
+    assertSame(second, policy.next());
+    // the user answers the expired request too late, the pending one is left alone
+    assertSame(second, policy.answered(first, true));
+    assertEquals(0, policy.getAccepted());
+    advance(29);
+    assertTrue(policy.expire().isEmpty());
+    advance(1);
+    assertEquals(Collections.singletonList(second), policy.expire());
+    assertNull(policy.next());
+    assertEquals(2, policy.getExpired());
+    assertEquals(2, policy.getRejected());
+  }
+}
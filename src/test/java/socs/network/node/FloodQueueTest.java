@@ -0,0 +1,156 @@
+package socs.network.node;
+
+import org.junit.After;
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.message.PacketCodec;
+import socs.network.message.PacketCodecs;
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Syncs large databases to a new neighbor through bounded LSAUPDATE frames, each decoded and applied to the
+ * neighbor's database as soon as it is sent.
+ */
+public class FloodQueueTest {
+  private static final int MAX_FRAME_BYTES = 1400;
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @After
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private static String ip(int router) {
+    return "10." + (router >> 16) + "." + (router >> 8 & 0xFF) + "." + (router & 0xFF);
+  }
+
+  // the LSAs of a grid of the given number of routers, router 0 excluded, 4 links each
+  private static List<LSA> grid(int routers) {
+    int width = (int) Math.sqrt(routers);
+    List<LSA> lsas = new ArrayList<>(routers);
+    for (int router = 1; router <= routers; router++) {
+      List<LinkDescription> links = new ArrayList<>();
+      int[] neighbors = {router - 1, router + 1, router - width, router + width};
+      for (int port = 0; port < neighbors.length; port++) {
+        if (neighbors[port] >= 1 && neighbors[port] <= routers) {
+          links.add(new LinkDescription(ip(neighbors[port]), port));
+        }
+      }
+      lsas.add(new LSA(ip(router), router, links));
+    }
+    return lsas;
+  }
+
+  private static class Receiver {
+    final LinkStateDatabase lsd = new LinkStateDatabase(new TestNode(ip(0)));
+    final PacketCodec codec;
+    int frames = 0;
+    int largestFrame = 0;
+    int accepted = 0;
+
+    Receiver(PacketCodec codec) {
+      this.codec = codec;
+    }
+
+    // what the neighbor does with a frame: decode it and apply its LSAs, nothing is kept but the database
+    void receive(SOSPFPacket packet) {
+      try {
+        ByteBuffer frame = codec.encode(packet, null);
+        frames++;
+        largestFrame = Math.max(largestFrame, frame.remaining());
+        SOSPFPacket received = PacketCodecs.decode(frame);
+        if (received.encodedLSAs != null) {
+          accepted += lsd.updateLSAs(received.encodedLSAs).size();
+        } else {
+          for (LSA lsa : received.lsaArray) {
+            if (lsd.updateLSA(lsa)) {
+              accepted++;
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private Receiver sync(List<LSA> lsas, PacketCodec codec) {
+    Receiver receiver = new Receiver(codec);
+    TestNode sender = new TestNode(ip(lsas.size() + 1));
+    RouterDescription neighbor = sender.addNeighbor(ip(0));
+    sender.onSend(receiver::receive);
+    // a long initial delay, the test flushes the queue itself
+    FloodQueue queue = new FloodQueue(sender, scheduler, 60000, 60000, 60000, codec, MAX_FRAME_BYTES);
+    queue.enqueue(neighbor, lsas);
+    queue.flush();
+    assertEquals(receiver.frames, queue.getPackets());
+    return receiver;
+  }
+
+  private void assertSynced(List<LSA> lsas, PacketCodec codec) {
+    Receiver receiver = sync(lsas, codec);
+    assertEquals(lsas.size(), receiver.accepted);
+    assertEquals(lsas.size() + 1, receiver.lsd.size());
+    assertTrue("largest frame " + receiver.largestFrame, receiver.largestFrame <= MAX_FRAME_BYTES);
+    assertTrue(receiver.frames > 1);
+    for (LSA lsa : lsas) {
+      LSA stored = receiver.lsd.getLSA(lsa.linkStateID);
+      assertEquals(lsa.lsaSeqNumber, stored.lsaSeqNumber);
+      assertEquals(lsa.links.size(), stored.links.size());
+    }
+  }
+
+  @Test
+  public void binarySyncOf100kLSAsUsesBoundedFrames() {
+    assertSynced(grid(100000), PacketCodecs.BINARY);
+  }
+
+  @Test
+  public void javaSyncUsesBoundedFrames() {
+    // a Java frame only holds a few LSAs, 10k of them already take thousands of frames
+    assertSynced(grid(10000), PacketCodecs.JAVA);
+  }
+
+  @Test
+  public void secondSyncOf100kLSAsIsSkippedBeforeDecoding() {
+    List<LSA> lsas = grid(100000);
+    Receiver receiver = sync(lsas, PacketCodecs.BINARY);
+    long skipped = receiver.lsd.getLsasSkipped();
+    receiver.accepted = 0;
+    TestNode sender = new TestNode(ip(lsas.size() + 1));
+    RouterDescription neighbor = sender.addNeighbor(ip(0));
+    sender.onSend(receiver::receive);
+    FloodQueue queue = new FloodQueue(sender, scheduler, 60000, 60000, 60000, PacketCodecs.BINARY, MAX_FRAME_BYTES);
+    queue.enqueue(neighbor, lsas);
+    queue.flush();
+    assertEquals(0, receiver.accepted);
+    assertEquals(lsas.size(), receiver.lsd.getLsasSkipped() - skipped);
+  }
+
+  @Test
+  public void lsaLargerThanTheFrameIsSentAlone() {
+    List<LinkDescription> links = new ArrayList<>();
+    for (int i = 1; i <= 1000; i++) {
+      links.add(new LinkDescription(ip(i), i));
+    }
+    List<LSA> lsas = new ArrayList<>(grid(10));
+    lsas.add(5, new LSA(ip(20), 1, links));
+    Receiver receiver = sync(lsas, PacketCodecs.BINARY);
+    assertEquals(lsas.size(), receiver.accepted);
+    assertTrue(receiver.largestFrame > MAX_FRAME_BYTES);
+    assertEquals(3, receiver.frames);
+  }
+}
@@ -0,0 +1,75 @@
+package socs.network.node;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.util.Console;
+
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LinkStateDatabaseTest {
+  private static final String OWN = "192.168.1.1";
+  private static final String NEIGHBOR = "192.168.1.2";
+  private static final String REMOTE = "192.168.1.3";
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @Before
+  public void silenceConsole() {
+    Console.setQuiet(true);
+  }
+
+  @After
+  public void shutdown() {
+    scheduler.shutdownNow();
+    Console.setQuiet(false);
+  }
+
+  private static LSA remote(int seqNumber, int age) {
+    return new LSA(REMOTE, seqNumber, Collections.singletonList(new LinkDescription(NEIGHBOR, 0)), age);
+  }
+
+  @Test
+  public void lateCopyOfAPurgedLSAIsDropped() throws InterruptedException {
+    TestNode node = new TestNode(OWN);
+    node.addNeighbor(NEIGHBOR);
+    LinkStateDatabase lsd = new LinkStateDatabase(node);
+    lsd.addLinkDescription(NEIGHBOR);
+    // swept by the test only
+    lsd.setAging(scheduler, 2, 1, 0);
+
+    assertTrue(lsd.updateLSA(remote(5, 1)));
+    Thread.sleep(1100);
+    // the first sweep flushes the LSA, the second one purges it
+    lsd.sweep();
+    assertTrue(lsd.getLSA(REMOTE).isMaxAge());
+    lsd.sweep();
+    assertNull(lsd.getLSA(REMOTE));
+    assertEquals(1, lsd.getLsasPurged());
+
+    // a slower neighbor still holds the instance and floods it back
+    node.getFlooded().clear();
+    assertFalse(lsd.updateLSA(remote(5, 0)));
+    assertFalse(lsd.updateLSA(remote(4, 0)));
+    assertNull(lsd.getLSA(REMOTE));
+    assertEquals(2, lsd.getLateCopies());
+    // the flushed instance goes back out, so the routers it came back to drop it as well
+    LSA flush = node.getFlooded().get(0);
+    assertEquals(REMOTE, flush.linkStateID);
+    assertEquals(5, flush.lsaSeqNumber);
+    assertTrue(flush.isMaxAge());
+
+    // the originator is alive again above the purged sequence number
+    assertTrue(lsd.updateLSA(remote(6, 0)));
+    assertEquals(6, lsd.getLSA(REMOTE).lsaSeqNumber);
+  }
+}
@@ -0,0 +1,87 @@
+package socs.network.node;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.message.Prefix;
+import socs.network.message.Summary;
+import socs.network.util.PersistentHashMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LsdbStorageTest {
+  private Path dir;
+
+  @Before
+  public void createDirectory() throws IOException {
+    dir = Files.createTempDirectory("lsdb");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  // an LSA of an area border router outside the backbone, with prefixes, summaries and exports
+  private static LSA borderLSA() {
+    return new LSA("10.3.0.1", 7, Arrays.asList(new LinkDescription("10.3.0.2", 0), new LinkDescription("10.0.0.1", 1)),
+      Collections.singletonList(Prefix.parse("10.3.0.0/24")), 3,
+      Collections.singletonList(new Summary(Prefix.parse("10.0.0.0/16"), 0, 4)),
+      Arrays.asList(new Summary(Prefix.parse("10.3.0.0/16"), 3, 2), new Summary(Prefix.parse("10.4.0.0/16"), 3, 5)),
+      12);
+  }
+
+  private static void assertSameLSA(LSA expected, LSA actual) {
+    assertEquals(expected.linkStateID, actual.linkStateID);
+    assertEquals(expected.lsaSeqNumber, actual.lsaSeqNumber);
+    assertEquals(expected.links.toString(), actual.links.toString());
+    assertEquals(expected.prefixes, actual.prefixes);
+    assertEquals(expected.area, actual.area);
+    assertEquals(expected.summaries, actual.summaries);
+    assertEquals(expected.exports, actual.exports);
+    assertTrue(actual.getAge() >= expected.getAge() && actual.getAge() < LSA.MAX_AGE);
+  }
+
+  @Test
+  public void journalKeepsTheAreaAndTheSummaries() throws IOException {
+    LSA lsa = borderLSA();
+    LsdbStorage storage = new LsdbStorage(dir);
+    assertTrue(storage.load().isEmpty());
+    assertEquals(1, storage.appendPut(lsa));
+    storage.close();
+
+    Map<String, LSA> restored = new LsdbStorage(dir).load();
+    assertEquals(1, restored.size());
+    assertSameLSA(lsa, restored.get(lsa.linkStateID));
+  }
+
+  @Test
+  public void snapshotKeepsTheAreaAndTheSummaries() throws IOException {
+    LSA lsa = borderLSA();
+    LsdbStorage storage = new LsdbStorage(dir);
+    storage.load();
+    storage.appendPut(lsa);
+    storage.compact(() -> PersistentHashMap.<String, LSA>empty().put(lsa.linkStateID, lsa));
+    storage.close();
+
+    LsdbStorage reloaded = new LsdbStorage(dir);
+    Map<String, LSA> restored = reloaded.load();
+    assertEquals(1, reloaded.getLoadedFromSnapshot());
+    assertEquals(0, reloaded.getReplayedRecords());
+    assertSameLSA(lsa, restored.get(lsa.linkStateID));
+  }
+}
@@ -0,0 +1,128 @@
+package socs.network.node;
+
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.util.PersistentHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the incremental updates of the shortest path tree with a full computation from scratch, on random
+ * sequences of link, LSA and area changes.
+ */
+public class SpfEngineTest {
+  private static final String SOURCE = "10.0.0.0";
+
+  private static String ip(int router) {
+    return "10.0." + (router >> 8) + "." + (router & 0xFF);
+  }
+
+  private static LSA lsa(String id, int seq, Set<Integer> links, int area) {
+    List<LinkDescription> descriptions = new ArrayList<>();
+    int port = 0;
+    for (int to : links) {
+      descriptions.add(new LinkDescription(ip(to), port++));
+    }
+    return new LSA(id, seq, descriptions, Collections.emptyList(), area, Collections.emptyList(),
+      Collections.emptyList(), 0);
+  }
+
+  private static void assertSameTree(ShortestPathTree expected, ShortestPathTree actual, int routers, String when) {
+    for (int router = 0; router < routers; router++) {
+      String ip = ip(router);
+      assertEquals(when + ", reachable " + ip, expected.isReachable(ip), actual.isReachable(ip));
+      assertEquals(when + ", distance to " + ip, expected.getDistance(ip), actual.getDistance(ip));
+      assertEquals(when + ", next hop to " + ip, expected.getNextHop(ip), actual.getNextHop(ip));
+      assertEquals(when + ", next hops to " + ip, expected.getNextHops(ip), actual.getNextHops(ip));
+      assertEquals(when + ", path to " + ip, expected.getPath(ip), actual.getPath(ip));
+    }
+  }
+
+  @Test
+  public void incrementalUpdatesMatchFullComputations() {
+    int cases = 0;
+    for (long seed = 0; seed < 300; seed++) {
+      Random random = new Random(seed);
+      int routers = 2 + random.nextInt(30);
+      int degree = 1 + random.nextInt(4);
+      List<Set<Integer>> links = new ArrayList<>();
+      int[] seq = new int[routers];
+      int[] areas = new int[routers];
+      PersistentHashMap<String, LSA> store = PersistentHashMap.empty();
+      for (int router = 0; router < routers; router++) {
+        Set<Integer> out = new HashSet<>();
+        for (int i = 0; i < degree; i++) {
+          out.add(random.nextInt(routers));
+        }
+        links.add(out);
+        areas[router] = router > 0 && random.nextInt(10) == 0 ? 1 : 0;
+        if (router == 0 || random.nextInt(5) > 0) {
+          store = store.put(ip(router), lsa(ip(router), seq[router], out, areas[router]));
+        }
+      }
+      SpfEngine incremental = new SpfEngine(SOURCE, 0);
+      int maxPaths = 1 + random.nextInt(4);
+      incremental.setMaxPaths(maxPaths);
+      // the first computation parses every LSA
+      incremental.computeFull(0, store, Collections.<String>emptyList());
+
+      for (int step = 1; step <= 40; step++) {
+        Set<String> changed = new HashSet<>();
+        int changes = 1 + random.nextInt(random.nextInt(4) == 0 ? routers : 3);
+        for (int c = 0; c < changes; c++) {
+          int router = random.nextInt(routers);
+          String id = ip(router);
+          Set<Integer> out = links.get(router);
+          switch (random.nextInt(7)) {
+            case 0:
+            case 1:
+              out.add(random.nextInt(routers));
+              break;
+            case 2:
+            case 3:
+              if (!out.isEmpty()) {
+                out.remove(new ArrayList<>(out).get(random.nextInt(out.size())));
+              }
+              break;
+            case 4:
+              // the router leaves the database, or is flushed
+              if (router != 0) {
+                LSA old = store.get(id);
+                store = old == null || random.nextBoolean() ? store.remove(id) : store.put(id, old.flushed());
+                changed.add(id);
+              }
+              continue;
+            case 5:
+              // the router moves to the other area, its links are then ignored
+              if (router != 0) {
+                areas[router] ^= 1;
+              }
+              break;
+            default:
+              out.clear();
+              for (int i = 0; i < degree; i++) {
+                out.add(random.nextInt(routers));
+              }
+          }
+          store = store.put(id, lsa(id, ++seq[router], out, areas[router]));
+          changed.add(id);
+        }
+        ShortestPathTree updated = incremental.computeIncremental(step, store, changed);
+        SpfEngine full = new SpfEngine(SOURCE, 0);
+        full.setMaxPaths(maxPaths);
+        ShortestPathTree expected = full.computeFull(step, store, Collections.<String>emptyList());
+        assertSameTree(expected, updated, routers, "seed " + seed + ", step " + step);
+        cases++;
+      }
+    }
+    assertEquals(12000, cases);
+  }
+}
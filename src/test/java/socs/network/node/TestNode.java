@@ -0,0 +1,111 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+import java.util.function.Consumer;
+
+/**
+ * A router without any network, the packets it sends are passed to a consumer.
+ */
+public class TestNode implements Node {
+  private final RouterRegistry registry = new RouterRegistry();
+  private final RouterDescription rd;
+  private final List<RouterDescription> neighbors = new ArrayList<>();
+  private Consumer<SOSPFPacket> sent = packet -> {
+  };
+  private final List<LSA> flooded = new ArrayList<>();
+
+  public TestNode(String simulatedIP) {
+    rd = registry.getInstance("127.0.0.1", 0, simulatedIP);
+  }
+
+  public void onSend(Consumer<SOSPFPacket> sent) {
+    this.sent = sent;
+  }
+
+  public RouterDescription addNeighbor(String simulatedIP) {
+    RouterDescription neighbor = registry.getInstance("127.0.0.1", 0, simulatedIP);
+    neighbors.add(neighbor);
+    return neighbor;
+  }
+
+  @Override
+  public int getOutgoingPort(String simulatedIP) {
+    for (int i = 0; i < neighbors.size(); i++) {
+      if (neighbors.get(i).getSimulatedIP().equals(simulatedIP)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public RouterDescription getAttachedNeighbor(String simulatedIP) {
+    int port = getOutgoingPort(simulatedIP);
+    return port < 0 ? null : neighbors.get(port);
+  }
+
+  @Override
+  public RouterDescription[] getAttachedNeighbors() {
+    return neighbors.toArray(new RouterDescription[0]);
+  }
+
+  @Override
+  public boolean hasFreePort() {
+    return true;
+  }
+
+  @Override
+  public boolean addAttachedLink(Link link) {
+    return false;
+  }
+
+  @Override
+  public void attachAnswered(String simulatedIP, Link link) {
+  }
+
+  @Override
+  public void removeAttachedLink(int portNumber) {
+  }
+
+  @Override
+  public void adjacencyUp(RouterDescription neighbor) {
+  }
+
+  @Override
+  public RouterDescription getDescription() {
+    return rd;
+  }
+
+  @Override
+  public RouterRegistry getRegistry() {
+    return registry;
+  }
+
+  @Override
+  public void requestConfirmation(RouterDescription requester) {
+  }
+
+  @Override
+  public void sendPacket(SOSPFPacket packet, RouterDescription dst) {
+    sent.accept(packet);
+  }
+
+  @Override
+  public void forward(SOSPFPacket packet) {
+  }
+
+  // the LSAs queued for the neighbors, once per neighbor
+  public List<LSA> getFlooded() {
+    return flooded;
+  }
+
+  @Override
+  public void floodLSAs(Vector<LSA> lsas, RouterDescription dst) {
+    flooded.addAll(lsas);
+  }
+}
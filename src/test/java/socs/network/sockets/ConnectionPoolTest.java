@@ -0,0 +1,113 @@
+package socs.network.sockets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import socs.network.message.PacketCodecs;
+import socs.network.message.PacketFactory;
+import socs.network.message.SOSPFPacket;
+import socs.network.node.RouterDescription;
+import socs.network.node.RouterRegistry;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionPoolTest {
+  private ServerSocket server;
+  private ConnectionPool pool;
+  private final BlockingQueue<SOSPFPacket> received = new LinkedBlockingQueue<>();
+
+  @Before
+  public void open() throws IOException {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    pool = new ConnectionPool(PacketCodecs.BINARY, 60000);
+  }
+
+  @After
+  public void close() throws IOException {
+    pool.shutdown();
+    server.close();
+  }
+
+  private static SOSPFPacket hello(String routerID) {
+    SOSPFPacket packet = new SOSPFPacket();
+    packet.sospfType = PacketFactory.HELLO;
+    packet.srcProcessIP = "127.0.0.1";
+    packet.srcProcessPort = 3001;
+    packet.srcIP = routerID;
+    packet.dstIP = "192.168.1.2";
+    packet.routerID = routerID;
+    return packet;
+  }
+
+  // a neighbor that reads a single frame from each connection and then closes it, like a restarted router
+  private void acceptOneFramePerConnection() {
+    Thread peer = new Thread(() -> {
+      try {
+        while (true) {
+          SocketClient connection = new SocketClient(server.accept(), PacketCodecs.BINARY);
+          SOSPFPacket packet = connection.receive();
+          connection.close();
+          received.add(packet);
+        }
+      } catch (IOException e) {
+        // the server socket is closed at the end of the test
+      }
+    }, "peer");
+    peer.setDaemon(true);
+    peer.start();
+  }
+
+  @Test
+  public void connectionClosedByThePeerIsNotReused() throws Exception {
+    acceptOneFramePerConnection();
+    RouterDescription dst = new RouterRegistry().getInstance("127.0.0.1", server.getLocalPort(), "192.168.1.2");
+
+    assertTrue(pool.send(dst, hello("192.168.1.1")) > 0);
+    assertEquals("192.168.1.1", received.poll(5, TimeUnit.SECONDS).routerID);
+    // the peer has closed its end, give its FIN the time to cross the loopback interface
+    Thread.sleep(50);
+
+    assertTrue(pool.send(dst, hello("192.168.1.3")) > 0);
+    SOSPFPacket second = received.poll(5, TimeUnit.SECONDS);
+    assertNotNull("the packet sent after the peer closed the connection was lost", second);
+    assertEquals("192.168.1.3", second.routerID);
+    assertEquals(0, pool.getReused());
+    assertEquals(1, pool.getReconnects());
+    assertEquals(2, pool.getOpened());
+  }
+
+  @Test
+  public void sendAfterCloseOpensAPooledConnection() throws Exception {
+    RouterDescription dst = new RouterRegistry().getInstance("127.0.0.1", server.getLocalPort(), "192.168.1.2");
+    assertTrue(pool.send(dst, hello("192.168.1.1")) > 0);
+    Socket first = server.accept();
+    pool.close(dst);
+    assertEquals(-1, drain(first));
+
+    // the connection opened after the close is in the pool again, so shutdown closes it
+    assertTrue(pool.send(dst, hello("192.168.1.1")) > 0);
+    Socket second = server.accept();
+    pool.shutdown();
+    assertEquals(-1, drain(second));
+  }
+
+  // read everything the pool sent on the connection, @return -1 once the pool has closed it
+  private static int drain(Socket socket) throws IOException {
+    socket.setSoTimeout(5000);
+    byte[] buf = new byte[4096];
+    while (socket.getInputStream().read(buf) >= 0) {
+      // the frames are not checked here
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,185 @@
+package socs.network.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares random sequences of puts and removes with a HashMap, with keys whose hash codes are chosen to share
+ * prefixes of the trie or to collide completely, and checks that the old versions of the map never change.
+ */
+public class PersistentHashMapTest {
+
+  // a key with a hash code chosen by the test, two keys are equal if their ids are
+  private static final class Key {
+    final int id;
+    final int hash;
+
+    Key(int id, int hash) {
+      this.id = id;
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && ((Key) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return id + "#" + Integer.toHexString(hash);
+    }
+  }
+
+  // the keys of a test: a few full collisions, many shared prefixes of the trie and some random hashes
+  private static List<Key> keys(Random random, int count) {
+    int[] hashes = new int[1 + random.nextInt(8)];
+    for (int i = 0; i < hashes.length; i++) {
+      hashes[i] = random.nextInt();
+    }
+    List<Key> keys = new ArrayList<>(count);
+    for (int id = 0; id < count; id++) {
+      int hash;
+      switch (random.nextInt(3)) {
+        case 0:
+          hash = hashes[random.nextInt(hashes.length)];
+          break;
+        case 1:
+          // the same low bits as one of the shared hashes, they only differ deep in the trie
+          hash = hashes[random.nextInt(hashes.length)] ^ (random.nextInt(4) << 25);
+          break;
+        default:
+          hash = random.nextInt();
+      }
+      keys.add(new Key(id, hash));
+    }
+    return keys;
+  }
+
+  private static void assertSameContent(Map<Key, Integer> expected, PersistentHashMap<Key, Integer> actual,
+                                        List<Key> keys, String when) {
+    assertEquals(when, expected.size(), actual.size());
+    assertEquals(when, expected.isEmpty(), actual.isEmpty());
+    for (Key key : keys) {
+      assertEquals(when + ", get " + key, expected.get(key), actual.get(key));
+      assertEquals(when + ", contains " + key, expected.containsKey(key), actual.containsKey(key));
+    }
+    Map<Key, Integer> iterated = new HashMap<>();
+    for (Map.Entry<Key, Integer> entry : actual) {
+      assertNull(when + ", " + entry.getKey() + " iterated twice", iterated.put(entry.getKey(), entry.getValue()));
+    }
+    assertEquals(when, expected, iterated);
+    Set<Key> iteratedKeys = new HashSet<>();
+    for (Key key : actual.keys()) {
+      iteratedKeys.add(key);
+    }
+    assertEquals(when, expected.keySet(), iteratedKeys);
+    assertEquals(when, expected.size(), actual.values().size());
+    List<Integer> values = new ArrayList<>(actual.values());
+    List<Integer> expectedValues = new ArrayList<>(expected.values());
+    values.sort(null);
+    expectedValues.sort(null);
+    assertEquals(when, expectedValues, values);
+  }
+
+  @Test
+  public void randomChangesMatchAHashMap() {
+    for (long seed = 0; seed < 200; seed++) {
+      Random random = new Random(seed);
+      List<Key> keys = keys(random, 1 + random.nextInt(seed < 100 ? 40 : 400));
+      Map<Key, Integer> expected = new HashMap<>();
+      PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+      List<Map<Key, Integer>> oldContents = new ArrayList<>();
+      List<PersistentHashMap<Key, Integer>> oldVersions = new ArrayList<>();
+
+      for (int step = 0; step < 2000; step++) {
+        Key key = keys.get(random.nextInt(keys.size()));
+        if (random.nextInt(5) < 3) {
+          Integer value = random.nextInt(4);
+          Integer old = expected.put(key, value);
+          PersistentHashMap<Key, Integer> next = map.put(key, value);
+          if (value.equals(old)) {
+            // the small Integers are cached, so this is the same value and the map is left as it is
+            assertSame(map, next);
+          }
+          map = next;
+        } else {
+          boolean present = expected.remove(key) != null;
+          PersistentHashMap<Key, Integer> next = map.remove(key);
+          if (!present) {
+            assertSame(map, next);
+          }
+          map = next;
+        }
+        if (step % 50 == 0) {
+          assertSameContent(expected, map, keys, "seed " + seed + ", step " + step);
+          oldContents.add(new HashMap<>(expected));
+          oldVersions.add(map);
+        }
+      }
+      assertSameContent(expected, map, keys, "seed " + seed);
+
+      // remove everything, which pulls the remaining leaves up until the map is empty
+      for (Key key : keys) {
+        expected.remove(key);
+        map = map.remove(key);
+      }
+      assertSameContent(expected, map, keys, "seed " + seed + ", emptied");
+      assertTrue(map.isEmpty());
+      assertFalse(map.iterator().hasNext());
+
+      for (int i = 0; i < oldVersions.size(); i++) {
+        assertSameContent(oldContents.get(i), oldVersions.get(i), keys, "seed " + seed + ", version " + i);
+      }
+    }
+  }
+
+  @Test
+  public void keysWithTheSameHashAreKeptApart() {
+    List<Key> keys = new ArrayList<>();
+    for (int id = 0; id < 10; id++) {
+      keys.add(new Key(id, 42));
+    }
+    // a key whose hash differs from the colliding ones, the collision node is then nested below it
+    keys.add(new Key(10, 42 + (1 << 20)));
+    PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+    Map<Key, Integer> expected = new HashMap<>();
+    List<PersistentHashMap<Key, Integer>> versions = new ArrayList<>();
+    List<Map<Key, Integer>> contents = new ArrayList<>();
+    for (Key key : keys) {
+      map = map.put(key, key.id);
+      expected.put(key, key.id);
+      versions.add(map);
+      contents.add(new HashMap<>(expected));
+    }
+    assertSameContent(expected, map, keys, "filled");
+    map = map.put(keys.get(3), 100);
+    expected.put(keys.get(3), 100);
+    assertSameContent(expected, map, keys, "replaced");
+    for (int id = 9; id >= 0; id -= 2) {
+      map = map.remove(keys.get(id));
+      expected.remove(keys.get(id));
+      assertSameContent(expected, map, keys, "removed " + id);
+    }
+    for (int i = 0; i < versions.size(); i++) {
+      assertSameContent(contents.get(i), versions.get(i), keys, "version " + i);
+    }
+  }
+}
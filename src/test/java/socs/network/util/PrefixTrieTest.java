@@ -0,0 +1,112 @@
+package socs.network.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the lookups of the compiled trie with a brute-force longest-prefix match, on random nested prefixes
+ * around the stride boundaries.
+ */
+public class PrefixTrieTest {
+  private static final int[] LENGTHS = {0, 1, 7, 8, 9, 15, 16, 17, 23, 24, 25, 31, 32};
+
+  private static int mask(int length) {
+    return length == 0 ? 0 : -1 << (32 - length);
+  }
+
+  // the value of the longest prefix containing the address, the last one added if it was added twice
+  private static int bruteForce(List<int[]> prefixes, int address) {
+    int bestLength = -1;
+    int best = PrefixTrie.NO_ROUTE;
+    for (int[] prefix : prefixes) {
+      int length = prefix[1];
+      if ((address & mask(length)) == (prefix[0] & mask(length)) && length >= bestLength) {
+        bestLength = length;
+        best = prefix[2];
+      }
+    }
+    return best;
+  }
+
+  @Test
+  public void lookupsMatchABruteForceSearch() {
+    for (long seed = 0; seed < 300; seed++) {
+      Random random = new Random(seed);
+      // a few regions, so the prefixes are nested in each other and share the root entries and the chunks
+      int[] regions = new int[1 + random.nextInt(4)];
+      for (int i = 0; i < regions.length; i++) {
+        regions[i] = random.nextInt();
+      }
+      List<int[]> prefixes = new ArrayList<>();
+      PrefixTrie.Builder builder = new PrefixTrie.Builder();
+      int count = random.nextInt(seed < 150 ? 20 : 300);
+      for (int i = 0; i < count; i++) {
+        int length = random.nextBoolean() ? LENGTHS[random.nextInt(LENGTHS.length)] : random.nextInt(33);
+        int address = random.nextInt(4) == 0 ? random.nextInt() :
+          regions[random.nextInt(regions.length)] ^ (random.nextInt() >>> length >>> random.nextInt(8));
+        if (!prefixes.isEmpty() && random.nextInt(10) == 0) {
+          // the same prefix again, possibly written with different host bits
+          int[] again = prefixes.get(random.nextInt(prefixes.size()));
+          address = again[0] | (again[1] == 32 ? 0 : random.nextInt() >>> again[1]);
+          length = again[1];
+        }
+        int value = random.nextInt(1000);
+        prefixes.add(new int[]{address, length, value});
+        builder.add(address, length, value);
+      }
+      PrefixTrie trie = builder.build();
+
+      List<Integer> probes = new ArrayList<>();
+      for (int[] prefix : prefixes) {
+        int first = prefix[0] & mask(prefix[1]);
+        int last = first | ~mask(prefix[1]);
+        probes.add(first);
+        probes.add(last);
+        probes.add(first - 1);
+        probes.add(last + 1);
+        probes.add(first | (random.nextInt() & ~mask(prefix[1])));
+      }
+      for (int i = 0; i < 200; i++) {
+        probes.add(random.nextInt());
+        probes.add(regions[random.nextInt(regions.length)] ^ random.nextInt(1 << random.nextInt(31)));
+      }
+      for (int address : probes) {
+        assertEquals("seed " + seed + ", address " + IPAddress.toString(address), bruteForce(prefixes, address),
+          trie.lookup(address));
+      }
+    }
+  }
+
+  @Test
+  public void strideBoundariesAndDuplicates() {
+    int base = IPAddress.toInt("10.1.2.3");
+    PrefixTrie trie = new PrefixTrie.Builder()
+      .add(0, 0, 1)
+      .add(base, 32, 2)
+      .add(base, 24, 3)
+      .add(base, 16, 4)
+      .add(base, 8, 5)
+      .add(base, 24, 6)
+      .add(base, 0, 7)
+      .build();
+    assertEquals(5, trie.size());
+    // the default route, added twice, keeps the last value
+    assertEquals(7, trie.lookup(IPAddress.toInt("192.168.0.1")));
+    assertEquals(5, trie.lookup(IPAddress.toInt("10.200.0.1")));
+    assertEquals(4, trie.lookup(IPAddress.toInt("10.1.200.1")));
+    assertEquals(6, trie.lookup(IPAddress.toInt("10.1.2.4")));
+    assertEquals(6, trie.lookup(IPAddress.toInt("10.1.2.0")));
+    assertEquals(6, trie.lookup(IPAddress.toInt("10.1.2.255")));
+    assertEquals(2, trie.lookup(base));
+    assertEquals(4, trie.lookup(IPAddress.toInt("10.1.3.0")));
+    assertEquals(4, trie.lookup(IPAddress.toInt("10.1.1.255")));
+
+    assertEquals(PrefixTrie.NO_ROUTE, new PrefixTrie.Builder().build().lookup(base));
+    assertEquals(PrefixTrie.NO_ROUTE, new PrefixTrie.Builder().add(base, 32, 0).build().lookup(base + 1));
+  }
+}
@@ -0,0 +1,120 @@
+package socs.network.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a wheel with a short tick and only a few buckets, so most of the timers wait for several turns. The tests
+ * only check lower bounds on the firing times, a loaded machine can always fire them later.
+ */
+public class TimingWheelTest {
+  private static final long TICK_MILLIS = 2;
+  // one turn of the wheel is 16 ms
+  private static final int TICKS_PER_WHEEL = 8;
+
+  private final TimingWheel wheel = new TimingWheel(TICK_MILLIS, TICKS_PER_WHEEL, Runnable::run, "test-wheel");
+
+  @After
+  public void stop() {
+    wheel.stop();
+  }
+
+  private static void await(AtomicInteger counter, int expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (counter.get() < expected && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(expected, counter.get());
+  }
+
+  @Test
+  public void timersNeverFireBeforeTheirDeadline() throws InterruptedException {
+    Random random = new Random(1);
+    int timers = 2000;
+    CountDownLatch done = new CountDownLatch(timers);
+    AtomicInteger early = new AtomicInteger();
+    AtomicLong earliest = new AtomicLong(Long.MAX_VALUE);
+    for (int i = 0; i < timers; i++) {
+      // up to 10 turns of the wheel
+      long delayMillis = random.nextInt(160);
+      long notBefore = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+      wheel.schedule(() -> {
+        long margin = System.nanoTime() - notBefore;
+        if (margin < 0) {
+          early.incrementAndGet();
+        }
+        earliest.accumulateAndGet(margin, Math::min);
+        done.countDown();
+      }, delayMillis);
+      if (i % 100 == 0) {
+        // spread the timers over several ticks
+        Thread.sleep(1);
+      }
+    }
+    assertTrue(done.await(30, TimeUnit.SECONDS));
+    assertEquals("fired early, by up to " + -earliest.get() + " ns", 0, early.get());
+    assertEquals(timers, wheel.getExpired());
+  }
+
+  @Test
+  public void cancelledTimersNeverRun() throws InterruptedException {
+    Random random = new Random(2);
+    int timers = 2000;
+    AtomicInteger[] runs = new AtomicInteger[timers];
+    List<TimingWheel.Timeout> timeouts = new ArrayList<>();
+    AtomicInteger ran = new AtomicInteger();
+    for (int i = 0; i < timers; i++) {
+      AtomicInteger count = runs[i] = new AtomicInteger();
+      timeouts.add(wheel.schedule(() -> {
+        count.incrementAndGet();
+        ran.incrementAndGet();
+      }, random.nextInt(60)));
+    }
+    // cancel half of them while the others fire, some of the cancels race with the expiry
+    boolean[] cancelled = new boolean[timers];
+    int cancels = 0;
+    for (int i = 0; i < timers; i += 2) {
+      cancelled[i] = timeouts.get(i).cancel();
+      if (cancelled[i]) {
+        cancels++;
+      }
+      if (i % 200 == 0) {
+        Thread.sleep(3);
+      }
+    }
+    await(ran, timers - cancels);
+    // a few more turns, in which a cancelled timer would have fired
+    Thread.sleep(10 * TICK_MILLIS * TICKS_PER_WHEEL);
+    for (int i = 0; i < timers; i++) {
+      assertEquals("timer " + i, cancelled[i] ? 0 : 1, runs[i].get());
+      assertFalse("timer " + i, timeouts.get(i).cancel());
+    }
+    assertEquals(cancels, wheel.getCancelled());
+    assertEquals(timers - cancels, wheel.getExpired());
+  }
+
+  @Test
+  public void stopDropsThePendingTimers() throws InterruptedException {
+    AtomicInteger ran = new AtomicInteger();
+    for (int i = 0; i < 100; i++) {
+      wheel.schedule(ran::incrementAndGet, 50 + i);
+    }
+    wheel.stop();
+    wheel.schedule(ran::incrementAndGet, 0);
+    Thread.sleep(300);
+    assertEquals(0, ran.get());
+    assertEquals(0, wheel.getExpired());
+  }
+}